@@ -0,0 +1,56 @@
+package benchmarks;
+
+import core.BaseSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the k-mer functions of BaseSequence that are used by the distance checks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BaseSequenceBenchmark {
+    @Param({"60", "150", "300"})
+    public int len;
+
+    @Param({"4", "6", "8"})
+    public int k;
+
+    private BaseSequence[] seqs;
+    private int i;
+
+    @Setup
+    public void setup() {
+        seqs = BenchmarkUtils.randomSeqs(BenchmarkUtils.SEQS_COUNT, len);
+    }
+
+    @Benchmark
+    public List<BaseSequence> kmers() {
+        return next().kmers(k);
+    }
+
+    @Benchmark
+    public float jaccardDistance() {
+        return next().jaccardDistance(next(), k);
+    }
+
+    private BaseSequence next() {
+        i = (i + 1) & (BenchmarkUtils.SEQS_COUNT - 1);
+        return seqs[i];
+    }
+}
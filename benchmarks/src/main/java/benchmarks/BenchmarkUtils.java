@@ -0,0 +1,26 @@
+package benchmarks;
+
+import core.BaseSequence;
+
+/**
+ * Helper functions shared by the benchmarks.
+ */
+final class BenchmarkUtils {
+    static final int SEQS_COUNT = 1 << 10;
+    static final float GC = 0.5f;
+
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * @param count the number of sequences.
+     * @param len the length of each sequence.
+     * @return random sequences with a GC content of GC. The benchmarks cycle through them, so that the JIT cannot fold a single input.
+     */
+    static BaseSequence[] randomSeqs(int count, int len) {
+        BaseSequence[] seqs = new BaseSequence[count];
+        for (int i = 0; i < count; i++)
+            seqs[i] = BaseSequence.random(len, GC);
+        return seqs;
+    }
+}
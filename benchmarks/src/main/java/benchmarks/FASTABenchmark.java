@@ -0,0 +1,86 @@
+package benchmarks;
+
+import core.BaseSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import utils.FuncUtils;
+import utils.fasta.AsyncFASTAWriter;
+import utils.fasta.ReadableFASTAFile;
+import utils.fasta.WriteableFASTAFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks writing and reading a FASTA file of count sequences. Each invocation processes the whole file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FASTABenchmark {
+    @Param({"60", "150"})
+    public int len;
+
+    @Param({"1000", "100000"})
+    public int count;
+
+    private BaseSequence[] seqs;
+    private Path writePath;
+    private Path readPath;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        seqs = BenchmarkUtils.randomSeqs(count, len);
+        writePath = FuncUtils.safeCall(() -> Files.createTempFile("pg_bench_write", ".fa"));
+        readPath = FuncUtils.safeCall(() -> Files.createTempFile("pg_bench_read", ".fa"));
+        try (WriteableFASTAFile fasta = new WriteableFASTAFile(readPath.toString(), false)) {
+            for (BaseSequence seq : seqs)
+                fasta.append(seq);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FuncUtils.safeRun(() -> Files.deleteIfExists(writePath));
+        FuncUtils.safeRun(() -> Files.deleteIfExists(readPath));
+    }
+
+    @Benchmark
+    public void writeBuffered() {
+        try (WriteableFASTAFile fasta = new WriteableFASTAFile(writePath.toString(), false)) {
+            for (BaseSequence seq : seqs)
+                fasta.append(seq);
+        }
+    }
+
+    @Benchmark
+    public void writeAsync() {
+        try (AsyncFASTAWriter fasta = new AsyncFASTAWriter(writePath.toString(), false, AsyncFASTAWriter.SyncPolicy.NONE)) {
+            for (BaseSequence seq : seqs)
+                fasta.append(seq);
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole bh) {
+        try (ReadableFASTAFile fasta = new ReadableFASTAFile(readPath.toString())) {
+            for (BaseSequence seq : fasta.asSeqIterable())
+                bh.consume(seq);
+        }
+    }
+}
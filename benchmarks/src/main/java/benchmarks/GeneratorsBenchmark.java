@@ -0,0 +1,54 @@
+package benchmarks;
+
+import core.BaseSequence;
+import generator.SeqGenerator;
+import generator.SeqGeneratorWithRulesProb;
+import generator.SeqGeneratorWithRulesSafe;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rules.BasicDNARules;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the generation of a single sequence that obeys the local rules of BasicDNARules, i.e., without the distance check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GeneratorsBenchmark {
+    private static final float MAX_ERROR = 0.5f;
+    private static final float MAX_GC_DEVIATION = 0.1f;
+
+    @Param({"60", "150"})
+    public int len;
+
+    @Param({"safe_gc", "prob_gc"})
+    public String genType;
+
+    private SeqGenerator generator;
+
+    @Setup
+    public void setup() {
+        BasicDNARules rules = new BasicDNARules(false);
+        generator = genType.equals("prob_gc")
+                ? new SeqGeneratorWithRulesProb(len, BenchmarkUtils.GC, MAX_ERROR, rules)
+                : new SeqGeneratorWithRulesSafe(len, BenchmarkUtils.GC, MAX_GC_DEVIATION, MAX_ERROR, rules);
+    }
+
+    @Benchmark
+    public BaseSequence generate() {
+        return generator.generate();
+    }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import core.BaseSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.LSH;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the LSH used for the distance checks. The index is filled with indexSize random sequences before each iteration.
+ * The parameter rb is given as "r/b", e.g., "200/20" for 200 hash functions in 20 bands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LSHBenchmark {
+    @Param({"60", "150"})
+    public int len;
+
+    @Param({"4", "6"})
+    public int k;
+
+    @Param({"200/20", "120/10"})
+    public String rb;
+
+    @Param({"1000", "100000"})
+    public int indexSize;
+
+    private LSH lsh;
+    private BaseSequence[] queries;
+    private int i;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        String[] parts = rb.split("/");
+        lsh = new LSH(k, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        for (BaseSequence seq : BenchmarkUtils.randomSeqs(indexSize, len))
+            lsh.insert(seq);
+        queries = BenchmarkUtils.randomSeqs(BenchmarkUtils.SEQS_COUNT, len);
+    }
+
+    @Benchmark
+    public long[] minHashes() {
+        return lsh.minHashes(next());
+    }
+
+    @Benchmark
+    public String[] signatures() {
+        return lsh.signatures(next());
+    }
+
+    @Benchmark
+    public Set<BaseSequence> similarSeqs() {
+        return lsh.similarSeqs(next());
+    }
+
+    /**
+     * Inserts the queries repeatedly, i.e., the index grows by at most SEQS_COUNT sequences per iteration.
+     */
+    @Benchmark
+    public void insert() {
+        lsh.insert(next());
+    }
+
+    private BaseSequence next() {
+        i = (i + 1) & (BenchmarkUtils.SEQS_COUNT - 1);
+        return queries[i];
+    }
+}
@@ -0,0 +1,60 @@
+package benchmarks;
+
+import core.BaseSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rules.BasicDNARules;
+import rules.DNARule;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each local rule of BasicDNARules by its name. The rules that are only added with the dg rule are excluded, since the dg rule requires the dg server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RulesBenchmark {
+    @Param({"60", "150", "300"})
+    public int len;
+
+    @Param({
+            "GC Error",
+            "HP Error",
+            "GC Window Error",
+            "Microsatellites Run 2 Error",
+            "Microsatellites Run 3 Error",
+            "Repeatable Region Error(unstrict)",
+            "Repeatable Region Error (strict)"
+    })
+    public String rule;
+
+    private DNARule dnaRule;
+    private BaseSequence[] seqs;
+    private int i;
+
+    @Setup
+    public void setup() {
+        dnaRule = new BasicDNARules(false).getRules().get(rule);
+        if (dnaRule == null)
+            throw new RuntimeException("unknown rule: " + rule);
+        seqs = BenchmarkUtils.randomSeqs(BenchmarkUtils.SEQS_COUNT, len);
+    }
+
+    @Benchmark
+    public float evalErrorProbability() {
+        i = (i + 1) & (BenchmarkUtils.SEQS_COUNT - 1);
+        return dnaRule.evalErrorProbability(seqs[i]);
+    }
+}
@@ -0,0 +1,290 @@
+package benchmarks;
+
+import utils.ArgumentParser;
+import utils.FuncUtils;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how the throughput of the PG scales with the size of the library. Each combination of the swept parameters is run in a fresh JVM, and the checkpoints of its PG_report.csv are collected into
+ * checkpoints.csv and results.json in the output directory. Each row and run is labeled, e.g., by the git commit, so that the results of different commits can be compared.
+ * <p>
+ * The swept parameters are count, threads, len, min_dist, and dist_check, each given as a comma-separated list, e.g., count=100000,1000000 threads=1,8.
+ * The runner's own parameters are out, label, repeats, checkpoints, jvm_args (comma-separated), cp, and timeout_s. All other parameters are passed to every run of the PG.
+ */
+public class ScalingBenchmark {
+    private static final String MAIN_CLASS = "packaging.ProbesProducerPackage";
+    private static final String REPORT_FILE = "PG_report.csv";
+    private static final String LIST_DELIM = ",";
+    private static final Pattern JSON_NUMBER = Pattern.compile("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?");
+
+    private static final List<String> SWEPT = List.of("count", "threads", "len", "min_dist", "dist_check");
+    private static final Map<String, String> SWEPT_DEFAULTS = Map.of(
+            "count", "10000,100000",
+            "threads", String.valueOf(Runtime.getRuntime().availableProcessors()),
+            "len", "60",
+            "min_dist", "0.4",
+            "dist_check", "lsh");
+    // the PG's parameters that are set for every run, unless they are given explicitly
+    private static final Map<String, String> RUN_DEFAULTS = Map.of(
+            "approve", "false",
+            "save", "false",
+            "print_counter", "false",
+            "use_dg_server", "false");
+    private static final List<String> OWN = List.of("out", "label", "repeats", "checkpoints", "jvm_args", "cp", "timeout_s");
+
+    // the columns of PG_report.csv that are collected for each checkpoint
+    private static final List<String> CHECKPOINT_COLUMNS = List.of(
+            "Current Count",
+            "Total Time(s)",
+            "Probes/s",
+            "Acceptance Rate",
+            "Candidates/Query",
+            "Heap Used(MB)",
+            "Heap Committed(MB)",
+            "GC Count",
+            "GC Time(ms)");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = new LinkedHashMap<>(ArgumentParser.parse(args, false, true));
+        Path out = Paths.get(params.getOrDefault("out", "scaling_results"));
+        String label = params.getOrDefault("label", gitCommit());
+        int repeats = Integer.parseInt(params.getOrDefault("repeats", "1"));
+        int checkpoints = Integer.parseInt(params.getOrDefault("checkpoints", "20"));
+        List<String> jvmArgs = params.containsKey("jvm_args") ? Arrays.asList(params.get("jvm_args").split(LIST_DELIM)) : List.of();
+        String cp = params.getOrDefault("cp", System.getProperty("java.class.path"));
+        long timeoutSec = Long.parseLong(params.getOrDefault("timeout_s", "0"));
+
+        Map<String, String> passThrough = new LinkedHashMap<>(RUN_DEFAULTS);
+        params.forEach((name, value) -> {
+            if (!SWEPT.contains(name) && !OWN.contains(name))
+                passThrough.put(name, value);
+        });
+        List<Map<String, String>> configs = configs(params);
+
+        Files.createDirectories(out);
+        List<String> runsJson = new ArrayList<>();
+        StringBuilder csv = new StringBuilder();
+        csv.append(String.join(LIST_DELIM, "Label", "Run", "Repeat", "Count", "Threads", "Len", "Min Dist", "Dist Check", String.join(LIST_DELIM, CHECKPOINT_COLUMNS)));
+
+        int run = 0;
+        for (Map<String, String> config : configs) {
+            for (int repeat = 0; repeat < repeats; repeat++, run++) {
+                Path runDir = out.resolve("runs").resolve(String.format("%03d", run));
+                Files.createDirectories(runDir);
+                int count = Integer.parseInt(config.get("count"));
+                List<String> command = command(jvmArgs, cp, config, passThrough, Math.max(1, count / Math.max(1, checkpoints)));
+                System.out.println("-> run " + run + ": " + config + " (repeat " + repeat + ")");
+
+                long t = System.nanoTime();
+                int exitCode = execute(command, runDir, timeoutSec);
+                double wallSec = (System.nanoTime() - t) / 1e9d;
+                List<Map<String, String>> rows = readReport(runDir.resolve(REPORT_FILE));
+                System.out.println("   exit code: " + exitCode + ", wall time: " + wallSec + " s, checkpoints: " + rows.size());
+
+                for (Map<String, String> row : rows) {
+                    csv.append('\n').append(String.join(LIST_DELIM, label, String.valueOf(run), String.valueOf(repeat),
+                            config.get("count"), config.get("threads"), config.get("len"), config.get("min_dist"), config.get("dist_check")));
+                    for (String column : CHECKPOINT_COLUMNS)
+                        csv.append(LIST_DELIM).append(row.getOrDefault(column, ""));
+                }
+                runsJson.add(runJson(run, repeat, config, command, exitCode, wallSec, rows));
+            }
+        }
+
+        Files.writeString(out.resolve("checkpoints.csv"), csv.toString());
+        Files.writeString(out.resolve("results.json"), resultsJson(label, passThrough, runsJson));
+        System.out.println("-> results written to " + out.toAbsolutePath());
+    }
+
+    /**
+     * @return the cartesian product of the swept parameters.
+     */
+    private static List<Map<String, String>> configs(Map<String, String> params) {
+        List<Map<String, String>> configs = new ArrayList<>();
+        configs.add(new LinkedHashMap<>());
+        for (String name : SWEPT) {
+            List<Map<String, String>> next = new ArrayList<>();
+            for (String value : params.getOrDefault(name, SWEPT_DEFAULTS.get(name)).split(LIST_DELIM)) {
+                for (Map<String, String> config : configs) {
+                    Map<String, String> c = new LinkedHashMap<>(config);
+                    c.put(name, value.trim());
+                    next.add(c);
+                }
+            }
+            configs = next;
+        }
+        return configs;
+    }
+
+    private static List<String> command(List<String> jvmArgs, String cp, Map<String, String> config, Map<String, String> passThrough, int counterStep) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        // the runs are executed in their own directories
+        command.add(Arrays.stream(cp.split(File.pathSeparator)).map(p -> Paths.get(p).toAbsolutePath().toString()).reduce((a, b) -> a + File.pathSeparator + b).orElse(cp));
+        command.add(MAIN_CLASS);
+        config.forEach((name, value) -> command.add(name + "=" + value));
+        passThrough.forEach((name, value) -> command.add(name + "=" + value));
+        if (!passThrough.containsKey("counter_step"))
+            command.add("counter_step=" + counterStep);
+        return command;
+    }
+
+    private static int execute(List<String> command, Path runDir, long timeoutSec) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command)
+                .directory(runDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(runDir.resolve("stdout.log").toFile())
+                .start();
+        if (timeoutSec <= 0L)
+            return p.waitFor();
+        if (p.waitFor(timeoutSec, TimeUnit.SECONDS))
+            return p.exitValue();
+
+        // lets the PG close its reports
+        p.destroy();
+        if (!p.waitFor(30L, TimeUnit.SECONDS))
+            p.destroyForcibly();
+        return p.waitFor();
+    }
+
+    private static List<Map<String, String>> readReport(Path report) throws IOException {
+        List<Map<String, String>> rows = new ArrayList<>();
+        if (!Files.exists(report))
+            return rows;
+        List<String> lines = Files.readAllLines(report, StandardCharsets.UTF_8);
+        if (lines.isEmpty())
+            return rows;
+        String[] header = lines.get(0).split(LIST_DELIM, -1);
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank())
+                continue;
+            String[] values = line.split(LIST_DELIM, -1);
+            Map<String, String> row = new LinkedHashMap<>();
+            for (int i = 0; i < header.length && i < values.length; i++)
+                row.put(header[i], values[i]);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String runJson(int run, int repeat, Map<String, String> config, List<String> command, int exitCode, double wallSec, List<Map<String, String>> rows) {
+        List<String> checkpoints = new ArrayList<>();
+        for (Map<String, String> row : rows) {
+            List<String> fields = new ArrayList<>();
+            for (String column : CHECKPOINT_COLUMNS)
+                fields.add(quote(column) + ": " + number(row.get(column)));
+            checkpoints.add("{" + String.join(", ", fields) + "}");
+        }
+        Map<String, String> last = rows.isEmpty() ? Map.of() : rows.get(rows.size() - 1);
+        double peakHeap = rows.stream().mapToDouble(r -> parse(r.get("Heap Used(MB)"))).max().orElse(Double.NaN);
+        double totalSec = parse(last.get("Total Time(s)"));
+        double reached = parse(last.get("Current Count"));
+        return "    {\n"
+                + "      \"run\": " + run + ",\n"
+                + "      \"repeat\": " + repeat + ",\n"
+                + "      \"config\": " + object(config) + ",\n"
+                + "      \"command\": [" + String.join(", ", command.stream().map(ScalingBenchmark::quote).toList()) + "],\n"
+                + "      \"exit_code\": " + exitCode + ",\n"
+                + "      \"wall_time_s\": " + wallSec + ",\n"
+                + "      \"summary\": {"
+                + "\"count_reached\": " + number(last.get("Current Count"))
+                + ", \"total_time_s\": " + number(last.get("Total Time(s)"))
+                + ", \"probes_per_s\": " + (totalSec > 0.0d ? String.valueOf(reached / totalSec) : "null")
+                + ", \"peak_heap_used_mb\": " + (Double.isNaN(peakHeap) ? "null" : String.valueOf(peakHeap))
+                + ", \"gc_count\": " + number(last.get("GC Count"))
+                + ", \"gc_time_ms\": " + number(last.get("GC Time(ms)"))
+                + "},\n"
+                + "      \"checkpoints\": [" + String.join(", ", checkpoints) + "]\n"
+                + "    }";
+    }
+
+    private static String resultsJson(String label, Map<String, String> passThrough, List<String> runs) {
+        Map<String, String> env = new LinkedHashMap<>();
+        env.put("java_version", System.getProperty("java.version"));
+        env.put("java_vm", System.getProperty("java.vm.name"));
+        env.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + System.getProperty("os.arch"));
+        env.put("available_processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        return "{\n"
+                + "  \"label\": " + quote(label) + ",\n"
+                + "  \"created\": " + quote(Instant.now().toString()) + ",\n"
+                + "  \"environment\": " + object(env) + ",\n"
+                + "  \"params\": " + object(passThrough) + ",\n"
+                + "  \"runs\": [\n" + String.join(",\n", runs) + "\n  ]\n"
+                + "}\n";
+    }
+
+    /**
+     * @return the short hash of the current git commit with the suffix "-dirty" for uncommitted changes, or "unknown" if it cannot be determined.
+     */
+    private static String gitCommit() {
+        String commit = FuncUtils.superSafeCall(() -> exec("git", "rev-parse", "--short", "HEAD"));
+        if (commit == null || commit.isEmpty())
+            return "unknown";
+        String status = FuncUtils.superSafeCall(() -> exec("git", "status", "--porcelain", "--untracked-files=no"));
+        return status != null && !status.isEmpty() ? commit + "-dirty" : commit;
+    }
+
+    private static String exec(String... command) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            output = String.join("\n", br.lines().toList()).trim();
+        }
+        return p.waitFor() == 0 ? output : null;
+    }
+
+    private static String object(Map<String, String> map) {
+        List<String> fields = new ArrayList<>();
+        map.forEach((name, value) -> fields.add(quote(name) + ": " + (isNumber(value) ? value : quote(value))));
+        return "{" + String.join(", ", fields) + "}";
+    }
+
+    private static String number(String value) {
+        return isNumber(value) ? value : "null";
+    }
+
+    private static double parse(String value) {
+        return isNumber(value) ? Double.parseDouble(value) : Double.NaN;
+    }
+
+    private static boolean isNumber(String value) {
+        return value != null && JSON_NUMBER.matcher(value).matches();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,42 @@
+import random
+import sys
+
+from worker import Worker
+
+# Writes a table of reference dg energies computed by seqfold exactly like the dg server does (Worker.compute_dg).
+# The table is read by src/test/java/NNFoldingEngineCheck.java to measure the deviation of the local folding engine (NNFoldingEngine).
+# usage: python dg/reference.py [count] [out path] [seed]
+TEMPS = [25.0, 37.0]
+LENGTHS = [20, 30, 40, 60, 80]
+BASES = "ACGT"
+COMPLEMENT = {"A": "T", "C": "G", "G": "C", "T": "A"}
+
+
+def random_seq(rand, length):
+    return "".join(rand.choice(BASES) for _ in range(length))
+
+
+# a random sequence containing a stem of 4 to 10 bp closed by a loop of 3 to 8 bases, i.e., a stable hairpin
+def hairpin_seq(rand, length):
+    stem = random_seq(rand, rand.randint(4, 10))
+    loop = random_seq(rand, rand.randint(3, 8))
+    core = stem + loop + "".join(COMPLEMENT[b] for b in reversed(stem))
+    if len(core) >= length:
+        return core[:length]
+    left = rand.randint(0, length - len(core))
+    return random_seq(rand, left) + core + random_seq(rand, length - len(core) - left)
+
+
+if __name__ == "__main__":
+    args = sys.argv[1:]
+    count = int(args[0]) if len(args) > 0 else 500
+    out = args[1] if len(args) > 1 else "seqfold_reference.tsv"
+    rand = random.Random(int(args[2]) if len(args) > 2 else 42)
+    with open(out, "w") as f:
+        f.write("seq\ttemp\tdg\n")
+        for i in range(count):
+            length = LENGTHS[i % len(LENGTHS)]
+            seq = hairpin_seq(rand, length) if i % 2 == 0 else random_seq(rand, length)
+            for temp in TEMPS:
+                f.write("%s\t%s\t%.4f\n" % (seq, temp, Worker.compute_dg(seq, temp)))
+    print("wrote", count * len(TEMPS), "reference energies to", out)
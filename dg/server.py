@@ -1,4 +1,5 @@
 import multiprocessing
+import os
 import sys
 import time
 from concurrent.futures import ProcessPoolExecutor
@@ -6,16 +7,29 @@ from concurrent.futures import ProcessPoolExecutor
 from worker import Worker
 
 if __name__ == "__main__":
+    args = sys.argv[1:]
+    # --unix DIR: listen on the Unix domain sockets DIR/dg_0.sock, DIR/dg_1.sock, ... instead of TCP ports
+    unix_dir = None
+    if "--unix" in args:
+        i = args.index("--unix")
+        unix_dir = args[i + 1]
+        del args[i:i + 2]
+
     num_workers = None
     try:
-        num_workers = int(sys.argv[1])
+        num_workers = int(args[0])
     except:
         num_workers = multiprocessing.cpu_count()
 
     start_port = 6000
     print("num_workers=", num_workers)
     pool = ProcessPoolExecutor(max_workers=num_workers)
-    workers = [Worker(port) for port in range(start_port, start_port + num_workers)]
+    if unix_dir:
+        os.makedirs(unix_dir, exist_ok=True)
+        print("unix_dir=", unix_dir)
+        workers = [Worker(start_port + i, os.path.join(unix_dir, "dg_%d.sock" % i)) for i in range(num_workers)]
+    else:
+        workers = [Worker(port) for port in range(start_port, start_port + num_workers)]
     for w in workers:
         pool.submit(w.start)
 
@@ -5,14 +5,25 @@ import struct
 import seqfold
 
 
+# all messages are little-endian and prefixed by their payload length
+# request payload: uint32 request id | uint16 count | count * (float32 temp | uint16 seq length | seq)
+# reply payload:   uint32 request id | uint16 count | count * float32 dg
+LEN_HEADER = struct.Struct("<I")
+REQUEST_HEADER = struct.Struct("<IH")
+ITEM_HEADER = struct.Struct("<fH")
+REPLY_HEADER = struct.Struct("<IIH")
+
+
 class Worker(object):
     DEFAULT_TEMP = 25
-    MAX_BUFF_SIZE = 2 ** 12
+    MAX_BUFF_SIZE = 2 ** 16
 
-    def __init__(self, port):
+    def __init__(self, port, unix_path=None):
         self.is_connected = False
         self.port = port
+        self.unix_path = unix_path
         self.channel: socket.socket = None
+        self.reader = None
         self.listener = None
 
     def start(self):
@@ -20,70 +31,94 @@ class Worker(object):
         self.loop()
 
     def connect(self):
-        self.listener = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
-        self.listener.bind(("localhost", self.port))
-        self.listener.listen(1)
-        #self.listener.settimeout(0.1)
-        # print("listening..")
+        if self.listener is None:
+            self.listener = self.listen()
         self.channel, _ = self.listener.accept()
+        if not self.unix_path:
+            self.channel.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
+        self.reader = self.channel.makefile("rb", buffering=Worker.MAX_BUFF_SIZE)
         self.is_connected = True
-        # print("socket connected")
 
     def loop(self):
-        try:
-            while self.is_connected:
-                # print("looping")
-                seq, temp = self.parse_params()
-                if seq and temp:
-                    self.handle_request(seq, temp)
-                else:
+        while self.is_connected:
+            try:
+                payload = self.read_frame()
+                if payload is None:
                     self.restart()
-        except:
-            self.restart()
+                else:
+                    self.handle_request(payload)
+            except:
+                self.restart()
+
+    def listen(self):
+        if self.unix_path:
+            if os.path.exists(self.unix_path):
+                os.remove(self.unix_path)
+            listener = socket.socket(socket.AF_UNIX, socket.SOCK_STREAM)
+            listener.bind(self.unix_path)
+        else:
+            listener = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
+            listener.setsockopt(socket.SOL_SOCKET, socket.SO_REUSEADDR, 1)
+            listener.bind(("localhost", self.port))
+        listener.listen(1)
+        return listener
 
     def close(self):
+        self.disconnect()
         try:
-            self.is_connected = False
-            self.listener.shutdown(socket.SHUT_RDWR)
             self.listener.close()
+            if self.unix_path:
+                os.remove(self.unix_path)
+        except:
+            pass
+        self.listener = None
+
+    def disconnect(self):
+        try:
+            self.is_connected = False
+            self.reader.close()
             self.channel.close()
         except:
             pass
 
+    # the listener stays open, so that the client can reconnect to the same port
     def restart(self):
-        self.close()
+        self.disconnect()
         self.connect()
 
-    def send_dg(self, dg):
-        print("sending dg=", dg, "process id=", os.getpid())
-        self.channel.send(bytearray(struct.pack("f", dg)))
+    def read_frame(self):
+        header = self.reader.read(LEN_HEADER.size)
+        if len(header) < LEN_HEADER.size:
+            return None
+        payload_len, = LEN_HEADER.unpack(header)
+        payload = self.reader.read(payload_len)
+        if len(payload) < payload_len:
+            return None
+        return payload
+
+    def send_dgs(self, request_id, dgs):
+        reply = bytearray(REPLY_HEADER.pack(REQUEST_HEADER.size + 4 * len(dgs), request_id, len(dgs)))
+        reply += struct.pack("<%df" % len(dgs), *dgs)
+        self.channel.sendall(reply)
+
+    def handle_request(self, payload):
+        request_id, count = REQUEST_HEADER.unpack_from(payload, 0)
+        offset = REQUEST_HEADER.size
+        dgs = []
+        for _ in range(count):
+            temp, seq_len = ITEM_HEADER.unpack_from(payload, offset)
+            offset += ITEM_HEADER.size
+            seq = payload[offset: offset + seq_len].decode("ascii")
+            offset += seq_len
+            dgs.append(Worker.compute_dg(seq, temp))
+        self.send_dgs(request_id, dgs)
 
-    def handle_request(self, seq, temp):
+    @staticmethod
+    def compute_dg(seq, temp):
         try:
             dg = sum([0.5 * s.e if s.desc.startswith("STACK") else s.e for s in seqfold.fold(seq, temp)])
             if math.isinf(dg):
-                self.send_dg(float(0))
-            else:
-                self.send_dg(dg)
-        except:
-            self.send_dg(float(0))
-
-    def parse_params(self):
-        try:
-            received_bytes = self.channel.recv(Worker.MAX_BUFF_SIZE)
-            received = str(received_bytes)
-            index = -1
-            try:
-                index = received.index(",")
-                temp = float(received[index + 1: -1])
-            except:
-                temp = Worker.DEFAULT_TEMP
-
-            try:
-                seq = received[2: index]
-            except:
-                return None, None
-
-            return seq, temp
+                return float(0)
+            return dg
         except:
-            return None, None
+            return float(0)
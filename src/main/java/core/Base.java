@@ -1,6 +1,7 @@
 package core;
 
 import utils.FuncUtils;
+import utils.RandomSource;
 
 /**
  * The Enum that represents a DNA base.
@@ -45,7 +46,7 @@ public enum Base {
      * @return a random DNA base.
      */
     public static Base random() {
-        double rand = Math.random();
+        double rand = RandomSource.current().nextDouble();
         if (rand <= 0.25)
             return Base.A;
         if (rand <= 0.5)
@@ -61,7 +62,7 @@ public enum Base {
      * @return a DNA base. The probability of returning a G or C is gcContent.
      */
     public static Base randomGC(double gcContent) {
-        double rand = Math.random();
+        double rand = RandomSource.current().nextDouble();
         double gs = gcContent / 2d;
         double as = gcContent + 0.5d - gs;
         if (rand <= gs)
@@ -1,6 +1,7 @@
 package core;
 
 import utils.Pair;
+import utils.RandomSource;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
@@ -40,6 +41,13 @@ public class BaseSequence implements Iterable<Base>, Cloneable {
     private static final double ZERO_KELVIN_IN_CELSIUS = -273.15d;
 
 
+    // DELTA_H_S__5_TO_3 as primitive arrays indexed by (code(5' base) << 2) | code(3' base), including the complementary dinucleotides
+    private static final double[] NN_DELTA_H;
+    private static final double[] NN_DELTA_S;
+
+    private static final Base[] BASES_BY_CODE = {Base.A, Base.C, Base.G, Base.T};
+    private static final long GC_RESOLUTION = 1L << 15;
+
     public static final Collector<Base, BaseSequence, BaseSequence>         COLLECTOR_BASE   = new CollectorBaseSeq<>(BaseSequence::new, BaseSequence::append, (seq1, seq2) -> {seq1.append(seq2); return seq1;});
     public static final Collector<CharSequence, BaseSequence, BaseSequence> COLLECTOR_STRING = new CollectorBaseSeq<>(BaseSequence::new, BaseSequence::append, (seq1, seq2) -> {seq1.append(seq2); return seq1;});
 
@@ -56,6 +64,18 @@ public class BaseSequence implements Iterable<Base>, Cloneable {
         DELTA_H_S__5_TO_3.put(new BaseSequence("CG"), new Pair<>(-11.9d, -0.0278d));
         DELTA_H_S__5_TO_3.put(new BaseSequence("GC"), new Pair<>(-11.1d, -0.0267d));
         DELTA_H_S__5_TO_3.put(new BaseSequence("GG"), new Pair<>(-11.0d, -0.0266d));
+
+        NN_DELTA_H = new double[16];
+        NN_DELTA_S = new double[16];
+        DELTA_H_S__5_TO_3.forEach((nn, hs) -> {
+            int c1 = code(nn.get(0));
+            int c2 = code(nn.get(1));
+            // a dinucleotide and its reverse complement form the same stack, e.g., 5'-AA-3' and 5'-TT-3'
+            for (int i : new int[] {(c1 << 2) | c2, ((3 - c2) << 2) | (3 - c1)}) {
+                NN_DELTA_H[i] = hs.getT1();
+                NN_DELTA_S[i] = hs.getT2();
+            }
+        });
     }
 
     private List<Base> bases;
@@ -409,6 +429,150 @@ public class BaseSequence implements Iterable<Base>, Cloneable {
         return this.bases.get(i);
     }
 
+    /**
+     * Swaps the DNA bases at i and j. The NNSums attached to this instance, if any, are updated accordingly.
+     * @param i the index of the first base.
+     * @param j the index of the second base.
+     */
+    public void swap(int i, int j) {
+        NNSums sums = getProperty(NNSums.PROPERTY_KEY);
+        if (sums != null) {
+            sums.swap(bases, i, j);
+        }
+        else {
+            Base bi = bases.get(i);
+            bases.set(i, bases.get(j));
+            bases.set(j, bi);
+        }
+    }
+
+    /**
+     * Packs the DNA bases of this instance with 2 bits per base (A=0, C=1, G=2, T=3). Base i is stored in the bits [2 * (i % 32), 2 * (i % 32) + 1] of the long at index i / 32.
+     * @return the packed DNA bases.
+     */
+    public long[] pack() {
+        int len = length();
+        long[] packed = new long[(len + 31) >>> 5];
+        for (int i = 0; i < len; i++)
+            packed[i >>> 5] |= (long) code(bases.get(i)) << ((i & 31) << 1);
+
+        return packed;
+    }
+
+    /**
+     * Unpacks DNA bases that were packed by pack().
+     * @param packed the packed DNA bases.
+     * @param len the number of DNA bases.
+     * @return the unpacked BaseSequence.
+     */
+    public static BaseSequence unpack(long[] packed, int len) {
+        List<Base> list = new ArrayList<>(len);
+        for (int i = 0; i < len; i++)
+            list.add(ofCode((int) (packed[i >>> 5] >>> ((i & 31) << 1)) & 3));
+
+        return new BaseSequence(list);
+    }
+
+    /**
+     * @return a new BaseSequence that is the reverse complement of this instance.
+     */
+    public BaseSequence reverseComplement() {
+        int len = length();
+        List<Base> rc = new ArrayList<>(len);
+        for (int i = len - 1; i >= 0; i--)
+            rc.add(bases.get(i).complement());
+
+        return new BaseSequence(rc);
+    }
+
+    /**
+     * @return the 2-bit codes (A=0, C=1, G=2, T=3) of the DNA bases of this instance.
+     */
+    public int[] codes() {
+        int len = length();
+        int[] codes = new int[len];
+        for (int i = 0; i < len; i++)
+            codes[i] = code(bases.get(i));
+
+        return codes;
+    }
+
+    /**
+     * @param code5 the 2-bit code of the 5' base of the dinucleotide.
+     * @param code3 the 2-bit code of the 3' base of the dinucleotide.
+     * @return the nearest-neighbour enthalpy change in kcal mol-1 of the given dinucleotide paired with its complement.
+     */
+    public static double nnDeltaH(int code5, int code3) {
+        return NN_DELTA_H[(code5 << 2) | code3];
+    }
+
+    /**
+     * @param code5 the 2-bit code of the 5' base of the dinucleotide.
+     * @param code3 the 2-bit code of the 3' base of the dinucleotide.
+     * @return the nearest-neighbour entropy change in kcal K-1 mol-1 of the given dinucleotide paired with its complement.
+     */
+    public static double nnDeltaS(int code5, int code3) {
+        return NN_DELTA_S[(code5 << 2) | code3];
+    }
+
+    /**
+     * Computes the melting temperature of this instance paired with its complement from the nearest-neighbour table in a single pass.
+     * @return the melting temperature in °C.
+     */
+    public double meltingTemperature() {
+        int len = length();
+        if (len < 2)
+            return ZERO_KELVIN_IN_CELSIUS;
+
+        double deltaH = 0.0d;
+        double deltaS = 0.0d;
+        int prev = code(bases.get(0));
+        for (int i = 1; i < len; i++) {
+            int cur = code(bases.get(i));
+            int nn = (prev << 2) | cur;
+            deltaH += NN_DELTA_H[nn];
+            deltaS += NN_DELTA_S[nn];
+            prev = cur;
+        }
+        return meltingTemperature(deltaH, deltaS);
+    }
+
+    /**
+     * Computes the melting temperature as Tm = dH / (A + dS + R * ln(C / 4)) - 273.15 + 16.6 * log10([Na+]).
+     * @param deltaH the sum of the nearest-neighbour enthalpy changes in kcal mol-1.
+     * @param deltaS the sum of the nearest-neighbour entropy changes in kcal K-1 mol-1.
+     * @return the melting temperature in °C.
+     */
+    public static double meltingTemperature(double deltaH, double deltaS) {
+        return deltaH / (A_PLUS_R_MULTI_LN_C_QUARTER + deltaS) + ZERO_KELVIN_IN_CELSIUS + FACTOR_LOG_NA_PLUS_CONCENTRATION;
+    }
+
+    /**
+     * @param b the DNA base.
+     * @return the 2-bit code of the given DNA base (A=0, C=1, G=2, T=3).
+     */
+    public static int code(Base b) {
+        return switch (b) {
+            case A -> 0;
+            case C -> 1;
+            case G -> 2;
+            case T -> 3;
+        };
+    }
+
+    /**
+     * @param code the 2-bit code of a DNA base (A=0, C=1, G=2, T=3).
+     * @return the respective DNA base.
+     */
+    public static Base ofCode(int code) {
+        return switch (code) {
+            case 0 -> Base.A;
+            case 1 -> Base.C;
+            case 2 -> Base.G;
+            default -> Base.T;
+        };
+    }
+
     /**
      * Checks if this instance is equal to o.
      * @param o the other object.
@@ -437,13 +601,46 @@ public class BaseSequence implements Iterable<Base>, Cloneable {
     }
 
     /**
-     * Generates a random BaseSequence with lgiven length and GC content.
+     * Generates a random BaseSequence with lgiven length and GC content from the random stream of the calling thread.
      * @param len the length of the returned BaseSequence.
      * @param gcContent the target GC content.
      * @return the random BaseSequence.
      */
     public static BaseSequence random(int len, double gcContent) {
-        return new BaseSequence(Stream.generate(() -> Base.randomGC(gcContent)).limit(len).collect(Collectors.toList()));
+        return random(len, gcContent, RandomSource.current());
+    }
+
+    /**
+     * Generates a random BaseSequence with lgiven length and GC content. The bases are drawn in bulk: for a GC content of 0.5, each 64-bit draw yields 32 bases of 2 bits. Otherwise, each draw yields 4 bases of 16 bits,
+     * where 15 bits decide between G/C and A/T with a resolution of 2^-15 and 1 bit decides within the pair.
+     * @param len the length of the returned BaseSequence.
+     * @param gcContent the target GC content.
+     * @param rand the random stream.
+     * @return the random BaseSequence.
+     */
+    public static BaseSequence random(int len, double gcContent, SplittableRandom rand) {
+        List<Base> bases = new ArrayList<>(len);
+        if (gcContent == 0.5d) {
+            for (int i = 0; i < len; i += 32) {
+                long bits = rand.nextLong();
+                for (int j = i, end = Math.min(len, i + 32); j < end; j++, bits >>>= 2)
+                    bases.add(BASES_BY_CODE[(int) (bits & 3L)]);
+            }
+        }
+        else {
+            long threshold = Math.round(gcContent * GC_RESOLUTION);
+            for (int i = 0; i < len; i += 4) {
+                long bits = rand.nextLong();
+                for (int j = i, end = Math.min(len, i + 4); j < end; j++, bits >>>= 16) {
+                    boolean first = (bits & GC_RESOLUTION) != 0L;
+                    if ((bits & (GC_RESOLUTION - 1L)) < threshold)
+                        bases.add(first ? Base.G : Base.C);
+                    else
+                        bases.add(first ? Base.A : Base.T);
+                }
+            }
+        }
+        return new BaseSequence(bases);
     }
 
     /**
@@ -0,0 +1,92 @@
+package core;
+
+import java.util.List;
+
+/**
+ * The sums of the nearest-neighbour enthalpy and entropy changes of a list of DNA bases, which determine its melting temperature.
+ * The sums are updated incrementally when two bases are swapped, i.e., only the dinucleotides around the swapped bases are recomputed.
+ */
+public class NNSums {
+
+    /**
+     * The property key under which a BaseSequence carries the NNSums of its bases.
+     */
+    public static final String PROPERTY_KEY = "nn_sums";
+
+    private double deltaH;
+    private double deltaS;
+
+    /**
+     * Computes the sums for the given DNA bases.
+     * @param bases the DNA bases.
+     */
+    public NNSums(List<Base> bases) {
+        int len = bases.size();
+        for (int i = 1; i < len; i++)
+            add(bases, i, 1.0d);
+    }
+
+    /**
+     * Swaps the DNA bases at i and j and updates the sums accordingly.
+     * @param bases the DNA bases these sums were computed for.
+     * @param i the index of the first base.
+     * @param j the index of the second base.
+     */
+    public void swap(List<Base> bases, int i, int j) {
+        Base bi = bases.get(i);
+        Base bj = bases.get(j);
+        if (bi == bj)
+            return;
+
+        updateAround(bases, i, j, -1.0d);
+        bases.set(i, bj);
+        bases.set(j, bi);
+        updateAround(bases, i, j, 1.0d);
+    }
+
+    /**
+     * @return the sum of the nearest-neighbour enthalpy changes in kcal mol-1.
+     */
+    public double getDeltaH() {
+        return deltaH;
+    }
+
+    /**
+     * @return the sum of the nearest-neighbour entropy changes in kcal K-1 mol-1.
+     */
+    public double getDeltaS() {
+        return deltaS;
+    }
+
+    /**
+     * @return the melting temperature in °C.
+     */
+    public double meltingTemperature() {
+        return BaseSequence.meltingTemperature(deltaH, deltaS);
+    }
+
+    private void updateAround(List<Base> bases, int i, int j, double sign) {
+        int len = bases.size();
+        int lo = Math.min(i, j);
+        int hi = Math.max(i, j);
+        // the dinucleotides ending at lo, lo + 1, hi, and hi + 1, each of them only once
+        if (lo > 0)
+            add(bases, lo, sign);
+        if (lo + 1 < len)
+            add(bases, lo + 1, sign);
+        if (hi > lo + 1)
+            add(bases, hi, sign);
+        if (hi + 1 < len)
+            add(bases, hi + 1, sign);
+    }
+
+    /**
+     * Adds the dinucleotide ending at index i, multiplied by sign.
+     */
+    private void add(List<Base> bases, int i, double sign) {
+        int c5 = BaseSequence.code(bases.get(i - 1));
+        int c3 = BaseSequence.code(bases.get(i));
+        deltaH += sign * BaseSequence.nnDeltaH(c5, c3);
+        deltaS += sign * BaseSequence.nnDeltaS(c5, c3);
+    }
+}
@@ -2,6 +2,8 @@ package generator;
 
 import core.BaseSequence;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public interface SeqGenerator {
@@ -9,6 +11,23 @@ public interface SeqGenerator {
      * @return a BaseSequence.
      */
     BaseSequence generate();
+    /**
+     * Starts a single attempt to generate a BaseSequence. Generators that evaluate remote rules return before these rules completed, so that callers can keep many attempts in flight.
+     * The default implementation generates the BaseSequence synchronously.
+     * @param gate a check that is applied before any remote rule is evaluated. Attempts failing this check fail.
+     * @return a future of the generated BaseSequence, or of null if the attempt failed.
+     */
+    default CompletableFuture<BaseSequence> attemptAsync(Predicate<BaseSequence> gate) {
+        BaseSequence seq = generate();
+        return CompletableFuture.completedFuture(gate.test(seq) ? seq : null);
+    }
+
+    /**
+     * Requests the generator to stop. Generators that retry candidates until one is found return null from generate() afterwards. The default implementation does nothing.
+     */
+    default void stop() {
+    }
+
     /**
      * @return a stream of BaseSequence that are generated.
      */
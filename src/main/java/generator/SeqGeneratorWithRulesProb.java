@@ -2,16 +2,21 @@ package generator;
 
 import core.BaseSequence;
 import rules.DNARulesCollection;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
-public class SeqGeneratorWithRulesProb implements SeqGenerator {
+public class SeqGeneratorWithRulesProb implements StagedSeqGenerator {
     public static final int DEFAULT_LEN = 60;
     public static final float DEFAULT_GC = 0.5f;
+    private static final String ERROR_PROPERTY_KEY = "error";
 
     private final DNARulesCollection rules;
     private final int len;
     private final float gc;
     private final float maxError;
+    private final LongAdder candidates;
+    private volatile boolean stopped;
 
     /**
      * Creates a BaseSequence generator that generates sequences that obey certain rules. The target GC content is achieved probabilistically.
@@ -34,13 +39,75 @@ public class SeqGeneratorWithRulesProb implements SeqGenerator {
         this.gc = gc;
         this.maxError = maxError;
         this.rules = rules;
+        this.candidates = new LongAdder();
     }
 
     /**
-     * @return a BaseSequence satisfying the given constraints.
+     * @return a BaseSequence satisfying the given constraints, or null if stop() was called before one was found.
      */
     @Override
     public BaseSequence generate() {
-        return Stream.generate(() -> BaseSequence.random(len, gc)).filter(seq -> rules.evalErrorByLimit(seq, maxError) <= maxError).findFirst().orElseThrow();
+        while (!stopped) {
+            BaseSequence seq = BaseSequence.random(len, gc);
+            candidates.increment();
+            if (rules.evalErrorByLimit(seq, maxError) <= maxError)
+                return seq;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the generation: generate() returns null once the current candidate is checked.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the number of sequences checked by the rules so far.
+     */
+    @Override
+    public long getCandidates() {
+        return candidates.sum();
+    }
+
+    /**
+     * Generates a single random BaseSequence and evaluates the rules on it. Remote rules are evaluated asynchronously.
+     * @param gate a check that is applied before any remote rule is evaluated.
+     * @return a future of the BaseSequence, or of null if it violates the rules or the gate.
+     */
+    @Override
+    public CompletableFuture<BaseSequence> attemptAsync(Predicate<BaseSequence> gate) {
+        BaseSequence seq = BaseSequence.random(len, gc);
+        candidates.increment();
+        return rules.evalErrorByLimitAsync(seq, maxError, gate).thenApply(error -> error <= maxError ? seq : null);
+    }
+
+    /**
+     * @return a random BaseSequence that has not been checked by any rule.
+     */
+    @Override
+    public BaseSequence candidate() {
+        return BaseSequence.random(len, gc);
+    }
+
+    @Override
+    public boolean passesLocalRules(BaseSequence candidate) {
+        candidates.increment();
+        float error = rules.evalLocalErrorByLimit(candidate, maxError);
+        candidate.putProperty(ERROR_PROPERTY_KEY, error);
+        return error <= maxError;
+    }
+
+    @Override
+    public boolean passesRules(BaseSequence seq) {
+        candidates.increment();
+        return rules.evalErrorByLimit(seq, maxError) <= maxError;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> passesRemoteRules(BaseSequence candidate) {
+        return rules.evalRemoteErrorByLimitAsync(candidate, candidate.getProperty(ERROR_PROPERTY_KEY), maxError).thenApply(error -> error <= maxError);
     }
 }
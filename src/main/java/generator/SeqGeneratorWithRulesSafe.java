@@ -2,14 +2,17 @@ package generator;
 
 import core.Base;
 import core.BaseSequence;
+import core.NNSums;
 import rules.DNARulesCollection;
+import utils.RandomSource;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Stream;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
-public class SeqGeneratorWithRulesSafe implements SeqGenerator {
+public class SeqGeneratorWithRulesSafe implements StagedSeqGenerator {
 
     private static final int MAX_SWAPS = 4;
     private static final String ERROR_PROPERTY_KEY = "error";
@@ -20,6 +23,8 @@ public class SeqGeneratorWithRulesSafe implements SeqGenerator {
     private final float maxError;
     private final int swapsCount;
     private final DNARulesCollection rules;
+    private final LongAdder candidates;
+    private volatile boolean stopped;
 
     /**
      * Creates a BaseSequence generator that generates sequences that obey certain rules. The target GC content is guaranteed.
@@ -36,58 +41,174 @@ public class SeqGeneratorWithRulesSafe implements SeqGenerator {
         this.maxError = maxError;
         this.swapsCount = Math.max(len >> 2, 1);
         this.rules = rules;
+        this.candidates = new LongAdder();
     }
 
     /**
-     * @return a BaseSequence satisfying the given constraints.
+     * @return a BaseSequence satisfying the given constraints, or null if stop() was called before one was found.
      */
     @Override
     public BaseSequence generate() {
-        return Stream.generate(this::gen).filter(seq -> (float) seq.getProperty(ERROR_PROPERTY_KEY) <= maxError).findFirst().orElseThrow();
+        while (!stopped) {
+            BaseSequence seq = gen();
+            if ((float) seq.getProperty(ERROR_PROPERTY_KEY) <= maxError)
+                return seq;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the generation: generate() returns null once the current candidate is checked.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the number of sequences checked by the rules so far. Each retry of a rejected sequence by swapping bases counts as a sequence.
+     */
+    @Override
+    public long getCandidates() {
+        return candidates.sum();
+    }
+
+    /**
+     * Generates a single BaseSequence. Rejections by local rules are retried by swapping bases like generate() does. Remote rules are evaluated asynchronously and are not retried.
+     * @param gate a check that is applied before any remote rule is evaluated.
+     * @return a future of the BaseSequence, or of null if it violates the rules or the gate.
+     */
+    @Override
+    public CompletableFuture<BaseSequence> attemptAsync(Predicate<BaseSequence> gate) {
+        List<Base> bases = new ArrayList<>(len);
+        BaseSequence seq = randomGcBalanced(bases);
+        int swaps = 0;
+        CompletableFuture<Float> error;
+        candidates.increment();
+        while ((error = rules.evalErrorByLimitAsync(seq, maxError, gate)).isDone() && error.join() > maxError && swaps++ < MAX_SWAPS) {
+            shuffleBySwapping(bases, swapsCount, seq.getProperty(NNSums.PROPERTY_KEY));
+            candidates.increment();
+        }
+
+        return error.thenApply(e -> e <= maxError ? seq.putProperty(ERROR_PROPERTY_KEY, e) : null);
+    }
+
+    /**
+     * @return a random BaseSequence within the GC bounds that has not been checked by any rule.
+     */
+    @Override
+    public BaseSequence candidate() {
+        return randomGcBalanced(new ArrayList<>(len));
+    }
+
+    /**
+     * Evaluates the local rules. Rejections are retried by swapping bases of the candidate like generate() does.
+     * @param candidate the candidate BaseSequence.
+     * @return true, if the candidate passed the local rules.
+     */
+    @Override
+    public boolean passesLocalRules(BaseSequence candidate) {
+        float error;
+        int swaps = 0;
+        candidates.increment();
+        while ((error = rules.evalLocalErrorByLimit(candidate, maxError)) > maxError && swaps++ < MAX_SWAPS) {
+            shuffleBySwapping(candidate, swapsCount);
+            candidates.increment();
+        }
+
+        candidate.putProperty(ERROR_PROPERTY_KEY, error);
+        return error <= maxError;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> passesRemoteRules(BaseSequence candidate) {
+        return rules.evalRemoteErrorByLimitAsync(candidate, candidate.getProperty(ERROR_PROPERTY_KEY), maxError).thenApply(e -> {
+            candidate.putProperty(ERROR_PROPERTY_KEY, e);
+            return e <= maxError;
+        });
+    }
+
+    @Override
+    public boolean passesRules(BaseSequence seq) {
+        candidates.increment();
+        float error = rules.evalErrorByLimit(seq, maxError);
+        seq.putProperty(ERROR_PROPERTY_KEY, error);
+        return error <= maxError;
     }
 
     private BaseSequence gen() {
-        Random rand = ThreadLocalRandom.current();
         List<Base> bases = new ArrayList<>(len);
+        BaseSequence seq = randomGcBalanced(bases);
         float error = -1.0f;
-        int c = 0;
         int maxSwaps = 0;
-        while (c++ < len)
-            bases.add(null);
-        BaseSequence seq = new BaseSequence(bases);
-        int gcDeviationBases = gcMaxDeviationBases > 0? rand.nextInt(gcMaxDeviationBases) * (rand.nextBoolean()? 1 : -1) : 0;
-        int gcs = gcBases + gcDeviationBases;
-        int currentSize = gcs;
-        while(gcs-- > 0)
-            setBase(bases, rand.nextInt(len), rand.nextBoolean()? Base.C : Base.G);
+        while (maxSwaps++ < MAX_SWAPS) {
+            candidates.increment();
+            if ((error = rules.evalErrorByLimit(seq, maxError)) <= maxError)
+                break;
+            shuffleBySwapping(bases, swapsCount, seq.getProperty(NNSums.PROPERTY_KEY));
+        }
 
-        while(currentSize++ < len)
-            setBase(bases, rand.nextInt(len), rand.nextBoolean()? Base.A : Base.T);
+        return seq.putProperty(ERROR_PROPERTY_KEY, error);
+    }
 
-        while (maxSwaps++ < MAX_SWAPS && (error=rules.evalErrorByLimit(seq, maxError)) > maxError)
-            shuffleBySwapping(bases, swapsCount);
+    /**
+     * Fills bases with the GC bases first and the AT bases after them, and shuffles the bases by Fisher-Yates. The choices within the pairs C/G and A/T are taken from the bits of a single draw per 64 bases.
+     */
+    private BaseSequence randomGcBalanced(List<Base> bases) {
+        SplittableRandom rand = RandomSource.current();
+        int gcDeviationBases = gcMaxDeviationBases > 0? rand.nextInt(gcMaxDeviationBases) * (rand.nextBoolean()? 1 : -1) : 0;
+        int gcs = gcBases + gcDeviationBases;
+        long bits = 0L;
+        for (int i = 0; i < len; i++) {
+            if ((i & 63) == 0)
+                bits = rand.nextLong();
+            boolean first = (bits & 1L) != 0L;
+            bits >>>= 1;
+            bases.add(i < gcs ? (first ? Base.C : Base.G) : (first ? Base.A : Base.T));
+        }
+        for (int i = len - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            Base bi = bases.get(i);
+            bases.set(i, bases.get(j));
+            bases.set(j, bi);
+        }
 
-        return seq.putProperty(ERROR_PROPERTY_KEY, error);
+        return new BaseSequence(bases).putProperty(NNSums.PROPERTY_KEY, new NNSums(bases));
     }
 
     protected static void shuffleBySwapping(List<Base> bases, int swaps) {
+        shuffleBySwapping(bases, swaps, null);
+    }
+
+    /**
+     * Swaps random pairs of bases and keeps the given NNSums up to date, which only recomputes the dinucleotides around the swapped bases.
+     * @param bases the DNA bases.
+     * @param swaps the number of swaps.
+     * @param sums the NNSums of bases, or null.
+     */
+    protected static void shuffleBySwapping(List<Base> bases, int swaps, NNSums sums) {
         int len = bases.size();
-        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        SplittableRandom rand = RandomSource.current();
         int i;
         int j;
         while (swaps-- > 0) {
             i = rand.nextInt(len);
             j = rand.nextInt(len);
-            Base bi = bases.get(i);
-            bases.set(i, bases.get(j));
-            bases.set(j, bi);
+            if (sums != null) {
+                sums.swap(bases, i, j);
+            }
+            else {
+                Base bi = bases.get(i);
+                bases.set(i, bases.get(j));
+                bases.set(j, bi);
+            }
         }
     }
     
-    private void setBase(List<Base> bases, int i, Base b) {
-        while (bases.get(i) != null)
-            i = (i + 1 < len) ? i + 1 : 0;
-
-        bases.set(i, b);
+    private static void shuffleBySwapping(BaseSequence seq, int swaps) {
+        int len = seq.length();
+        SplittableRandom rand = RandomSource.current();
+        while (swaps-- > 0)
+            seq.swap(rand.nextInt(len), rand.nextInt(len));
     }
 }
@@ -0,0 +1,41 @@
+package generator;
+
+import core.BaseSequence;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A SeqGenerator whose work is split into stages, so that each stage can be run by different threads, e.g., by a ProbesPipeline.
+ * A candidate is generated by candidate(), checked by passesLocalRules(), and finally checked by passesRemoteRules().
+ */
+public interface StagedSeqGenerator extends SeqGenerator {
+    /**
+     * @return a new candidate BaseSequence that has not been checked by any rule.
+     */
+    BaseSequence candidate();
+
+    /**
+     * Evaluates all rules that are not evaluated remotely. The candidate may be modified in place, e.g., to retry it after a rejection.
+     * @param candidate the candidate BaseSequence.
+     * @return true, if the candidate passed the local rules.
+     */
+    boolean passesLocalRules(BaseSequence candidate);
+
+    /**
+     * Evaluates the remote rules, e.g., by the dg server, for a candidate that passed passesLocalRules().
+     * @param candidate the candidate BaseSequence.
+     * @return a future of true, if the candidate passed all rules.
+     */
+    CompletableFuture<Boolean> passesRemoteRules(BaseSequence candidate);
+
+    /**
+     * Evaluates all rules for a sequence as it is, i.e., unlike passesLocalRules(), a rejected sequence is not modified to retry it.
+     * @param seq the BaseSequence.
+     * @return true, if seq passed all rules.
+     */
+    boolean passesRules(BaseSequence seq);
+
+    /**
+     * @return the number of sequences checked by the rules so far, including the candidates that were rejected.
+     */
+    long getCandidates();
+}
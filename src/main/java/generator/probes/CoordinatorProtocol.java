@@ -0,0 +1,180 @@
+package generator.probes;
+
+import core.BaseSequence;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The protocol between the workers and the coordinator of a sharded generation. Each message is length-prefixed (big-endian):
+ * <pre>
+ * request: int32 payload length | int32 batch id | int32 count | count * (uint16 seq length | seq length * ASCII base)
+ * reply:   int32 payload length | int32 batch id | uint8 status | int32 accepted | int32 target | int32 count | count * uint8 verdict
+ * </pre>
+ * A worker sends a batch of candidates that passed the rules and waits for the reply, whose verdict is 1 for each accepted candidate.
+ * The reply also contains the number of probes accepted by the coordinator so far and the target count. Once the status is STATUS_DONE, the worker stops.
+ */
+public final class CoordinatorProtocol {
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_DONE = 1;
+
+    private static final int MAX_PAYLOAD_LEN = 1 << 26;
+    private static final int MAX_SEQ_LEN = 0xFFFF;
+
+    private CoordinatorProtocol() {
+    }
+
+    /**
+     * Writes a request.
+     * @param out the stream of the connection.
+     * @param batchId the id of the batch.
+     * @param batch the candidates.
+     */
+    public static void writeRequest(DataOutputStream out, int batchId, List<BaseSequence> batch) throws IOException {
+        List<byte[]> seqs = new ArrayList<>(batch.size());
+        int payloadLen = 8;
+        for (BaseSequence seq : batch) {
+            byte[] bytes = seq.toString().getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length > MAX_SEQ_LEN)
+                throw new RuntimeException("sequence too long: " + bytes.length);
+            seqs.add(bytes);
+            payloadLen += 2 + bytes.length;
+        }
+        out.writeInt(payloadLen);
+        out.writeInt(batchId);
+        out.writeInt(seqs.size());
+        for (byte[] bytes : seqs) {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a request.
+     * @param in the stream of the connection.
+     * @return the request, or null if the connection was closed by the worker.
+     */
+    public static Request readRequest(DataInputStream in) throws IOException {
+        int payloadLen;
+        try {
+            payloadLen = in.readInt();
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        checkPayloadLen(payloadLen);
+        int batchId = in.readInt();
+        int count = in.readInt();
+        List<BaseSequence> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            batch.add(new BaseSequence(new String(bytes, StandardCharsets.US_ASCII)));
+        }
+        return new Request(batchId, batch);
+    }
+
+    /**
+     * Writes a reply.
+     * @param out the stream of the connection.
+     * @param reply the reply.
+     */
+    public static void writeReply(DataOutputStream out, Reply reply) throws IOException {
+        out.writeInt(17 + reply.verdicts.length);
+        out.writeInt(reply.batchId);
+        out.writeByte(reply.status);
+        out.writeInt(reply.accepted);
+        out.writeInt(reply.target);
+        out.writeInt(reply.verdicts.length);
+        for (boolean verdict : reply.verdicts)
+            out.writeByte(verdict ? 1 : 0);
+        out.flush();
+    }
+
+    /**
+     * Reads a reply.
+     * @param in the stream of the connection.
+     * @return the reply.
+     */
+    public static Reply readReply(DataInputStream in) throws IOException {
+        checkPayloadLen(in.readInt());
+        int batchId = in.readInt();
+        byte status = in.readByte();
+        int accepted = in.readInt();
+        int target = in.readInt();
+        boolean[] verdicts = new boolean[in.readInt()];
+        for (int i = 0; i < verdicts.length; i++)
+            verdicts[i] = in.readByte() != 0;
+        return new Reply(batchId, status, accepted, target, verdicts);
+    }
+
+    private static void checkPayloadLen(int payloadLen) {
+        if (payloadLen < 0 || payloadLen > MAX_PAYLOAD_LEN)
+            throw new RuntimeException("invalid payload length: " + payloadLen);
+    }
+
+    /**
+     * A batch of candidates sent by a worker.
+     */
+    public static class Request {
+        private final int batchId;
+        private final List<BaseSequence> batch;
+
+        Request(int batchId, List<BaseSequence> batch) {
+            this.batchId = batchId;
+            this.batch = batch;
+        }
+
+        public int getBatchId() {
+            return batchId;
+        }
+
+        public List<BaseSequence> getBatch() {
+            return batch;
+        }
+    }
+
+    /**
+     * The verdicts of the coordinator for a batch.
+     */
+    public static class Reply {
+        private final int batchId;
+        private final byte status;
+        private final int accepted;
+        private final int target;
+        private final boolean[] verdicts;
+
+        public Reply(int batchId, byte status, int accepted, int target, boolean[] verdicts) {
+            this.batchId = batchId;
+            this.status = status;
+            this.accepted = accepted;
+            this.target = target;
+            this.verdicts = verdicts;
+        }
+
+        public int getBatchId() {
+            return batchId;
+        }
+
+        public byte getStatus() {
+            return status;
+        }
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getTarget() {
+            return target;
+        }
+
+        public boolean[] getVerdicts() {
+            return verdicts;
+        }
+    }
+}
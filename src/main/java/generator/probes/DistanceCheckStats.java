@@ -0,0 +1,155 @@
+package generator.probes;
+
+import utils.stats.LatencyHistogram;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe runtime statistics of the distance check stage of a probes' generator.
+ */
+public class DistanceCheckStats {
+    private final LongAdder queries;
+    private final LongAdder candidates;
+    private final LongAdder verifications;
+    private final LongAdder accepted;
+    private final LatencyHistogram latency;
+    private final LongAdder nearMisses;
+    private final LongAdder recycleAttempts;
+    private final LongAdder recycled;
+
+    /**
+     * Creates an empty statistics object.
+     */
+    public DistanceCheckStats() {
+        this.queries = new LongAdder();
+        this.candidates = new LongAdder();
+        this.verifications = new LongAdder();
+        this.accepted = new LongAdder();
+        this.latency = new LatencyHistogram();
+        this.nearMisses = new LongAdder();
+        this.recycleAttempts = new LongAdder();
+        this.recycled = new LongAdder();
+    }
+
+    /**
+     * Records a single distance check.
+     * @param candidates the number of candidates found for the query, e.g., by LSH.
+     * @param verifications the number of exact distance computations.
+     * @param accepted true if the query sequence was accepted.
+     * @param nanos the time spent on the check in nanoseconds.
+     */
+    public void record(int candidates, int verifications, boolean accepted, long nanos) {
+        this.queries.increment();
+        this.candidates.add(candidates);
+        this.verifications.add(verifications);
+        if (accepted)
+            this.accepted.increment();
+        this.latency.record(nanos);
+    }
+
+    /**
+     * Records the recycling of a rejected candidate that was a near miss.
+     * @param attempts the number of mutants checked.
+     * @param recycled true if a mutant was accepted.
+     */
+    public void recordRecycling(int attempts, boolean recycled) {
+        this.nearMisses.increment();
+        this.recycleAttempts.add(attempts);
+        if (recycled)
+            this.recycled.increment();
+    }
+
+    /**
+     * @return the number of distance checks.
+     */
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /**
+     * @return the number of accepted sequences.
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return the number of rejected sequences.
+     */
+    public long getRejected() {
+        return getQueries() - getAccepted();
+    }
+
+    /**
+     * @return the total number of candidates found.
+     */
+    public long getCandidates() {
+        return candidates.sum();
+    }
+
+    /**
+     * @return the total number of exact distance computations.
+     */
+    public long getVerifications() {
+        return verifications.sum();
+    }
+
+    /**
+     * @return the average number of candidates per query.
+     */
+    public double getCandidatesPerQuery() {
+        long q = getQueries();
+        return q > 0L ? (double) getCandidates() / q : 0.0d;
+    }
+
+    /**
+     * @return the average number of exact distance computations per query.
+     */
+    public double getVerificationsPerQuery() {
+        long q = getQueries();
+        return q > 0L ? (double) getVerifications() / q : 0.0d;
+    }
+
+    /**
+     * @return the fraction of accepted queries.
+     */
+    public double getAcceptanceRate() {
+        long q = getQueries();
+        return q > 0L ? (double) getAccepted() / q : 0.0d;
+    }
+
+    /**
+     * @return the number of rejected candidates that were recycled because they were near misses.
+     */
+    public long getNearMisses() {
+        return nearMisses.sum();
+    }
+
+    /**
+     * @return the number of mutants checked for the near misses.
+     */
+    public long getRecycleAttempts() {
+        return recycleAttempts.sum();
+    }
+
+    /**
+     * @return the number of near misses of which a mutant was accepted.
+     */
+    public long getRecycled() {
+        return recycled.sum();
+    }
+
+    /**
+     * @return the fraction of near misses of which a mutant was accepted.
+     */
+    public double getRecycleSuccessRate() {
+        long n = getNearMisses();
+        return n > 0L ? (double) getRecycled() / n : 0.0d;
+    }
+
+    /**
+     * @return the latency histogram of the distance checks.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+}
@@ -0,0 +1,27 @@
+package generator.probes;
+
+import core.BaseSequence;
+
+/**
+ * The distance check of a probes' generator, i.e., the set of probes accepted so far.
+ */
+public interface DistanceChecker {
+    /**
+     * Checks without locking whether a given DNA sequence is far enough from the sequences accepted so far. Since sequences may be accepted concurrently, tryAdd must still be called.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq is far enough from the sequences accepted so far.
+     */
+    boolean isFarEnough(BaseSequence seq);
+
+    /**
+     * Attempts to accept a given DNA sequence. If the distance requirements are not met, this function returns false.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq meets the requirements and was accepted.
+     */
+    boolean tryAdd(BaseSequence seq);
+
+    /**
+     * @return the statistics of the distance checks performed by this instance.
+     */
+    DistanceCheckStats getStats();
+}
@@ -0,0 +1,141 @@
+package generator.probes;
+
+import core.Base;
+import core.BaseSequence;
+import core.NNSums;
+import generator.StagedSeqGenerator;
+import utils.RandomSource;
+import utils.SimilarityJoin;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Recycles candidates that were rejected by the distance check instead of discarding them. A rejected candidate is a near miss if only a few of its k-mers collide with the probe it is too close to.
+ * The colliding region of a near miss is mutated until the mutant is far enough from this probe, and the mutant is checked by the rules again. Each mutation replaces a base by its complement (A-T, C-G), i.e., the GC content of the candidate is preserved exactly.
+ */
+public class NearMissRecycler {
+    public static final float DEFAULT_MAX_MUTATIONS_FRACTION = 0.1f;
+
+    private final StagedSeqGenerator generator;
+    private final int k;
+    private final int maxAttempts;
+    private final int maxMutations;
+
+    /**
+     * Creates a recycler of near misses.
+     * @param generator the generator whose rules are checked for each mutant.
+     * @param k the k-mers length of the distance check.
+     * @param maxAttempts the maximum number of mutants per rejected candidate.
+     * @param maxMutations the maximum number of bases mutated at once. Candidates that need more mutations to be far enough from the conflicting probe are not recycled.
+     */
+    public NearMissRecycler(StagedSeqGenerator generator, int k, int maxAttempts, int maxMutations) {
+        if (k > SimilarityJoin.MAX_K)
+            throw new RuntimeException("k must be <= " + SimilarityJoin.MAX_K);
+        if (maxAttempts < 1 || maxMutations < 1)
+            throw new RuntimeException("maxAttempts and maxMutations must be >= 1");
+        this.generator = generator;
+        this.k = k;
+        this.maxAttempts = maxAttempts;
+        this.maxMutations = maxMutations;
+    }
+
+    /**
+     * Mutates the bases of a rejected candidate that are covered by the most k-mers it shares with the probe it is too close to, one base at a time, until the mutant is far enough from this probe.
+     * @param seq the rejected candidate.
+     * @param conflict the probe that seq is too close to.
+     * @param rc true, if the reverse complement of seq is too close to conflict.
+     * @param minDist the distance required between seq (or its reverse complement if rc is true) and conflict.
+     * @param excluded the positions of seq that must not be mutated, e.g., the positions mutated by earlier mutants that failed the rules. The positions mutated by this call are added to it.
+     * @return the mutant, or null if seq is not a near miss, i.e., more than maxMutations bases would have to be mutated, or if no position is left to mutate.
+     */
+    public BaseSequence mutate(BaseSequence seq, BaseSequence conflict, boolean rc, float minDist, boolean[] excluded) {
+        long[] shared = SimilarityJoin.kmerCodes(conflict, k);
+        BaseSequence query = rc ? seq.reverseComplement() : seq;
+        int[] codes = query.codes();
+        int len = codes.length;
+        // the positions of the query, i.e., of the reverse complement of seq if rc is true
+        boolean[] frozen = new boolean[len];
+        for (int i = 0; i < len; i++)
+            frozen[i] = excluded[rc ? len - 1 - i : i];
+        SplittableRandom rand = RandomSource.current();
+        int mutations = 0;
+        while (SimilarityJoin.distance(SimilarityJoin.kmerCodes(query, k), shared) < minDist) {
+            if (++mutations > maxMutations)
+                return null;
+            int i = mostCollidingPosition(SimilarityJoin.kmerCodesByPosition(query, k), shared, frozen, rand);
+            if (i < 0)
+                return null;
+            codes[i] = 3 - codes[i];
+            frozen[i] = true;
+            query = of(codes);
+        }
+        if (mutations == 0)
+            return null;
+        for (int i = 0; i < len; i++)
+            excluded[rc ? len - 1 - i : i] = frozen[i];
+
+        BaseSequence mutant = rc ? query.reverseComplement() : query;
+        List<Base> bases = new ArrayList<>(codes.length);
+        mutant.forEach(bases::add);
+        return new BaseSequence(bases).putProperty(NNSums.PROPERTY_KEY, new NNSums(bases));
+    }
+
+    /**
+     * Evaluates all rules of the generator for a mutant as it is, i.e., a rejected mutant is not modified to retry it, which would discard the targeted mutations.
+     * @param mutant the mutant.
+     * @return true, if the mutant passed all rules.
+     */
+    public boolean passesRules(BaseSequence mutant) {
+        return generator.passesRules(mutant);
+    }
+
+    /**
+     * @return the maximum number of mutants per rejected candidate.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return the maximum number of bases mutated at once.
+     */
+    public int getMaxMutations() {
+        return maxMutations;
+    }
+
+    /**
+     * @return the position that is not frozen and covered by the most k-mers that are shared with the conflicting probe, or -1 if no such position is covered by any shared k-mer. Ties are broken randomly.
+     */
+    private int mostCollidingPosition(long[] kmers, long[] shared, boolean[] frozen, SplittableRandom rand) {
+        int[] cover = new int[frozen.length];
+        for (int p = 0; p < kmers.length; p++) {
+            if (Arrays.binarySearch(shared, kmers[p]) >= 0) {
+                for (int i = p; i < p + k; i++)
+                    cover[i]++;
+            }
+        }
+        int best = -1;
+        int ties = 0;
+        for (int i = 0; i < frozen.length; i++) {
+            if (frozen[i] || cover[i] == 0)
+                continue;
+            if (best < 0 || cover[i] > cover[best]) {
+                best = i;
+                ties = 1;
+            }
+            else if (cover[i] == cover[best] && rand.nextInt(++ties) == 0) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static BaseSequence of(int[] codes) {
+        List<Base> bases = new ArrayList<>(codes.length);
+        for (int code : codes)
+            bases.add(BaseSequence.ofCode(code));
+        return new BaseSequence(bases);
+    }
+}
@@ -0,0 +1,158 @@
+package generator.probes;
+
+import core.BaseSequence;
+import utils.FuncUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The coordinator of a sharded generation: workers, i.e., other processes on the same or other hosts, generate candidates that pass the rules and send them in batches to the coordinator,
+ * which owns the distance index and accepts or rejects the candidates (see CoordinatorProtocol). The batches of all workers are accepted one after another, so that the accepted probes meet the distance requirements.
+ */
+public class ProbesCoordinator {
+    public static final int DEFAULT_PORT = 6100;
+
+    private static final long POLL_TIMEOUT_MS = 100L;
+    private static final long DRAIN_TIMEOUT_MS = 2000L;
+
+    private final ShardedLSHIndex index;
+    private final int port;
+    private final ObjIntConsumer<BaseSequence> sink;
+    private final Set<Socket> connections;
+    private final AtomicInteger workers;
+    private final CountDownLatch done;
+
+    private ServerSocket server;
+    private int target;
+    private int accepted;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a coordinator.
+     * @param index the distance index of the accepted probes.
+     * @param port the TCP port the coordinator listens on.
+     * @param sink receives each accepted probe and its 1-based number in the order of acceptance. It is called by one thread at a time.
+     */
+    public ProbesCoordinator(ShardedLSHIndex index, int port, ObjIntConsumer<BaseSequence> sink) {
+        this.index = index;
+        this.port = port;
+        this.sink = sink;
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.workers = new AtomicInteger();
+        this.done = new CountDownLatch(1);
+    }
+
+    /**
+     * Accepts the candidates of the workers until count probes were accepted, or until stop() was called.
+     * @param count the number of probes to generate.
+     * @return the number of accepted probes.
+     */
+    public int run(int count) {
+        target = count;
+        server = FuncUtils.safeCall(() -> new ServerSocket());
+        FuncUtils.safeRun(() -> {
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "pg-coord-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        while (!stopped && !FuncUtils.safeCall(() -> done.await(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)));
+        stopped = true;
+        FuncUtils.superSafeCall(() -> {
+            server.close();
+            return null;
+        });
+        // the workers receive the status done with the reply to their next batch
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while (!connections.isEmpty() && System.currentTimeMillis() < deadline)
+            FuncUtils.safeRun(() -> Thread.sleep(10L));
+        connections.forEach(s -> FuncUtils.superSafeCall(() -> {
+            s.close();
+            return null;
+        }));
+        synchronized (this) {
+            return accepted;
+        }
+    }
+
+    /**
+     * Stops the coordinator. The probes that were already accepted are still passed to the sink.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return the number of connected workers.
+     */
+    public int getWorkers() {
+        return workers.get();
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            }
+            catch (IOException e) {
+                return;
+            }
+            connections.add(socket);
+            Thread t = new Thread(() -> handle(socket), "pg-coord-conn-" + workers.incrementAndGet());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            CoordinatorProtocol.Request request;
+            while ((request = CoordinatorProtocol.readRequest(in)) != null) {
+                CoordinatorProtocol.Reply reply = accept(request);
+                CoordinatorProtocol.writeReply(out, reply);
+                if (reply.getStatus() == CoordinatorProtocol.STATUS_DONE)
+                    return;
+            }
+        }
+        catch (IOException e) {
+            if (!stopped)
+                System.out.println("-> worker disconnected: " + e.getMessage());
+        }
+        finally {
+            connections.remove(socket);
+            workers.decrementAndGet();
+        }
+    }
+
+    private synchronized CoordinatorProtocol.Reply accept(CoordinatorProtocol.Request request) {
+        List<BaseSequence> batch = request.getBatch();
+        boolean[] verdicts = stopped ? new boolean[batch.size()] : index.acceptBatch(batch, target - accepted);
+        for (int i = 0; i < verdicts.length; i++) {
+            if (verdicts[i])
+                sink.accept(batch.get(i), ++accepted);
+        }
+        if (accepted >= target)
+            done.countDown();
+        byte status = stopped || accepted >= target ? CoordinatorProtocol.STATUS_DONE : CoordinatorProtocol.STATUS_OK;
+        return new CoordinatorProtocol.Reply(request.getBatchId(), status, accepted, target, verdicts);
+    }
+}
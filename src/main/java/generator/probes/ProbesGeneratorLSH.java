@@ -3,13 +3,32 @@ package generator.probes;
 import core.BaseSequence;
 import generator.SeqGenerator;
 import utils.LSH;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 
-public class ProbesGeneratorLSH implements SeqGenerator {
+public class ProbesGeneratorLSH implements SeqGenerator, DistanceChecker {
 
     private final float minDist;
+    private final float minRcDist;
     private final SeqGenerator generator;
     private final LSH lsh;
     private final int k;
+    private final DistanceCheckStats stats;
+    private final int inFlight;
+    private final ThreadLocal<Deque<CompletableFuture<BaseSequence>>> windows;
+    private final NearMissRecycler recycler;
+    private volatile boolean stopped;
+
+    // the group commit of batches: the number of sequences committed so far, the snapshots of the batches in progress, and the sequences committed since the oldest of these snapshots
+    private long version;
+    private final TreeMap<Long, Integer> snapshots;
+    private final Deque<Committed> log;
 
     /**
      * Creates a Probes' generator object that utilizes LSH for Jaccard distance checks.
@@ -18,10 +37,58 @@ public class ProbesGeneratorLSH implements SeqGenerator {
      * @param minDist the minimum distance required for the DNA sequences generated by this instance.
      */
     public ProbesGeneratorLSH(SeqGenerator generator, LSH lsh, float minDist) {
+        this(generator, lsh, minDist, 1);
+    }
+
+    /**
+     * Creates a Probes' generator object that utilizes LSH for Jaccard distance checks and keeps multiple candidates in flight per thread.
+     * While the remote rules of a candidate are evaluated, e.g., by the dg server, the next candidates are generated and checked by the local rules.
+     * @param generator a generator that generates BaseSequence objects. This generator should fulfill basic DNA constrains such as GC content requirements, no homopolymers, etc.
+     * @param lsh the LSH instance used for distance checks.
+     * @param minDist the minimum distance required for the DNA sequences generated by this instance.
+     * @param inFlight the maximum number of candidates in flight per thread. A value of 1 generates candidates synchronously.
+     */
+    public ProbesGeneratorLSH(SeqGenerator generator, LSH lsh, float minDist, int inFlight) {
+        this(generator, lsh, minDist, inFlight, 0.0f);
+    }
+
+    /**
+     * Creates a Probes' generator object that utilizes LSH for Jaccard distance checks and optionally screens for cross-hybridization.
+     * For the cross-hybridization screen, the reverse complement of each candidate is looked up in the same LSH, i.e., the screen is indexed like the distance check.
+     * @param generator a generator that generates BaseSequence objects. This generator should fulfill basic DNA constrains such as GC content requirements, no homopolymers, etc.
+     * @param lsh the LSH instance used for distance checks.
+     * @param minDist the minimum distance required for the DNA sequences generated by this instance.
+     * @param inFlight the maximum number of candidates in flight per thread. A value of 1 generates candidates synchronously.
+     * @param minRcDist the minimum distance required between the reverse complement of a DNA sequence and all other DNA sequences generated by this instance, or 0 to disable the screen.
+     */
+    public ProbesGeneratorLSH(SeqGenerator generator, LSH lsh, float minDist, int inFlight, float minRcDist) {
+        this(generator, lsh, minDist, inFlight, minRcDist, null);
+    }
+
+    /**
+     * Creates a Probes' generator object that utilizes LSH for Jaccard distance checks and recycles the candidates that are rejected by the distance check as near misses.
+     * Instead of discarding a rejected candidate, generate() mutates the region that collides with the conflicting probe and retries the mutant, so that the rules already evaluated for the candidate are not wasted entirely.
+     * @param generator a generator that generates BaseSequence objects. This generator should fulfill basic DNA constrains such as GC content requirements, no homopolymers, etc.
+     * @param lsh the LSH instance used for distance checks.
+     * @param minDist the minimum distance required for the DNA sequences generated by this instance.
+     * @param inFlight the maximum number of candidates in flight per thread. A value of 1 generates candidates synchronously.
+     * @param minRcDist the minimum distance required between the reverse complement of a DNA sequence and all other DNA sequences generated by this instance, or 0 to disable the screen.
+     * @param recycler the recycler of near misses, or null to discard the rejected candidates.
+     */
+    public ProbesGeneratorLSH(SeqGenerator generator, LSH lsh, float minDist, int inFlight, float minRcDist, NearMissRecycler recycler) {
+        if (inFlight < 1)
+            throw new RuntimeException("inFlight must be >= 1");
         this.generator = generator;
         this.minDist = minDist;
+        this.minRcDist = minRcDist;
         this.lsh = lsh;
         this.k = lsh.getK();
+        this.stats = new DistanceCheckStats();
+        this.inFlight = inFlight;
+        this.windows = ThreadLocal.withInitial(() -> new ArrayDeque<>(inFlight));
+        this.recycler = recycler;
+        this.snapshots = new TreeMap<>();
+        this.log = new ArrayDeque<>();
     }
 
     /**
@@ -29,20 +96,370 @@ public class ProbesGeneratorLSH implements SeqGenerator {
      * @param seq the examined BaseSequence.
      * @return true, if seq meets the requirements.
      */
-    private synchronized boolean tryAdd(BaseSequence seq) {
-        if (lsh.similarSeqs(seq).stream().map(can -> can.jaccardDistance(seq, k)).min(Float::compare).orElse(1.0f) >= minDist) {
-            lsh.insert(seq);
-            return true;
+    @Override
+    public boolean tryAdd(BaseSequence seq) {
+        return tryAddOrConflict(seq) == null;
+    }
+
+    /**
+     * Checks without locking whether a given DNA sequence is far enough from the sequences added so far. Since other threads may add sequences concurrently, tryAdd must still be called.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq is far enough from the sequences added so far.
+     */
+    @Override
+    public boolean isFarEnough(BaseSequence seq) {
+        for (BaseSequence can : lsh.similarSeqs(seq)) {
+            if (can.jaccardDistance(seq, k) < minDist)
+                return false;
+        }
+        if (minRcDist > 0.0f) {
+            BaseSequence rc = seq.reverseComplement();
+            for (BaseSequence can : lsh.similarSeqs(rc)) {
+                if (can.jaccardDistance(rc, k) < minRcDist)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Attempts to add the DNA sequences of a batch, i.e., a group commit: the batch is checked against the sequences added so far without locking, the candidates of the batch are checked against each other in their order,
+     * and the remaining candidates are committed at once, after they are checked against the sequences that other threads committed in the meantime. The LSH is queried and updated with a single pass over its bands per batch.
+     * A candidate that is too close to an earlier candidate of the batch is rejected, even if the earlier candidate is rejected during the commit.
+     * @param batch the examined BaseSequence objects.
+     * @return an array that is true for each BaseSequence that meets the requirements and was added.
+     */
+    public boolean[] acceptBatch(List<BaseSequence> batch) {
+        long t = System.nanoTime();
+        long snapshot = beginBatch();
+        int n = batch.size();
+        List<Candidate> candidates = new ArrayList<>(n);
+        List<String[]> sigs = new ArrayList<>(minRcDist > 0.0f ? 2 * n : n);
+        for (BaseSequence seq : batch) {
+            Candidate c = new Candidate(seq);
+            candidates.add(c);
+            sigs.add(c.sigs);
         }
+        if (minRcDist > 0.0f)
+            candidates.forEach(c -> sigs.add(c.rcSigs));
 
-        return false;
+        List<Set<BaseSequence>> matches = lsh.similarSeqsAll(sigs);
+        List<Candidate> survivors = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Candidate c = candidates.get(i);
+            c.accepted = isFarEnough(c, matches.get(i), minRcDist > 0.0f ? matches.get(n + i) : Set.of()) && isFarEnough(c, survivors);
+            if (c.accepted)
+                survivors.add(c);
+        }
+        commitBatch(snapshot, survivors);
+
+        // the batch is processed at once, i.e., each candidate is attributed the average time
+        long nanos = (System.nanoTime() - t) / Math.max(1, n);
+        boolean[] accepted = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Candidate c = candidates.get(i);
+            accepted[i] = c.accepted;
+            stats.record(c.candidates, c.verifications, c.accepted, nanos);
+        }
+        return accepted;
+    }
+
+    /**
+     * Generates a batch of candidates that satisfy the constraints of the underlying generator and attempts to add them at once (see acceptBatch).
+     * @param size the number of candidates.
+     * @return the BaseSequence objects that were added, which may be fewer than size.
+     */
+    public List<BaseSequence> generateBatch(int size) {
+        List<BaseSequence> batch = new ArrayList<>(size);
+        while (batch.size() < size && !stopped) {
+            BaseSequence seq = nextCandidate();
+            // null if the underlying generator was stopped
+            if (seq != null)
+                batch.add(seq);
+        }
+        if (stopped)
+            return List.of();
+
+        boolean[] accepted = acceptBatch(batch);
+        List<BaseSequence> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (accepted[i])
+                result.add(batch.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return the statistics of the distance checks performed by this instance.
+     */
+    @Override
+    public DistanceCheckStats getStats() {
+        return stats;
     }
 
     /**
-     * @return a BaseSequence satisfying the given constraints.
+     * @return a BaseSequence satisfying the given constraints, or null if stop() was called before one was found.
      */
     @Override
     public BaseSequence generate() {
-        return generator.stream().filter(this::tryAdd).findFirst().orElseThrow();
+        if (inFlight == 1) {
+            while (!stopped) {
+                BaseSequence seq = generator.generate();
+                BaseSequence added = seq != null ? add(seq) : null;
+                if (added != null)
+                    return added;
+            }
+            return null;
+        }
+
+        Deque<CompletableFuture<BaseSequence>> window = windows.get();
+        while (!stopped) {
+            while (window.size() < inFlight)
+                window.add(generator.attemptAsync(this::isFarEnough));
+
+            BaseSequence seq = takeCompleted(window).join();
+            BaseSequence added = seq != null ? add(seq) : null;
+            if (added != null)
+                return added;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the generation and the underlying generator: generate() returns null and generateBatch() returns an empty list once the current candidate is checked.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+        if (generator != null)
+            generator.stop();
+    }
+
+    /**
+     * Attempts to add a given DNA sequence to the LSH like tryAdd.
+     * @param seq the examined BaseSequence.
+     * @return null, if seq meets the requirements, or the first conflicting sequence found otherwise.
+     */
+    private synchronized Conflict tryAddOrConflict(BaseSequence seq) {
+        long t = System.nanoTime();
+        String[] sigs = lsh.signatures(seq);
+        Set<BaseSequence> candidates = lsh.similarSeqs(sigs, Integer.MAX_VALUE);
+        int candidatesCount = candidates.size();
+        int verifications = 0;
+        Conflict conflict = null;
+        for (BaseSequence can : candidates) {
+            verifications++;
+            if (can.jaccardDistance(seq, k) < minDist) {
+                conflict = new Conflict(can, false);
+                break;
+            }
+        }
+        if (conflict == null && minRcDist > 0.0f) {
+            BaseSequence rc = seq.reverseComplement();
+            candidates = lsh.similarSeqs(rc);
+            candidatesCount += candidates.size();
+            for (BaseSequence can : candidates) {
+                verifications++;
+                if (can.jaccardDistance(rc, k) < minRcDist) {
+                    conflict = new Conflict(can, true);
+                    break;
+                }
+            }
+        }
+        if (conflict == null) {
+            lsh.insertAll(List.of(seq), List.<String[]>of(sigs));
+            committed(seq, sigs);
+        }
+
+        stats.record(candidatesCount, verifications, conflict == null, System.nanoTime() - t);
+        return conflict;
+    }
+
+    /**
+     * Attempts to add a candidate and recycles it if it is rejected as a near miss.
+     * @return the added BaseSequence, i.e., the candidate or one of its mutants, or null if neither was added.
+     */
+    private BaseSequence add(BaseSequence seq) {
+        Conflict conflict = tryAddOrConflict(seq);
+        if (conflict == null)
+            return seq;
+        if (recycler == null)
+            return null;
+
+        // the positions mutated so far, which are neither mutated back nor mutated again after a mutant failed the rules
+        boolean[] excluded = new boolean[seq.length()];
+        BaseSequence mutant = recycler.mutate(seq, conflict.probe, conflict.rc, conflict.rc ? minRcDist : minDist, excluded);
+        if (mutant == null)
+            return null;
+        int attempts = 0;
+        while (mutant != null && attempts < recycler.getMaxAttempts()) {
+            attempts++;
+            if (recycler.passesRules(mutant)) {
+                Conflict next = tryAddOrConflict(mutant);
+                if (next == null) {
+                    stats.recordRecycling(attempts, true);
+                    return mutant;
+                }
+                // the mutant is closer to its new conflict, i.e., it is mutated further
+                seq = mutant;
+                conflict = next;
+            }
+            mutant = recycler.mutate(seq, conflict.probe, conflict.rc, conflict.rc ? minRcDist : minDist, excluded);
+        }
+        stats.recordRecycling(attempts, false);
+        return null;
+    }
+
+    private BaseSequence nextCandidate() {
+        if (inFlight == 1)
+            return generator.generate();
+
+        Deque<CompletableFuture<BaseSequence>> window = windows.get();
+        while (true) {
+            while (window.size() < inFlight)
+                window.add(generator.attemptAsync(this::isFarEnough));
+
+            BaseSequence seq = takeCompleted(window).join();
+            if (seq != null || stopped)
+                return seq;
+        }
+    }
+
+    private synchronized long beginBatch() {
+        snapshots.merge(version, 1, Integer::sum);
+        return version;
+    }
+
+    private synchronized void commitBatch(long snapshot, List<Candidate> survivors) {
+        List<BaseSequence> seqs = new ArrayList<>(survivors.size());
+        List<String[]> sigs = new ArrayList<>(survivors.size());
+        for (Candidate c : survivors) {
+            // the sequences committed before the snapshot were already looked up in the LSH
+            for (Committed e : log) {
+                if (e.version >= snapshot && !isFarEnough(c, e)) {
+                    c.accepted = false;
+                    break;
+                }
+            }
+            if (c.accepted) {
+                seqs.add(c.seq);
+                sigs.add(c.sigs);
+            }
+        }
+        lsh.insertAll(seqs, sigs);
+
+        if (snapshots.merge(snapshot, -1, Integer::sum) == 0)
+            snapshots.remove(snapshot);
+        for (int i = 0; i < seqs.size(); i++)
+            committed(seqs.get(i), sigs.get(i));
+        long oldest = snapshots.isEmpty() ? version : snapshots.firstKey();
+        while (!log.isEmpty() && log.peekFirst().version < oldest)
+            log.pollFirst();
+    }
+
+    private void committed(BaseSequence seq, String[] sigs) {
+        // the log is only needed by the batches in progress
+        if (!snapshots.isEmpty())
+            log.addLast(new Committed(version, seq, sigs));
+        version++;
+    }
+
+    private boolean isFarEnough(Candidate c, Set<BaseSequence> matches, Set<BaseSequence> rcMatches) {
+        c.candidates += matches.size() + rcMatches.size();
+        for (BaseSequence can : matches) {
+            c.verifications++;
+            if (can.jaccardDistance(c.seq, k) < minDist)
+                return false;
+        }
+        for (BaseSequence can : rcMatches) {
+            c.verifications++;
+            if (can.jaccardDistance(c.rc, k) < minRcDist)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isFarEnough(Candidate c, List<Candidate> others) {
+        for (Candidate other : others) {
+            if (!isFarEnough(c, other.seq, other.sigs))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isFarEnough(Candidate c, Committed e) {
+        return isFarEnough(c, e.seq, e.sigs);
+    }
+
+    private boolean isFarEnough(Candidate c, BaseSequence other, String[] otherSigs) {
+        if (sharesBand(c.sigs, otherSigs)) {
+            c.verifications++;
+            if (other.jaccardDistance(c.seq, k) < minDist)
+                return false;
+        }
+        if (c.rc != null && sharesBand(c.rcSigs, otherSigs)) {
+            c.verifications++;
+            return other.jaccardDistance(c.rc, k) >= minRcDist;
+        }
+        return true;
+    }
+
+    private static boolean sharesBand(String[] a, String[] b) {
+        for (int band = 0; band < a.length; band++) {
+            if (a[band].equals(b[band]))
+                return true;
+        }
+        return false;
+    }
+
+    private static CompletableFuture<BaseSequence> takeCompleted(Deque<CompletableFuture<BaseSequence>> window) {
+        Iterator<CompletableFuture<BaseSequence>> it = window.iterator();
+        while (it.hasNext()) {
+            CompletableFuture<BaseSequence> f = it.next();
+            if (f.isDone()) {
+                it.remove();
+                return f;
+            }
+        }
+        return window.poll();
+    }
+
+    private class Candidate {
+        private final BaseSequence seq;
+        private final String[] sigs;
+        private final BaseSequence rc;
+        private final String[] rcSigs;
+        private boolean accepted;
+        private int candidates;
+        private int verifications;
+
+        private Candidate(BaseSequence seq) {
+            this.seq = seq;
+            this.sigs = lsh.signatures(seq);
+            this.rc = minRcDist > 0.0f ? seq.reverseComplement() : null;
+            this.rcSigs = rc != null ? lsh.signatures(rc) : null;
+        }
+    }
+
+    private static class Conflict {
+        private final BaseSequence probe;
+        private final boolean rc;
+
+        private Conflict(BaseSequence probe, boolean rc) {
+            this.probe = probe;
+            this.rc = rc;
+        }
+    }
+
+    private static class Committed {
+        private final long version;
+        private final BaseSequence seq;
+        private final String[] sigs;
+
+        private Committed(long version, BaseSequence seq, String[] sigs) {
+            this.version = version;
+            this.seq = seq;
+            this.sigs = sigs;
+        }
     }
 }
@@ -7,12 +7,15 @@ import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class ProbesGeneratorNaive implements SeqGenerator {
+public class ProbesGeneratorNaive implements SeqGenerator, DistanceChecker {
     private final float minDist;
+    private final float minRcDist;
     private final SeqGenerator generator;
     private final List<BaseSequence> seqs;
     private final ReadWriteLock lock;
     private final int k;
+    private final DistanceCheckStats stats;
+    private volatile boolean stopped;
 
     /**
      * Creates a Probes' generator object that calculates the Jaccard distance checks naively.
@@ -21,11 +24,24 @@ public class ProbesGeneratorNaive implements SeqGenerator {
      * @param minDist the minimum distance required for the DNA sequences generated by this instance.
      */
     public ProbesGeneratorNaive(SeqGenerator generator, int k, float minDist) {
+        this(generator, k, minDist, 0.0f);
+    }
+
+    /**
+     * Creates a Probes' generator object that calculates the Jaccard distance checks naively and optionally screens for cross-hybridization.
+     * @param generator a generator that generates BaseSequence objects. This generator should fulfill basic DNA constrains such as GC content requirements, no homopolymers, etc.
+     * @param k the k-mers length for the Jaccard distance.
+     * @param minDist the minimum distance required for the DNA sequences generated by this instance.
+     * @param minRcDist the minimum distance required between the reverse complement of a DNA sequence and all other DNA sequences generated by this instance, or 0 to disable the screen.
+     */
+    public ProbesGeneratorNaive(SeqGenerator generator, int k, float minDist, float minRcDist) {
         this.generator = generator;
         this.minDist = minDist;
+        this.minRcDist = minRcDist;
         this.seqs = new ArrayList<>();
         this.k = k;
         this.lock = new ReentrantReadWriteLock();
+        this.stats = new DistanceCheckStats();
     }
 
     /**
@@ -33,31 +49,82 @@ public class ProbesGeneratorNaive implements SeqGenerator {
      * @param seq the examined BaseSequence.
      * @return true, if seq meets the requirements.
      */
-    private boolean tryAdd(BaseSequence seq) {
+    @Override
+    public boolean tryAdd(BaseSequence seq) {
+        long t = System.nanoTime();
+        BaseSequence rc = minRcDist > 0.0f ? seq.reverseComplement() : null;
         lock.readLock().lock();
         int count = seqs.size();
-        if (seqs.stream().parallel().map(can -> can.jaccardDistance(seq, k)).min(Float::compare).orElse(1.0f) >= minDist) {
+        if (seqs.stream().parallel().allMatch(can -> isFarEnough(can, seq, rc))) {
             lock.readLock().unlock();
             lock.writeLock().lock();
-            if (seqs.subList(count, seqs.size()).stream().map(can -> can.jaccardDistance(seq, k)).min(Float::compare).orElse(1.0f) >= minDist) {
+            int total = seqs.size();
+            if (seqs.subList(count, total).stream().allMatch(can -> isFarEnough(can, seq, rc))) {
                 seqs.add(seq);
                 lock.writeLock().unlock();
+                stats.record(total, total, true, System.nanoTime() - t);
                 return true;
             }
             else {
                 lock.writeLock().unlock();
+                stats.record(total, total, false, System.nanoTime() - t);
                 return false;
             }
         }
         lock.readLock().unlock();
+        stats.record(count, count, false, System.nanoTime() - t);
         return false;
     }
 
     /**
-     * @return a BaseSequence satisfying the given constraints.
+     * Checks whether a given DNA sequence is far enough from the sequences added so far. Since other threads may add sequences concurrently, tryAdd must still be called.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq is far enough from the sequences added so far.
+     */
+    @Override
+    public boolean isFarEnough(BaseSequence seq) {
+        BaseSequence rc = minRcDist > 0.0f ? seq.reverseComplement() : null;
+        lock.readLock().lock();
+        try {
+            return seqs.stream().parallel().allMatch(can -> isFarEnough(can, seq, rc));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isFarEnough(BaseSequence can, BaseSequence seq, BaseSequence rc) {
+        return can.jaccardDistance(seq, k) >= minDist && (rc == null || can.jaccardDistance(rc, k) >= minRcDist);
+    }
+
+    /**
+     * @return the statistics of the distance checks performed by this instance.
+     */
+    @Override
+    public DistanceCheckStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return a BaseSequence satisfying the given constraints, or null if stop() was called before one was found.
      */
     @Override
     public BaseSequence generate() {
-        return generator.stream().filter(this::tryAdd).findFirst().orElseThrow();
+        while (!stopped) {
+            BaseSequence seq = generator.generate();
+            if (seq != null && tryAdd(seq))
+                return seq;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the generation and the underlying generator: generate() returns null once the current candidate is checked.
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+        if (generator != null)
+            generator.stop();
     }
 }
@@ -0,0 +1,209 @@
+package generator.probes;
+
+import utils.FuncUtils;
+import utils.fasta.ReadableFASTAFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Merges multiple libraries of probes into one, so that the distance requirements also hold across the libraries.
+ * The files are read concurrently, each by its own thread into a bounded queue, but the probes are accepted in a stable order of priority: all probes of the first file in their order, then the probes of the second file, and so on.
+ * The probes are processed in batches: each batch is first checked in parallel against the probes accepted before the batch, which rejects most of the conflicting probes, and the remaining probes are then accepted one by one in their order.
+ */
+public class ProbesMerger {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final int PREFETCH_BATCHES = 4;
+    private static final List<ReadableFASTAFile.Entry> END = List.of();
+
+    private final DistanceChecker distanceChecker;
+    private final int threads;
+    private final int batchSize;
+
+    /**
+     * Creates a merger of libraries of probes.
+     * @param distanceChecker the index of the accepted probes. It may already contain probes, e.g., of a reference library.
+     * @param threads the number of threads used to check a batch.
+     * @param batchSize the number of probes checked in parallel.
+     */
+    public ProbesMerger(DistanceChecker distanceChecker, int threads, int batchSize) {
+        if (threads < 1 || batchSize < 1)
+            throw new RuntimeException("threads and batchSize must be >= 1");
+        this.distanceChecker = distanceChecker;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Merges the given FASTA files in their order.
+     * @param paths the FASTA files in the order of priority.
+     * @param accepted receives the accepted probes in the order of acceptance.
+     * @param rejected receives the rejected probes in the order of rejection.
+     * @return the statistics of each file.
+     */
+    public List<FileStats> merge(List<String> paths, Consumer<Probe> accepted, Consumer<Probe> rejected) {
+        int files = paths.size();
+        List<BlockingQueue<List<ReadableFASTAFile.Entry>>> queues = new ArrayList<>(files);
+        List<Thread> readers = new ArrayList<>(files);
+        AtomicReferenceArray<Throwable> errors = new AtomicReferenceArray<>(files);
+        for (int f = 0; f < files; f++) {
+            int file = f;
+            BlockingQueue<List<ReadableFASTAFile.Entry>> queue = new ArrayBlockingQueue<>(PREFETCH_BATCHES);
+            Thread reader = new Thread(() -> read(paths.get(file), queue, file, errors), "pg-merge-reader-" + f);
+            reader.setDaemon(true);
+            queues.add(queue);
+            readers.add(reader);
+        }
+        readers.forEach(Thread::start);
+
+        // one pool checks all batches, i.e., a merge of millions of probes does not start a pool per batch
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pg-merge");
+            t.setDaemon(true);
+            return t;
+        });
+        List<FileStats> stats = new ArrayList<>(files);
+        try {
+            for (int f = 0; f < files; f++) {
+                FileStats s = new FileStats(paths.get(f));
+                List<ReadableFASTAFile.Entry> batch;
+                while ((batch = FuncUtils.safeCall(queues.get(f)::take)) != END)
+                    mergeBatch(pool, f, batch, s, accepted, rejected);
+
+                FuncUtils.safeRun(readers.get(f)::join);
+                if (errors.get(f) != null)
+                    throw new RuntimeException("failed to read " + paths.get(f), errors.get(f));
+                stats.add(s);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            readers.forEach(Thread::interrupt);
+        }
+        return stats;
+    }
+
+    private void mergeBatch(ExecutorService pool, int file, List<ReadableFASTAFile.Entry> batch, FileStats s, Consumer<Probe> accepted, Consumer<Probe> rejected) {
+        int size = batch.size();
+        boolean[] farEnough = new boolean[size];
+        int chunk = Math.max(1, (size + threads - 1) / threads);
+        FuncUtils.parallelFor(pool, threads, (size + chunk - 1) / chunk, c -> {
+            for (int i = c * chunk, end = Math.min(size, i + chunk); i < end; i++)
+                farEnough[i] = distanceChecker.isFarEnough(batch.get(i).getSeq());
+        });
+
+        // the accepted probes only grow, i.e., a probe that is too close before the batch is also too close after it
+        for (int i = 0; i < size; i++) {
+            ReadableFASTAFile.Entry e = batch.get(i);
+            Probe p = new Probe(file, s.read++, e);
+            if (farEnough[i] && distanceChecker.tryAdd(e.getSeq())) {
+                s.accepted++;
+                accepted.accept(p);
+            }
+            else {
+                s.rejected++;
+                rejected.accept(p);
+            }
+        }
+    }
+
+    private void read(String path, BlockingQueue<List<ReadableFASTAFile.Entry>> queue, int file, AtomicReferenceArray<Throwable> errors) {
+        try {
+            ReadableFASTAFile fasta = new ReadableFASTAFile(path);
+            List<ReadableFASTAFile.Entry> batch = new ArrayList<>(batchSize);
+            ReadableFASTAFile.Entry e;
+            while ((e = fasta.read()) != null) {
+                batch.add(e);
+                if (batch.size() == batchSize) {
+                    queue.put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty())
+                queue.put(batch);
+            queue.put(END);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Throwable t) {
+            errors.set(file, t);
+            FuncUtils.superSafeCall(() -> {
+                queue.put(END);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * A probe of an input file.
+     */
+    public static class Probe {
+        private final int file;
+        private final int index;
+        private final ReadableFASTAFile.Entry entry;
+
+        Probe(int file, int index, ReadableFASTAFile.Entry entry) {
+            this.file = file;
+            this.index = index;
+            this.entry = entry;
+        }
+
+        /**
+         * @return the 0-based index of the file in the order of priority.
+         */
+        public int getFile() {
+            return file;
+        }
+
+        /**
+         * @return the 0-based index of the probe in its file.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the caption and the sequence of the probe.
+         */
+        public ReadableFASTAFile.Entry getEntry() {
+            return entry;
+        }
+    }
+
+    /**
+     * The number of probes read, accepted, and rejected of a file.
+     */
+    public static class FileStats {
+        private final String path;
+        private int read;
+        private int accepted;
+        private int rejected;
+
+        FileStats(String path) {
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getRead() {
+            return read;
+        }
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+    }
+}
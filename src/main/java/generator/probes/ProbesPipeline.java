@@ -0,0 +1,349 @@
+package generator.probes;
+
+import core.BaseSequence;
+import generator.StagedSeqGenerator;
+import utils.RandomSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Generates probes by a pipeline of stages that are connected by bounded queues, so that each stage can be sized individually:
+ * <ol>
+ *     <li>generate: generates candidates.</li>
+ *     <li>local: evaluates the local rules and, optionally, checks the distance without locking.</li>
+ *     <li>dg: evaluates the remote rules, e.g., by the dg server, with a bounded number of candidates in flight.</li>
+ *     <li>dist: a single thread that checks the distance and accepts the probes, i.e., the only thread that adds to the DistanceChecker.</li>
+ *     <li>write: a single thread that passes the accepted probes to the sink.</li>
+ * </ol>
+ * A full queue blocks the stage in front of it, i.e., the slowest stage determines the pace of the pipeline.
+ */
+public class ProbesPipeline {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public static final String STAGE_GENERATE = "generate";
+    public static final String STAGE_LOCAL = "local";
+    public static final String STAGE_DG = "dg";
+    public static final String STAGE_DIST = "dist";
+    public static final String STAGE_WRITE = "write";
+
+    private static final long POLL_TIMEOUT_MS = 50L;
+
+    private final StagedSeqGenerator generator;
+    private final DistanceChecker distanceChecker;
+    private final int generateThreads;
+    private final int localThreads;
+    private final int dgInFlight;
+    private final boolean preCheck;
+    private final ObjIntConsumer<BaseSequence> sink;
+
+    private final BlockingQueue<BaseSequence> localQueue;
+    private final BlockingQueue<BaseSequence> dgQueue;
+    // bounded by dgPermits, so that the callbacks of the remote rules never block
+    private final BlockingQueue<BaseSequence> distQueue;
+    private final BlockingQueue<BaseSequence> writeQueue;
+    private final Semaphore dgPermits;
+    private final Map<String, StageStats> stats;
+    private final AtomicReference<Throwable> error;
+
+    private volatile boolean running;
+    private volatile boolean accepting;
+
+    /**
+     * Creates a pipeline of stages.
+     * @param generator the generator of the candidates and of the rules.
+     * @param distanceChecker the distance check that accepts the probes.
+     * @param generateThreads the number of threads of the generate stage.
+     * @param localThreads the number of threads of the local stage.
+     * @param dgInFlight the maximum number of candidates the dg stage keeps in flight, including the ones waiting for the dist stage.
+     * @param queueCapacity the capacity of each queue between two stages.
+     * @param preCheck true to check the distance without locking in the local stage, so that candidates that are too close to accepted probes are not sent to the dg stage.
+     * @param sink receives each accepted probe and its 1-based number in the order of acceptance. It is called by the write stage only.
+     */
+    public ProbesPipeline(StagedSeqGenerator generator, DistanceChecker distanceChecker, int generateThreads, int localThreads, int dgInFlight, int queueCapacity, boolean preCheck, ObjIntConsumer<BaseSequence> sink) {
+        if (generateThreads < 1 || localThreads < 1 || dgInFlight < 1 || queueCapacity < 1)
+            throw new RuntimeException("the threads, dgInFlight, and queueCapacity must be >= 1");
+        this.generator = generator;
+        this.distanceChecker = distanceChecker;
+        this.generateThreads = generateThreads;
+        this.localThreads = localThreads;
+        this.dgInFlight = dgInFlight;
+        this.preCheck = preCheck;
+        this.sink = sink;
+        this.localQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dgQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.distQueue = new LinkedBlockingQueue<>();
+        this.writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dgPermits = new Semaphore(dgInFlight);
+        this.stats = new LinkedHashMap<>();
+        for (String stage : List.of(STAGE_GENERATE, STAGE_LOCAL, STAGE_DG, STAGE_DIST, STAGE_WRITE))
+            stats.put(stage, new StageStats(stage));
+        this.error = new AtomicReference<>();
+    }
+
+    /**
+     * Runs the pipeline until count probes were accepted and passed to the sink, or until stop() was called.
+     * @param count the number of probes to generate.
+     * @return the number of probes passed to the sink.
+     */
+    public int run(int count) {
+        running = true;
+        accepting = true;
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < generateThreads; i++)
+            producers.add(stageThread(STAGE_GENERATE, i, this::generateLoop));
+        for (int i = 0; i < localThreads; i++)
+            producers.add(stageThread(STAGE_LOCAL, i, this::localLoop));
+        producers.add(stageThread(STAGE_DG, 0, this::dgLoop));
+        Thread dist = stageThread(STAGE_DIST, 0, () -> distLoop(count));
+        int[] written = new int[1];
+        Thread write = stageThread(STAGE_WRITE, 0, () -> written[0] = writeLoop());
+
+        producers.forEach(Thread::start);
+        dist.start();
+        write.start();
+        join(dist);
+        // the dist stage has accepted count probes, was stopped, or failed
+        running = false;
+        join(write);
+        producers.forEach(ProbesPipeline::join);
+
+        if (error.get() != null)
+            throw new RuntimeException("pipeline stage failed", error.get());
+        return written[0];
+    }
+
+    /**
+     * Stops the pipeline. The probes that were already accepted are still passed to the sink.
+     */
+    public void stop() {
+        accepting = false;
+    }
+
+    /**
+     * @return the number of candidates waiting in front of each stage. For the dg stage, the candidates in flight are not included.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        depths.put(STAGE_GENERATE, 0);
+        depths.put(STAGE_LOCAL, localQueue.size());
+        depths.put(STAGE_DG, dgQueue.size());
+        depths.put(STAGE_DIST, distQueue.size());
+        depths.put(STAGE_WRITE, writeQueue.size());
+        return depths;
+    }
+
+    /**
+     * @return the number of candidates currently evaluated by the remote rules.
+     */
+    public int getDgInFlight() {
+        return dgInFlight - dgPermits.availablePermits() - distQueue.size();
+    }
+
+    /**
+     * @return the statistics of each stage in the order of the stages.
+     */
+    public List<StageStats> getStats() {
+        return List.copyOf(stats.values());
+    }
+
+    private void generateLoop() {
+        StageStats s = stats.get(STAGE_GENERATE);
+        while (running && accepting) {
+            BaseSequence seq = generator.candidate();
+            s.processed.increment();
+            put(localQueue, seq);
+        }
+    }
+
+    private void localLoop() {
+        StageStats s = stats.get(STAGE_LOCAL);
+        while (running && accepting) {
+            BaseSequence seq = poll(localQueue);
+            if (seq == null)
+                continue;
+            s.processed.increment();
+            if (generator.passesLocalRules(seq) && (!preCheck || distanceChecker.isFarEnough(seq)))
+                put(dgQueue, seq);
+            else
+                s.rejected.increment();
+        }
+    }
+
+    private void dgLoop() {
+        StageStats s = stats.get(STAGE_DG);
+        while (running && accepting) {
+            BaseSequence seq = poll(dgQueue);
+            if (seq == null)
+                continue;
+            if (!acquire(dgPermits))
+                return;
+            s.processed.increment();
+            generator.passesRemoteRules(seq).whenComplete((passed, t) -> {
+                if (t != null) {
+                    dgPermits.release();
+                    fail(t);
+                }
+                else if (passed) {
+                    // the permit is released by the dist stage
+                    distQueue.add(seq);
+                }
+                else {
+                    s.rejected.increment();
+                    dgPermits.release();
+                }
+            });
+        }
+    }
+
+    private void distLoop(int count) {
+        StageStats s = stats.get(STAGE_DIST);
+        int accepted = 0;
+        while (accepted < count && accepting) {
+            BaseSequence seq = poll(distQueue);
+            if (seq == null)
+                continue;
+            dgPermits.release();
+            s.processed.increment();
+            if (distanceChecker.tryAdd(seq)) {
+                accepted++;
+                // accepted probes are always written, also if the pipeline is stopped
+                while (!offer(writeQueue, seq)) {
+                    if (error.get() != null)
+                        return;
+                }
+            }
+            else {
+                s.rejected.increment();
+            }
+        }
+    }
+
+    private int writeLoop() {
+        StageStats s = stats.get(STAGE_WRITE);
+        int written = 0;
+        while (running || !writeQueue.isEmpty()) {
+            BaseSequence seq = poll(writeQueue);
+            if (seq == null)
+                continue;
+            s.processed.increment();
+            sink.accept(seq, ++written);
+        }
+        return written;
+    }
+
+    private Thread stageThread(String stage, int i, Runnable loop) {
+        // each stage thread draws from its own random stream, split in the order the threads are created
+        Thread t = new Thread(RandomSource.bound(() -> {
+            try {
+                loop.run();
+            }
+            catch (Throwable e) {
+                fail(e);
+            }
+        }), "pg-" + stage + "-" + i);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private void fail(Throwable t) {
+        error.compareAndSet(null, t);
+        accepting = false;
+    }
+
+    private void put(BlockingQueue<BaseSequence> queue, BaseSequence seq) {
+        while (running && accepting && !offer(queue, seq));
+    }
+
+    private boolean offer(BlockingQueue<BaseSequence> queue, BaseSequence seq) {
+        try {
+            return queue.offer(seq, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            return false;
+        }
+    }
+
+    private BaseSequence poll(BlockingQueue<BaseSequence> queue) {
+        try {
+            return queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            return null;
+        }
+    }
+
+    private boolean acquire(Semaphore semaphore) {
+        try {
+            while (!semaphore.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (!running || !accepting)
+                    return false;
+            }
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+            return false;
+        }
+    }
+
+    private static void join(Thread t) {
+        try {
+            t.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Thread-safe counters of a single stage.
+     */
+    public static class StageStats {
+        private final String name;
+        private final LongAdder processed;
+        private final LongAdder rejected;
+
+        StageStats(String name) {
+            this.name = name;
+            this.processed = new LongAdder();
+            this.rejected = new LongAdder();
+        }
+
+        /**
+         * @return the name of the stage.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of candidates processed by the stage.
+         */
+        public long getProcessed() {
+            return processed.sum();
+        }
+
+        /**
+         * @return the number of candidates rejected by the stage.
+         */
+        public long getRejected() {
+            return rejected.sum();
+        }
+    }
+}
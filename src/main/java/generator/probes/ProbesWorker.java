@@ -0,0 +1,206 @@
+package generator.probes;
+
+import core.BaseSequence;
+import generator.SeqGenerator;
+import utils.FuncUtils;
+import utils.RandomSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A worker of a sharded generation: generates candidates that pass the rules with multiple threads and sends them in batches to a ProbesCoordinator, which accepts or rejects them.
+ * The candidates are generated while a batch is evaluated by the coordinator, i.e., the round trip does not stall the generation.
+ */
+public class ProbesWorker {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private static final long POLL_TIMEOUT_MS = 100L;
+    private static final long CONNECT_TIMEOUT_MS = 30_000L;
+    private static final long RECONNECT_DELAY_MS = 100L;
+    private static final long MAX_RECONNECT_DELAY_MS = 2000L;
+
+    private final SeqGenerator generator;
+    private final String host;
+    private final int port;
+    private final int threads;
+    private final int batchSize;
+    private final ObjIntConsumer<BaseSequence> sink;
+    private final DistanceCheckStats stats;
+    private final BlockingQueue<BaseSequence> candidates;
+
+    private volatile boolean running;
+    private volatile long sent;
+    private volatile int coordinatorAccepted;
+    private volatile int target;
+    private int accepted;
+
+    /**
+     * Creates a worker.
+     * @param generator the generator of candidates that pass the rules.
+     * @param host the host of the coordinator.
+     * @param port the port of the coordinator.
+     * @param threads the number of threads generating candidates.
+     * @param batchSize the maximum number of candidates sent at once.
+     * @param sink receives each candidate accepted by the coordinator and its 1-based number in the order of acceptance of the coordinator, i.e., across all workers.
+     */
+    public ProbesWorker(SeqGenerator generator, String host, int port, int threads, int batchSize, ObjIntConsumer<BaseSequence> sink) {
+        this(generator, host, port, threads, batchSize, sink, new DistanceCheckStats());
+    }
+
+    /**
+     * Creates a worker.
+     * @param generator the generator of candidates that pass the rules.
+     * @param host the host of the coordinator.
+     * @param port the port of the coordinator.
+     * @param threads the number of threads generating candidates.
+     * @param batchSize the maximum number of candidates sent at once.
+     * @param sink receives each candidate accepted by the coordinator and its 1-based number in the order of acceptance of the coordinator, i.e., across all workers.
+     * @param stats records each candidate sent as a distance check, with the round trip of its batch spread evenly over its candidates.
+     */
+    public ProbesWorker(SeqGenerator generator, String host, int port, int threads, int batchSize, ObjIntConsumer<BaseSequence> sink, DistanceCheckStats stats) {
+        if (threads < 1 || batchSize < 1)
+            throw new RuntimeException("threads and batchSize must be >= 1");
+        this.generator = generator;
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.stats = stats;
+        this.candidates = new ArrayBlockingQueue<>(2 * batchSize);
+    }
+
+    /**
+     * Sends candidates to the coordinator until it is done, or until stop() was called.
+     * @return the number of candidates of this worker that were accepted.
+     */
+    public int run() {
+        running = true;
+        List<Thread> producers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(RandomSource.bound(this::produceLoop), "pg-worker-" + i);
+            t.setDaemon(true);
+            producers.add(t);
+        }
+        try (Socket socket = connect()) {
+            producers.forEach(Thread::start);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            List<BaseSequence> batch = new ArrayList<>(batchSize);
+            int batchId = 0;
+            while (running) {
+                batch.clear();
+                BaseSequence first = FuncUtils.safeCall(() -> candidates.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                if (first == null)
+                    continue;
+                batch.add(first);
+                candidates.drainTo(batch, batchSize - 1);
+
+                long t0 = System.nanoTime();
+                CoordinatorProtocol.writeRequest(out, batchId++, batch);
+                CoordinatorProtocol.Reply reply = CoordinatorProtocol.readReply(in);
+                long nanosPerCandidate = (System.nanoTime() - t0) / batch.size();
+                sent += batch.size();
+                target = reply.getTarget();
+                coordinatorAccepted = reply.getAccepted();
+                boolean[] verdicts = reply.getVerdicts();
+                int batchAccepted = 0;
+                for (int i = 0; i < verdicts.length; i++) {
+                    stats.record(0, 0, verdicts[i], nanosPerCandidate);
+                    if (verdicts[i])
+                        batchAccepted++;
+                }
+                // the coordinator accepts a batch at once, i.e., the accepted candidates of this batch are the last ones it accepted
+                int number = reply.getAccepted() - batchAccepted;
+                for (int i = 0; i < verdicts.length; i++) {
+                    if (verdicts[i]) {
+                        accepted++;
+                        sink.accept(batch.get(i), ++number);
+                    }
+                }
+                if (reply.getStatus() == CoordinatorProtocol.STATUS_DONE)
+                    break;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("connection to the coordinator failed", e);
+        }
+        finally {
+            // the producers may be waiting for a candidate that passes the rules
+            stop();
+            producers.forEach(t -> FuncUtils.safeRun(t::join));
+        }
+        return accepted;
+    }
+
+    /**
+     * Stops the worker and its generator after the current batch.
+     */
+    public void stop() {
+        running = false;
+        generator.stop();
+    }
+
+    /**
+     * @return the number of candidates sent to the coordinator.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of probes accepted by the coordinator from all workers, as of the last reply.
+     */
+    public int getCoordinatorAccepted() {
+        return coordinatorAccepted;
+    }
+
+    /**
+     * @return the number of probes the coordinator generates, as of the last reply, or 0 before the first reply.
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    private void produceLoop() {
+        while (running) {
+            BaseSequence seq = generator.generate();
+            // null if the generator was stopped
+            if (seq == null)
+                return;
+            while (running && !FuncUtils.safeCall(() -> candidates.offer(seq, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        long delay = RECONNECT_DELAY_MS;
+        while (true) {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port));
+                socket.setTcpNoDelay(true);
+                return socket;
+            }
+            catch (IOException e) {
+                socket.close();
+                if (!running || System.currentTimeMillis() + delay > deadline)
+                    throw e;
+            }
+            long d = delay;
+            FuncUtils.safeRun(() -> Thread.sleep(d));
+            delay = Math.min(MAX_RECONNECT_DELAY_MS, delay * 2);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package generator.probes;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the saturation of a library of probes, i.e., how the acceptance rate of the distance check falls as the library grows.
+ * The acceptance rate after n accepted probes is modelled as p(n) = exp(-q * n), and q is fitted online to the acceptance rates of windows of distance checks by least squares of ln(p(n)), weighted by the number of checks per window.
+ * With q, the number of candidates needed to grow the library to a given size and the size that can be reached with a given number of candidates are predicted.
+ */
+public class SaturationTracker {
+    public static final int DEFAULT_MIN_WINDOW = 100;
+    public static final int MIN_FIT_WINDOWS = 10;
+
+    private final DistanceCheckStats stats;
+    private final LongSupplier librarySize;
+    private final int minWindow;
+
+    private long lastQueries;
+    private long lastAccepted;
+    private long lastSize;
+    private long lastNanos;
+    private double sumWeightedNN;
+    private double sumWeightedNLogP;
+    private double q;
+    private double recentAcceptanceRate;
+    private double attemptsPerSecond;
+    private int windows;
+
+    /**
+     * Creates a tracker of the given statistics.
+     * @param stats the statistics of the distance check.
+     */
+    public SaturationTracker(DistanceCheckStats stats) {
+        this(stats, DEFAULT_MIN_WINDOW);
+    }
+
+    /**
+     * Creates a tracker of the given statistics whose library also grows by probes that are not recorded in the statistics, e.g., the library of a coordinator that accepts the candidates of several workers.
+     * @param stats the statistics of the distance check.
+     * @param librarySize returns the current size of the library.
+     */
+    public SaturationTracker(DistanceCheckStats stats, LongSupplier librarySize) {
+        this(stats, librarySize, DEFAULT_MIN_WINDOW);
+    }
+
+    /**
+     * Creates a tracker of the given statistics.
+     * @param stats the statistics of the distance check.
+     * @param minWindow the minimum number of distance checks per window. Samples are merged until a window contains this many checks.
+     */
+    public SaturationTracker(DistanceCheckStats stats, int minWindow) {
+        this(stats, stats::getAccepted, minWindow);
+    }
+
+    /**
+     * Creates a tracker of the given statistics.
+     * @param stats the statistics of the distance check.
+     * @param librarySize returns the current size of the library.
+     * @param minWindow the minimum number of distance checks per window. Samples are merged until a window contains this many checks.
+     */
+    public SaturationTracker(DistanceCheckStats stats, LongSupplier librarySize, int minWindow) {
+        if (minWindow < 1)
+            throw new RuntimeException("minWindow must be >= 1");
+        this.stats = stats;
+        this.librarySize = librarySize;
+        this.minWindow = minWindow;
+        this.lastNanos = System.nanoTime();
+        this.recentAcceptanceRate = 1.0d;
+    }
+
+    /**
+     * Takes a sample of the statistics and updates the fit once the current window contains enough distance checks.
+     * @return true, if the fit was updated.
+     */
+    public synchronized boolean sample() {
+        long queries = stats.getQueries();
+        long accepted = stats.getAccepted();
+        long size = librarySize.getAsLong();
+        long nanos = System.nanoTime();
+        long windowQueries = queries - lastQueries;
+        if (windowQueries < minWindow)
+            return false;
+
+        long windowAccepted = accepted - lastAccepted;
+        // a window without acceptances is counted as half an acceptance, so that its logarithm is finite
+        double p = Math.min(1.0d, Math.max(windowAccepted, 0.5d) / windowQueries);
+        double n = lastSize + (size - lastSize) / 2.0d;
+        sumWeightedNN += windowQueries * n * n;
+        sumWeightedNLogP += windowQueries * n * Math.log(p);
+        q = sumWeightedNN > 0.0d ? Math.max(0.0d, -sumWeightedNLogP / sumWeightedNN) : 0.0d;
+        recentAcceptanceRate = (double) windowAccepted / windowQueries;
+        attemptsPerSecond = windowQueries / Math.max(1e-9d, (nanos - lastNanos) / 1e9d);
+
+        lastQueries = queries;
+        lastAccepted = accepted;
+        lastSize = size;
+        lastNanos = nanos;
+        windows++;
+        return true;
+    }
+
+    /**
+     * @return true, if the fit is based on at least MIN_FIT_WINDOWS windows, i.e., its predictions are meaningful.
+     */
+    public synchronized boolean isFitted() {
+        return windows >= MIN_FIT_WINDOWS;
+    }
+
+    /**
+     * @return the fitted saturation rate q of p(n) = exp(-q * n).
+     */
+    public synchronized double getQ() {
+        return q;
+    }
+
+    /**
+     * @return the acceptance rate of the last window.
+     */
+    public synchronized double getRecentAcceptanceRate() {
+        return recentAcceptanceRate;
+    }
+
+    /**
+     * @return the number of candidates per accepted probe in the last window, or infinity if the last window had no acceptances.
+     */
+    public synchronized double getRecentCandidatesPerProbe() {
+        return recentAcceptanceRate > 0.0d ? 1.0d / recentAcceptanceRate : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the number of distance checks per second in the last window.
+     */
+    public synchronized double getAttemptsPerSecond() {
+        return attemptsPerSecond;
+    }
+
+    /**
+     * @return the number of probes accepted at the end of the last window.
+     */
+    public synchronized long getLibrarySize() {
+        return lastSize;
+    }
+
+    /**
+     * Predicts the number of candidates that are needed to grow the library from its current size to the given size, i.e., the sum of 1 / p(i) for all i from the current size to target - 1.
+     * @param target the size of the library.
+     * @return the predicted number of candidates, or infinity if it exceeds the range of a double.
+     */
+    public synchronized double predictAttempts(long target) {
+        long n = lastSize;
+        if (target <= n)
+            return 0.0d;
+        if (q < 1e-12d)
+            return target - n;
+        if (q * target > 700.0d)
+            return Double.POSITIVE_INFINITY;
+        return (Math.exp(q * target) - Math.exp(q * n)) / Math.expm1(q);
+    }
+
+    /**
+     * Predicts the size of the library that is reached with the given number of additional candidates.
+     * @param attempts the number of additional candidates.
+     * @return the predicted size of the library.
+     */
+    public synchronized long predictCapacity(double attempts) {
+        long n = lastSize;
+        if (q < 1e-12d)
+            return n + (long) attempts;
+        if (q * n > 700.0d)
+            return n;
+        return (long) Math.floor(Math.log(Math.exp(q * n) + attempts * Math.expm1(q)) / q);
+    }
+
+    /**
+     * Predicts the time that is needed to grow the library to the given size at the current rate of distance checks.
+     * @param target the size of the library.
+     * @return the predicted time in seconds, or infinity if no distance checks were observed.
+     */
+    public synchronized double predictSeconds(long target) {
+        double attempts = predictAttempts(target);
+        return attempts == 0.0d ? 0.0d : attemptsPerSecond > 0.0d ? attempts / attemptsPerSecond : Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,271 @@
+package generator.probes;
+
+import core.BaseSequence;
+import utils.FuncUtils;
+import utils.LSH;
+import utils.SimilarityJoin;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An LSH index of the accepted probes whose bands are partitioned into shards, so that the bands are looked up in parallel, and which accepts probes in batches.
+ * Only the band hashes of the LSH are used, i.e., each shard maps the 64-bit band hashes of its bands to the ids of the accepted probes, and the distances are verified on the sorted k-mers of the probes.
+ * A batch is accepted in three steps: the hashes and k-mers of all candidates are computed in parallel, the shards are looked up in parallel, and the candidates are verified in parallel against the probes accepted before the batch.
+ * Finally, the candidates that passed are accepted one by one in their order, after they are checked against the candidates of the same batch that were accepted before them.
+ */
+public class ShardedLSHIndex implements DistanceChecker, AutoCloseable {
+    private final LSH lsh;
+    private final int k;
+    private final int shards;
+    private final int threads;
+    private final float minDist;
+    private final float minRcDist;
+    private final List<Map<Long, int[]>> shardMaps;
+    private final List<long[]> kmers;
+    private final ExecutorService pool;
+    private final DistanceCheckStats stats;
+
+    /**
+     * Creates a sharded index.
+     * @param lsh the LSH whose permutations and bands are used. Sequences are not inserted into it.
+     * @param shards the number of shards. Band i belongs to shard i % shards.
+     * @param threads the number of threads that process a batch.
+     * @param minDist the minimum distance required between two accepted probes.
+     * @param minRcDist the minimum distance required between the reverse complement of a probe and all accepted probes, or 0 to disable the screen.
+     */
+    public ShardedLSHIndex(LSH lsh, int shards, int threads, float minDist, float minRcDist) {
+        if (shards < 1 || shards > lsh.getB())
+            throw new RuntimeException("shards must be in [1, " + lsh.getB() + "]");
+        if (lsh.getK() > SimilarityJoin.MAX_K)
+            throw new RuntimeException("k must be <= " + SimilarityJoin.MAX_K);
+        this.lsh = lsh;
+        this.k = lsh.getK();
+        this.shards = shards;
+        this.threads = Math.max(1, threads);
+        this.minDist = minDist;
+        this.minRcDist = minRcDist;
+        this.shardMaps = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++)
+            shardMaps.add(new HashMap<>());
+        this.kmers = new ArrayList<>();
+        this.pool = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "pg-index");
+            t.setDaemon(true);
+            return t;
+        });
+        this.stats = new DistanceCheckStats();
+    }
+
+    /**
+     * Accepts the candidates of a batch in their order, so that all accepted probes meet the distance requirements.
+     * @param batch the candidates.
+     * @param limit the maximum number of candidates to accept. The candidates after the limit is reached are rejected.
+     * @return an array that is true for each accepted candidate.
+     */
+    public synchronized boolean[] acceptBatch(List<BaseSequence> batch, int limit) {
+        long t = System.nanoTime();
+        int n = batch.size();
+        Candidate[] candidates = query(batch);
+
+        boolean[] accepted = new boolean[n];
+        List<Candidate> acceptedInBatch = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            Candidate c = candidates[i];
+            if (c.farEnough && count < limit && isFarEnough(c, acceptedInBatch)) {
+                insert(c);
+                acceptedInBatch.add(c);
+                accepted[i] = true;
+                count++;
+            }
+        }
+        // the batch is processed at once, i.e., each candidate is attributed the average time
+        long nanos = (System.nanoTime() - t) / Math.max(1, n);
+        for (int i = 0; i < n; i++)
+            stats.record(candidates[i].candidates, candidates[i].verifications, accepted[i], nanos);
+        return accepted;
+    }
+
+    /**
+     * @return the number of accepted probes.
+     */
+    public synchronized int size() {
+        return kmers.size();
+    }
+
+    /**
+     * Checks whether a given DNA sequence is far enough from the probes accepted so far.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq is far enough from the probes accepted so far.
+     */
+    @Override
+    public synchronized boolean isFarEnough(BaseSequence seq) {
+        return query(List.of(seq))[0].farEnough;
+    }
+
+    /**
+     * Attempts to accept a given DNA sequence, i.e., a batch of a single candidate.
+     * @param seq the examined BaseSequence.
+     * @return true, if seq meets the requirements and was accepted.
+     */
+    @Override
+    public boolean tryAdd(BaseSequence seq) {
+        return acceptBatch(List.of(seq), 1)[0];
+    }
+
+    /**
+     * @return the statistics of the distance checks performed by this instance.
+     */
+    @Override
+    public DistanceCheckStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops the threads of this index.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private Candidate[] query(List<BaseSequence> batch) {
+        int n = batch.size();
+        Candidate[] candidates = new Candidate[n];
+        FuncUtils.parallelFor(pool, threads, n, i -> candidates[i] = new Candidate(batch.get(i)));
+
+        int[][][] ids = new int[shards][n][];
+        FuncUtils.parallelFor(pool, threads, shards, s -> {
+            for (int i = 0; i < n; i++)
+                ids[s][i] = lookup(s, candidates[i]);
+        });
+
+        FuncUtils.parallelFor(pool, threads, n, i -> {
+            Candidate c = candidates[i];
+            int total = 0;
+            for (int s = 0; s < shards; s++)
+                total += ids[s][i].length;
+            int[] all = new int[total];
+            total = 0;
+            for (int s = 0; s < shards; s++) {
+                System.arraycopy(ids[s][i], 0, all, total, ids[s][i].length);
+                total += ids[s][i].length;
+            }
+            c.farEnough = verify(c, all);
+        });
+        return candidates;
+    }
+
+    private int[] lookup(int shard, Candidate c) {
+        Map<Long, int[]> map = shardMaps.get(shard);
+        int[] result = new int[1];
+        for (int band = shard; band < c.hashes.length; band += shards) {
+            result = addAll(result, map.get(c.hashes[band]));
+            if (c.rcHashes != null)
+                result = addAll(result, map.get(c.rcHashes[band]));
+        }
+        return Arrays.copyOfRange(result, 1, result[0] + 1);
+    }
+
+    private boolean verify(Candidate c, int[] ids) {
+        Arrays.sort(ids);
+        for (int x = 0; x < ids.length; x++) {
+            if (x > 0 && ids[x] == ids[x - 1])
+                continue;
+            c.candidates++;
+            c.verifications++;
+            long[] other = kmers.get(ids[x]);
+            if (SimilarityJoin.distance(c.kmers, other) < minDist)
+                return false;
+            if (c.rcKmers != null && SimilarityJoin.distance(c.rcKmers, other) < minRcDist)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isFarEnough(Candidate c, List<Candidate> acceptedInBatch) {
+        for (Candidate other : acceptedInBatch) {
+            if (sharesBand(c.hashes, other.hashes)) {
+                c.verifications++;
+                if (SimilarityJoin.distance(c.kmers, other.kmers) < minDist)
+                    return false;
+            }
+            if (c.rcHashes != null && sharesBand(c.rcHashes, other.hashes)) {
+                c.verifications++;
+                if (SimilarityJoin.distance(c.rcKmers, other.kmers) < minRcDist)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(Candidate c) {
+        int id = kmers.size();
+        kmers.add(c.kmers);
+        for (int band = 0; band < c.hashes.length; band++) {
+            Map<Long, int[]> map = shardMaps.get(band % shards);
+            int[] bucket = map.get(c.hashes[band]);
+            int[] grown = add(bucket != null ? bucket : new int[2], id);
+            if (grown != bucket)
+                map.put(c.hashes[band], grown);
+        }
+    }
+
+    private static boolean sharesBand(long[] a, long[] b) {
+        for (int band = 0; band < a.length; band++) {
+            if (a[band] == b[band])
+                return true;
+        }
+        return false;
+    }
+
+    // the buckets and the results of the lookups are int arrays that store their size at index 0
+
+    private static int[] add(int[] list, int id) {
+        if (list[0] + 1 == list.length)
+            list = Arrays.copyOf(list, list.length * 2);
+        list[++list[0]] = id;
+        return list;
+    }
+
+    private static int[] addAll(int[] list, int[] other) {
+        if (other == null)
+            return list;
+        int size = list[0];
+        int otherSize = other[0];
+        if (size + otherSize + 1 > list.length)
+            list = Arrays.copyOf(list, Math.max(list.length * 2, size + otherSize + 1));
+        System.arraycopy(other, 1, list, size + 1, otherSize);
+        list[0] = size + otherSize;
+        return list;
+    }
+
+    private class Candidate {
+        private final long[] hashes;
+        private final long[] kmers;
+        private final long[] rcHashes;
+        private final long[] rcKmers;
+        private boolean farEnough;
+        private int candidates;
+        private int verifications;
+
+        private Candidate(BaseSequence seq) {
+            this.hashes = lsh.bandHashes(seq);
+            this.kmers = SimilarityJoin.kmerCodes(seq, k);
+            if (minRcDist > 0.0f) {
+                BaseSequence rc = seq.reverseComplement();
+                this.rcHashes = lsh.bandHashes(rc);
+                this.rcKmers = SimilarityJoin.kmerCodes(rc, k);
+            }
+            else {
+                this.rcHashes = null;
+                this.rcKmers = null;
+            }
+        }
+    }
+}
@@ -3,20 +3,52 @@ package packaging;
 import core.BaseSequence;
 import generator.SeqGenerator;
 import generator.SeqGeneratorWithRulesProb;
+import generator.StagedSeqGenerator;
+import generator.probes.DistanceCheckStats;
+import generator.probes.DistanceChecker;
+import generator.probes.NearMissRecycler;
 import generator.probes.ProbesGeneratorLSH;
 import generator.probes.ProbesGeneratorNaive;
+import generator.probes.ProbesMerger;
+import generator.probes.ProbesCoordinator;
+import generator.probes.ProbesPipeline;
+import generator.probes.ProbesWorker;
+import generator.probes.SaturationTracker;
+import generator.probes.ShardedLSHIndex;
 import rules.BasicDNARules;
 import generator.SeqGeneratorWithRulesSafe;
 import rules.DNARulesCollection;
+import rules.HairpinScreenRule;
+import rules.MeltingTemperatureRule;
+import rules.OffTargetRule;
+import rules.RuleStats;
+import rules.SecondaryStructureRule;
 import utils.ArgumentConverter;
 import utils.ArgumentParser;
 import utils.FuncUtils;
+import utils.KmerBloomFilter;
 import utils.LSH;
+import utils.DGCache;
+import utils.DGCalculator;
+import utils.DGClient;
+import utils.RandomSource;
+import utils.SimilarityGraph;
+import utils.SimilarityJoin;
 import utils.csv.BufferedCsvWriter;
+import utils.stats.LatencyHistogram;
+import utils.fasta.AsyncFASTAWriter;
+import utils.fasta.ReadableFASTAFile;
 import utils.fasta.WriteableFASTAFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -35,32 +67,85 @@ public class ProbesProducerPackage {
     private static final String SAVE_PARAM                = "save";
     private static final String MAX_ERR_PARAM             = "max_err";
     private static final String USE_DG_PARAM              = "use_dg_server";
+    private static final String DG_IN_FLIGHT_PARAM        = "dg_in_flight";
+    private static final String DG_CACHE_SIZE_PARAM       = "dg_cache_size";
+    private static final String DG_CACHE_PATH_PARAM       = "dg_cache_path";
+    private static final String DG_SOCKET_DIR_PARAM       = "dg_socket_dir";
+    private static final String DG_PREFILTER_PARAM        = "dg_prefilter";
+    private static final String DG_PREFILTER_DG_PARAM     = "dg_prefilter_dg";
+    private static final String TM_MIN_PARAM              = "tm_min";
+    private static final String TM_MAX_PARAM              = "tm_max";
+    private static final String RC_CHECK_PARAM            = "rc_check";
+    private static final String REF_FASTA_PARAM           = "ref_fasta";
+    private static final String REF_K_PARAM               = "ref_k";
+    private static final String REF_MAX_HITS_PARAM        = "ref_max_hits";
+    private static final String REF_FILTER_PATH_PARAM     = "ref_filter_path";
+    private static final String MIN_RC_DIST_PARAM         = "min_rc_dist";
+    private static final String RECYCLE_ATTEMPTS_PARAM      = "recycle_attempts";
+    private static final String RECYCLE_MAX_MUTATIONS_PARAM = "recycle_max_mutations";
+    private static final String MAX_TIME_PARAM            = "max_time_s";
+    private static final String MAX_ATTEMPTS_PARAM        = "max_attempts";
     private static final String SAVE_PATH_PARAM           = "save_path";
     private static final String SAVE_APPEND_PARAM         = "save_append";
+    private static final String SAVE_FLUSH_MS_PARAM       = "save_flush_ms";
+    private static final String SAVE_FSYNC_PARAM          = "save_fsync";
     private static final String PRINT_COUNTER_PARAM       = "print_counter";
     private static final String PRINT_COUNTER_STEP_PARAM  = "counter_step";
     private static final String NUM_THREADS_PARAM         = "threads";
     private static final String APPROVE_PARAM             = "approve";
     private static final String GEN_TYPE_PARAM            = "gen_type";
+    private static final String EXEC_MODE_PARAM           = "exec_mode";
+    private static final String WORKER_BATCH_PARAM        = "worker_batch";
+    private static final String ACCEPT_BATCH_PARAM        = "accept_batch";
+    private static final String PIPELINE_GEN_THREADS_PARAM   = "pipeline_gen_threads";
+    private static final String PIPELINE_LOCAL_THREADS_PARAM = "pipeline_local_threads";
+    private static final String PIPELINE_DG_IN_FLIGHT_PARAM  = "pipeline_dg_in_flight";
+    private static final String PIPELINE_QUEUE_PARAM         = "pipeline_queue";
     private static final String DIST_CHECK_PARAM          = "dist_check";
+    private static final String COORD_HOST_PARAM          = "coord_host";
+    private static final String COORD_PORT_PARAM          = "coord_port";
+    private static final String COORD_SHARDS_PARAM        = "coord_shards";
+    private static final String COORD_BATCH_PARAM         = "coord_batch";
+    private static final String SEED_PARAM                = "seed";
+    private static final String MODE_PARAM                = "mode";
+    private static final String VALIDATE_PATH_PARAM       = "validate_path";
+    private static final String VALIDATE_METHOD_PARAM     = "validate_method";
+    private static final String COMPACT_PATH_PARAM        = "compact_path";
+    private static final String COMPACT_OUT_PARAM         = "compact_out";
+    private static final String MERGE_PATHS_PARAM         = "merge_paths";
+    private static final String MERGE_OUT_PARAM           = "merge_out";
+    private static final String MERGE_BATCH_PARAM         = "merge_batch";
 
 
     private static final int DEFAULT_NUM_THREADS          = Runtime.getRuntime().availableProcessors();
     private static final int DEFAULT_LEN                  = 60;
     private static final int DEFAULT_COUNT                = 1;
     private static final int DEFAULT_COUNTER_STEP_FACTION = 100;
+    private static final int DEFAULT_DG_CACHE_SIZE        = 1 << 20;
     private static final float DEFAULT_GC                 = 0.5f;
     private static final float DEFAULT_D_GC               = 0.1f;
     private static final float DEFAULT_MIN_DIST           = 0.4f;
     private static final float DEFAULT_MAX_ERROR          = 0.5f;
 
     private static final boolean DEFAULT_USE_DG           = true;
+    private static final boolean DEFAULT_DG_PREFILTER     = false;
+    private static final float DEFAULT_TM_MIN             = Float.NEGATIVE_INFINITY;
+    private static final boolean DEFAULT_RC_CHECK         = false;
+    private static final int DEFAULT_RECYCLE_ATTEMPTS     = 0;
+    private static final int DEFAULT_REF_K                = OffTargetRule.DEFAULT_K;
+    private static final int DEFAULT_REF_MAX_HITS         = OffTargetRule.DEFAULT_MAX_HITS;
+    private static final float DEFAULT_TM_MAX             = Float.POSITIVE_INFINITY;
     private static final boolean DEFAULT_SAVE             = true;
     private static final boolean DEFAULT_SAVE_APPEND      = false;
     private static final boolean DEFAULT_COUNTER          = true;
     private static final boolean DEFAULT_APPROVE          = true;
 
     private static final String DEFAULT_SAVE_PATH         = "probes.fa";
+    private static final long DEFAULT_SAVE_FLUSH_MS       = AsyncFASTAWriter.DEFAULT_FLUSH_INTERVAL_MS;
+    private static final String SAVE_FSYNC_NONE           = "none";
+    private static final String SAVE_FSYNC_CLOSE          = "close";
+    private static final String SAVE_FSYNC_FLUSH          = "flush";
+    private static final String DEFAULT_SAVE_FSYNC        = SAVE_FSYNC_CLOSE;
 
     private static final int DEFAULT_LSH_K                = 4;
     private static final int DEFAULT_LSH_R                = 200;
@@ -71,10 +156,54 @@ public class ProbesProducerPackage {
     private static final String GEN_TYPE_SAFE             = "safe_gc";
     private static final String DEFAULT_GEN_TYPE          = GEN_TYPE_SAFE;
 
+    private static final String EXEC_MODE_TASKS           = "tasks";
+    private static final String EXEC_MODE_WORKERS         = "workers";
+    private static final String EXEC_MODE_PIPELINE        = "pipeline";
+    private static final String EXEC_MODE_COORDINATOR     = "coordinator";
+    private static final String EXEC_MODE_WORKER          = "worker";
+    private static final String DEFAULT_COORD_HOST        = "127.0.0.1";
+    private static final int DEFAULT_COORD_SHARDS         = 4;
+    private static final String DEFAULT_EXEC_MODE         = EXEC_MODE_WORKERS;
+    private static final int DEFAULT_WORKER_BATCH         = 1;
+    private static final int DEFAULT_ACCEPT_BATCH         = 1;
+    private static final int DEFAULT_PIPELINE_GEN_THREADS = 1;
+    private static final int DEFAULT_PIPELINE_DG_IN_FLIGHT = 64;
+    private static final long SHUTDOWN_TIMEOUT_MS         = 30_000L;
+    private static final long DEFAULT_MAX_TIME_S          = 0L;
+    private static final long DEFAULT_MAX_ATTEMPTS        = 0L;
+    private static final long SATURATION_SAMPLE_MS        = 1000L;
+    private static final long SATURATION_PRINT_MS         = 60_000L;
+    private static final double SATURATION_WARN_RATE      = 0.05d;
+
+    private static final String MODE_GENERATE             = "generate";
+    private static final String MODE_VALIDATE             = "validate";
+    private static final String MODE_COMPACT              = "compact";
+    private static final String DEFAULT_COMPACT_OUT       = "probes_compacted.fa";
+    private static final String MODE_MERGE                = "merge";
+    private static final String DEFAULT_MERGE_OUT         = "probes_merged.fa";
+    private static final String DEFAULT_MODE              = MODE_GENERATE;
+    private static final String VALIDATE_METHOD_AUTO      = "auto";
+    private static final String VALIDATE_METHOD_EXACT     = "exact";
+    private static final String VALIDATE_METHOD_LSH       = "lsh";
+    private static final String DEFAULT_VALIDATE_METHOD   = VALIDATE_METHOD_AUTO;
+
+    private static final int    DEFAULT_DG_IN_FLIGHT      = 1;
+
     private static final String DIST_CHECK_LSH            = "LSH";
     private static final String DIST_CHECK_NAIVE          = "Naive";
     private static final String DIST_CHECK_DEFAULT        = DIST_CHECK_LSH;
 
+    private static final String REPORT_PATH               = "PG_report.csv";
+    private static final String STATS_REPORT_PATH         = "PG_stats_report.csv";
+    private static final String VALIDATE_REPORT_PATH      = "PG_validate_report.csv";
+    private static final String MERGE_REPORT_PATH         = "PG_merge_report.csv";
+    private static final long MB                          = 1024L * 1024L;
+    private static final String STAGE_RULE                = "rule";
+    private static final String STAGE_DIST_CHECK          = "dist_check";
+    private static final String STAGE_PIPELINE            = "pipeline";
+    private static final String STAGE_RECYCLE             = "recycle";
+    private static final String STAGE_DG_CACHE            = "dg_cache";
+
 
     private static long lastTime;
     private static long startTime;
@@ -91,29 +220,89 @@ public class ProbesProducerPackage {
     private static int b;
 
     private static float minDist;
+    private static boolean rcCheck;
+    private static float minRcDist;
+    private static int recycleAttempts;
+    private static int recycleMaxMutations;
 
     private static boolean useDg;
+    private static int dgInFlight;
+    private static int dgCacheSize;
+    private static String dgCachePath;
+    private static String dgSocketDir;
+    private static boolean dgPrefilter;
+    private static float dgPrefilterDg;
+
+    private static String refFasta;
+    private static int refK;
+    private static int refMaxHits;
+    private static String refFilterPath;
+    private static KmerBloomFilter refFilter;
+
+    private static float tmMin;
+    private static float tmMax;
+    private static DGCache dgCache;
 
     private static boolean save;
     private static boolean saveAppend;
     private static String savePath;
+    private static long saveFlushMs;
+    private static String saveFsync;
 
     private static boolean printCounter;
     private static int counterStep;
+    private static boolean counterStepOfCount;
 
     private static int threads;
 
     private static AtomicInteger counter;
-    private static int seqCaption;
     private static int lastCycleCount;
 
     private static boolean approve;
 
     private static String genType;
+    private static String execMode;
+    private static int workerBatch;
+    private static int acceptBatch;
+    private static Long seed;
+    private static String mode;
+    private static String validatePath;
+    private static String validateMethod;
+    private static String compactPath;
+    private static String compactOut;
+    private static List<String> mergePaths;
+    private static String mergeOut;
+    private static int mergeBatch;
+    private static AtomicInteger produced;
+    private static volatile boolean stopRequested;
     private static String distCheck;
 
     private static BufferedCsvWriter csv;
-    private static WriteableFASTAFile fileFASTA;
+    private static BufferedCsvWriter statsCsv;
+    private static DNARulesCollection rules;
+    private static DistanceCheckStats distanceStats;
+    private static SaturationTracker saturation;
+    private static long maxTimeS;
+    private static long maxAttempts;
+    private static long lastSaturationPrint;
+    private static SeqGenerator probesGenerator;
+    private static long lastQueries;
+    private static long lastAccepted;
+    private static long lastCandidates;
+    private static StagedSeqGenerator stagedGenerator;
+    private static DistanceChecker distanceChecker;
+    private static ProbesPipeline pipeline;
+    private static int pipelineGenThreads;
+    private static int pipelineLocalThreads;
+    private static int pipelineDgInFlight;
+    private static int pipelineQueue;
+    private static AsyncFASTAWriter fileFASTA;
+    private static String coordHost;
+    private static int coordPort;
+    private static int coordShards;
+    private static int coordBatch;
+    private static ProbesCoordinator coordinator;
+    private static ProbesWorker worker;
 
     private static ExecutorService pool;
 
@@ -134,21 +323,84 @@ public class ProbesProducerPackage {
         b = argParser.getParam(LSH_B_PARAM, ArgumentConverter.INT(DEFAULT_LSH_B));
 
         minDist = argParser.getParam(MIN_DIST_PARAM, ArgumentConverter.FLOAT(DEFAULT_MIN_DIST));
+        rcCheck = argParser.getParam(RC_CHECK_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_RC_CHECK));
+        minRcDist = argParser.getParam(MIN_RC_DIST_PARAM, ArgumentConverter.FLOAT(minDist));
+        recycleAttempts = argParser.getParam(RECYCLE_ATTEMPTS_PARAM, ArgumentConverter.INT(DEFAULT_RECYCLE_ATTEMPTS));
+        recycleMaxMutations = argParser.getParam(RECYCLE_MAX_MUTATIONS_PARAM, ArgumentConverter.INT(Math.max(1, Math.round(len * NearMissRecycler.DEFAULT_MAX_MUTATIONS_FRACTION))));
+        maxTimeS = argParser.getParam(MAX_TIME_PARAM, ArgumentConverter.LONG(DEFAULT_MAX_TIME_S));
+        maxAttempts = argParser.getParam(MAX_ATTEMPTS_PARAM, ArgumentConverter.LONG(DEFAULT_MAX_ATTEMPTS));
         threads = argParser.getParam(NUM_THREADS_PARAM, ArgumentConverter.INT(DEFAULT_NUM_THREADS));
 
         useDg = argParser.getParam(USE_DG_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_USE_DG));
+        dgInFlight = argParser.getParam(DG_IN_FLIGHT_PARAM, ArgumentConverter.INT(DEFAULT_DG_IN_FLIGHT));
+        dgCacheSize = argParser.getParam(DG_CACHE_SIZE_PARAM, ArgumentConverter.INT(DEFAULT_DG_CACHE_SIZE));
+        dgCachePath = argParser.getParam(DG_CACHE_PATH_PARAM, ArgumentConverter.STRING(null));
+        dgSocketDir = argParser.getParam(DG_SOCKET_DIR_PARAM, ArgumentConverter.STRING(null));
+        dgPrefilter = argParser.getParam(DG_PREFILTER_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_DG_PREFILTER));
+        dgPrefilterDg = argParser.getParam(DG_PREFILTER_DG_PARAM, ArgumentConverter.FLOAT(HairpinScreenRule.DEFAULT_REJECT_DG));
+
+        refFasta = argParser.getParam(REF_FASTA_PARAM, ArgumentConverter.STRING(null));
+        refK = argParser.getParam(REF_K_PARAM, ArgumentConverter.INT(DEFAULT_REF_K));
+        refMaxHits = argParser.getParam(REF_MAX_HITS_PARAM, ArgumentConverter.INT(DEFAULT_REF_MAX_HITS));
+        refFilterPath = argParser.getParam(REF_FILTER_PATH_PARAM, ArgumentConverter.STRING(null));
+
+        tmMin = argParser.getParam(TM_MIN_PARAM, ArgumentConverter.FLOAT(DEFAULT_TM_MIN));
+        tmMax = argParser.getParam(TM_MAX_PARAM, ArgumentConverter.FLOAT(DEFAULT_TM_MAX));
 
         save = argParser.getParam(SAVE_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_SAVE));
         saveAppend = argParser.getParam(SAVE_APPEND_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_SAVE_APPEND));
         savePath = argParser.getParam(SAVE_PATH_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_SAVE_PATH));
+        saveFlushMs = argParser.getParam(SAVE_FLUSH_MS_PARAM, ArgumentConverter.LONG(DEFAULT_SAVE_FLUSH_MS));
+        saveFsync = argParser.getParam(SAVE_FSYNC_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_SAVE_FSYNC));
 
         printCounter = argParser.getParam(PRINT_COUNTER_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_COUNTER));
-        counterStep = argParser.getParam(PRINT_COUNTER_STEP_PARAM, ArgumentConverter.INT(Math.max(1, count / DEFAULT_COUNTER_STEP_FACTION)));
+        counterStep = argParser.getParam(PRINT_COUNTER_STEP_PARAM, ArgumentConverter.INT(0));
+        counterStepOfCount = counterStep <= 0;
+        if (counterStepOfCount)
+            counterStep = Math.max(1, count / DEFAULT_COUNTER_STEP_FACTION);
 
         approve = argParser.getParam(APPROVE_PARAM, ArgumentConverter.BOOLEAN(DEFAULT_APPROVE));
         distCheck = argParser.getParam(DIST_CHECK_PARAM, ArgumentConverter.STRING_LOWERCASE(DIST_CHECK_DEFAULT));
 
         genType = argParser.getParam(GEN_TYPE_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_GEN_TYPE));
+        execMode = argParser.getParam(EXEC_MODE_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_EXEC_MODE));
+        workerBatch = Math.max(1, argParser.getParam(WORKER_BATCH_PARAM, ArgumentConverter.INT(DEFAULT_WORKER_BATCH)));
+        acceptBatch = Math.max(1, argParser.getParam(ACCEPT_BATCH_PARAM, ArgumentConverter.INT(DEFAULT_ACCEPT_BATCH)));
+        pipelineGenThreads = argParser.getParam(PIPELINE_GEN_THREADS_PARAM, ArgumentConverter.INT(DEFAULT_PIPELINE_GEN_THREADS));
+        pipelineLocalThreads = argParser.getParam(PIPELINE_LOCAL_THREADS_PARAM, ArgumentConverter.INT(threads));
+        pipelineDgInFlight = argParser.getParam(PIPELINE_DG_IN_FLIGHT_PARAM, ArgumentConverter.INT(DEFAULT_PIPELINE_DG_IN_FLIGHT));
+        pipelineQueue = argParser.getParam(PIPELINE_QUEUE_PARAM, ArgumentConverter.INT(ProbesPipeline.DEFAULT_QUEUE_CAPACITY));
+        coordHost = argParser.getParam(COORD_HOST_PARAM, ArgumentConverter.STRING(DEFAULT_COORD_HOST));
+        coordPort = argParser.getParam(COORD_PORT_PARAM, ArgumentConverter.INT(ProbesCoordinator.DEFAULT_PORT));
+        coordShards = Math.min(b, argParser.getParam(COORD_SHARDS_PARAM, ArgumentConverter.INT(DEFAULT_COORD_SHARDS)));
+        coordBatch = argParser.getParam(COORD_BATCH_PARAM, ArgumentConverter.INT(ProbesWorker.DEFAULT_BATCH_SIZE));
+        // the coordinator saves the probes accepted from all workers
+        if (execMode.equals(EXEC_MODE_WORKER))
+            save = false;
+        String seedArg = argParser.getParam(SEED_PARAM, ArgumentConverter.STRING(null));
+        seed = seedArg != null ? Long.parseLong(seedArg) : null;
+
+        mode = argParser.getParam(MODE_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_MODE));
+        validatePath = argParser.getParam(VALIDATE_PATH_PARAM, ArgumentConverter.STRING(savePath));
+        validateMethod = argParser.getParam(VALIDATE_METHOD_PARAM, ArgumentConverter.STRING_LOWERCASE(DEFAULT_VALIDATE_METHOD));
+        compactPath = argParser.getParam(COMPACT_PATH_PARAM, ArgumentConverter.STRING(savePath));
+        compactOut = argParser.getParam(COMPACT_OUT_PARAM, ArgumentConverter.STRING(DEFAULT_COMPACT_OUT));
+        String mergePathsArg = argParser.getParam(MERGE_PATHS_PARAM, ArgumentConverter.STRING(null));
+        mergePaths = mergePathsArg != null ? Arrays.stream(mergePathsArg.split(",")).map(String::strip).filter(p -> !p.isEmpty()).toList() : List.of();
+        mergeOut = argParser.getParam(MERGE_OUT_PARAM, ArgumentConverter.STRING(DEFAULT_MERGE_OUT));
+        mergeBatch = argParser.getParam(MERGE_BATCH_PARAM, ArgumentConverter.INT(ProbesMerger.DEFAULT_BATCH_SIZE));
+        if (mode.equals(MODE_VALIDATE) || mode.equals(MODE_COMPACT) || mode.equals(MODE_MERGE)) {
+            if (seed != null)
+                RandomSource.setSeed(seed);
+            switch (mode) {
+                case MODE_VALIDATE -> validate();
+                case MODE_COMPACT -> compact();
+                default -> merge();
+            }
+            return;
+        }
+        if (!mode.equals(MODE_GENERATE))
+            throw new RuntimeException("unknown " + MODE_PARAM + ": " + mode);
 
         printParams();
         if (approve && !approveParameters()) {
@@ -158,12 +410,18 @@ public class ProbesProducerPackage {
 
         System.out.println("-> Initiating...\n");
 
+        if (seed != null)
+            RandomSource.setSeed(seed);
+
         counter = new AtomicInteger();
         pool = createPool();
-        SeqGenerator probesGenerator = createProbesGenerator();
+        // the coordinator only owns the distance index, i.e., it does not evaluate any rule
+        probesGenerator = execMode.equals(EXEC_MODE_COORDINATOR) ? null : createProbesGenerator();
+        if (execMode.equals(EXEC_MODE_COORDINATOR))
+            createCoordinator();
 
-        fileFASTA = save? new WriteableFASTAFile(savePath, saveAppend) : null;
-        csv = new BufferedCsvWriter("PG_report.csv", false);
+        fileFASTA = save? new AsyncFASTAWriter(savePath, saveAppend, AsyncFASTAWriter.DEFAULT_QUEUE_CAPACITY, AsyncFASTAWriter.DEFAULT_BUFF_SIZE, saveFlushMs, syncPolicy()) : null;
+        csv = new BufferedCsvWriter(REPORT_PATH, false);
         csv.appendNewLine(
                 "Progress(%)",
                 "Cycle Time(s)",
@@ -172,86 +430,625 @@ public class ProbesProducerPackage {
                 "Probes/s",
                 "ms/Probe",
                 "Length",
-                "Similarity Measure");
+                "Similarity Measure",
+                "Threads",
+                "Acceptance Rate",
+                "Candidates/Query",
+                "Heap Used(MB)",
+                "Heap Committed(MB)",
+                "GC Count",
+                "GC Time(ms)",
+                "Saturation q",
+                "Predicted Candidates");
+        statsCsv = new BufferedCsvWriter(STATS_REPORT_PATH, false);
+        statsCsv.appendNewLine(
+                "Current Count",
+                "Stage",
+                "Name",
+                "Cost Class",
+                "Evaluations",
+                "Rejections",
+                "Rejection Rate",
+                "Avg Error",
+                "Avg Latency(us)",
+                "p50 Latency(us)",
+                "p99 Latency(us)",
+                "Candidates/Query",
+                "Verifications/Query",
+                "Queue Depth",
+                "Hits",
+                "Misses",
+                "Hit Rate");
         startTime = System.currentTimeMillis();
         lastTime = startTime;
-        seqCaption = 1;
 
-        System.out.println("---> [Started] <---");
-        IntStream.range(0, count + threads - 1).forEach(i -> pool.execute(() -> {
-            int c = counter.incrementAndGet();
-            if (c > count)
-                return;
-            BaseSequence seq = probesGenerator.generate();
-            if (save)
-                writeToFASTA(seq);
+        produced = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            // e.g., Ctrl+C: let the workers finish their current probes, so that the files are closed consistently
+            requestStop();
+            FuncUtils.superSafeCall(() -> finished.await(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        // a worker only sees its own share of the library, i.e., the library size is the one of the coordinator
+        saturation = execMode.equals(EXEC_MODE_WORKER) ? new SaturationTracker(distanceStats, () -> worker != null ? worker.getCoordinatorAccepted() : 0L) : new SaturationTracker(distanceStats);
+        Thread monitor = new Thread(() -> {
+            while (!stopRequested && !FuncUtils.safeCall(() -> finished.await(SATURATION_SAMPLE_MS, TimeUnit.MILLISECONDS)))
+                monitorSaturation();
+        }, "pg-saturation");
+        monitor.setDaemon(true);
+        monitor.start();
 
-            report(c);
-        }));
+        System.out.println("---> [Started] <---");
+        if (execMode.equals(EXEC_MODE_TASKS)) {
+            IntStream.range(0, count + threads - 1).forEach(i -> pool.execute(() -> {
+                int c = counter.incrementAndGet();
+                if (c > count || stopRequested)
+                    return;
+                produce(probesGenerator, c);
+            }));
+        }
+        else if (execMode.equals(EXEC_MODE_PIPELINE)) {
+            pipeline = new ProbesPipeline(stagedGenerator, distanceChecker, pipelineGenThreads, pipelineLocalThreads, useDg ? pipelineDgInFlight : 1, pipelineQueue, useDg, ProbesProducerPackage::consume);
+            pipeline.run(count);
+        }
+        else if (execMode.equals(EXEC_MODE_COORDINATOR)) {
+            System.out.println("-> Waiting for workers on port " + coordPort);
+            coordinator.run(count);
+            ((ShardedLSHIndex) distanceChecker).close();
+        }
+        else if (execMode.equals(EXEC_MODE_WORKER)) {
+            // the sent candidates are recorded as distance checks, so that the saturation of the library is tracked by the worker, too
+            worker = new ProbesWorker(stagedGenerator, coordHost, coordPort, threads, coordBatch, ProbesProducerPackage::consumeFromCoordinator, distanceStats);
+            int accepted = worker.run();
+            reportFinal(worker.getCoordinatorAccepted());
+            System.out.println("-> Sent " + worker.getSent() + " candidates, " + accepted + " accepted by the coordinator");
+        }
+        else if (acceptBatch > 1 && probesGenerator instanceof ProbesGeneratorLSH) {
+            for (int i = 0; i < threads; i++)
+                pool.execute(RandomSource.bound(() -> batchWorkerLoop((ProbesGeneratorLSH) probesGenerator)));
+        }
+        else {
+            for (int i = 0; i < threads; i++)
+                pool.execute(RandomSource.bound(() -> workerLoop(probesGenerator)));
+        }
 
         pool.shutdown();
         boolean awaited = pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         if (!awaited)
             System.out.println("Should be impossible: pool still not terminated..");
+        if (stopRequested) {
+            // the last completed probe is rarely at a multiple of counterStep
+            reportFinal(produced.get());
+            System.out.println("-> Stopped after " + produced.get() + " of " + count + " probes");
+            printSaturation();
+        }
         csv.close();
+        statsCsv.close();
         if (fileFASTA != null)
             fileFASTA.close();
+        if (refFilter != null)
+            refFilter.close();
+        if (dgCache != null) {
+            dgCache.close();
+            System.out.println("-> dg cache: " + dgCache.getHits() + " hits, " + dgCache.getMisses() + " misses (hit rate: " + dgCache.getHitRate() + ")" + (dgCache.getDroppedWrites() > 0L ? ", " + dgCache.getDroppedWrites() + " not written to " + dgCache.getStorePath() : ""));
+        }
+        if (distanceStats != null && distanceStats.getNearMisses() > 0L)
+            System.out.println("-> recycling: " + distanceStats.getNearMisses() + " near misses, " + distanceStats.getRecycleAttempts() + " mutants, " + distanceStats.getRecycled() + " recycled (success rate: " + distanceStats.getRecycleSuccessRate() + ")");
 
         System.out.println("---> [Finished] <---");
+        finished.countDown();
+        FuncUtils.superSafeCall(() -> Runtime.getRuntime().removeShutdownHook(shutdownHook));
+    }
+
+    /**
+     * Requests the generation to stop. Probes that are currently generated are still completed and saved.
+     */
+    public static void requestStop() {
+        stopRequested = true;
+        if (probesGenerator != null)
+            probesGenerator.stop();
+        // the pipeline and the worker use the rule generator directly
+        if (stagedGenerator != null)
+            stagedGenerator.stop();
+        if (pipeline != null)
+            pipeline.stop();
+        if (coordinator != null)
+            coordinator.stop();
+        if (worker != null)
+            worker.stop();
+    }
+
+    /**
+     * The loop of a long-running worker that claims batches of probes from the shared counter until count probes were claimed or a stop was requested.
+     */
+    private static void workerLoop(SeqGenerator probesGenerator) {
+        while (!stopRequested) {
+            int first = counter.getAndAdd(workerBatch) + 1;
+            if (first > count)
+                return;
+            int last = Math.min(count, first + workerBatch - 1);
+            for (int c = first; c <= last && !stopRequested; c++)
+                produce(probesGenerator, c);
+        }
+    }
+
+    /**
+     * The loop of a long-running worker that accepts its candidates in batches (group commit) and claims the numbers of the accepted probes from the shared counter until count probes were claimed or a stop was requested.
+     * The probes of the last batches that exceed count are accepted by the distance check but discarded.
+     */
+    private static void batchWorkerLoop(ProbesGeneratorLSH probesGenerator) {
+        while (!stopRequested && counter.get() < count) {
+            List<BaseSequence> accepted = probesGenerator.generateBatch(acceptBatch);
+            int n = accepted.size();
+            int first = counter.getAndAccumulate(n, (claimed, x) -> Math.min(count, claimed + x)) + 1;
+            int last = Math.min(count, first + n - 1);
+            for (int c = first; c <= last; c++)
+                consume(accepted.get(c - first), c);
+        }
+    }
+
+    private static void produce(SeqGenerator probesGenerator, int c) {
+        BaseSequence seq = probesGenerator.generate();
+        // null if the generation was stopped before a probe was found
+        if (seq != null)
+            consume(seq, c);
+    }
+
+    /**
+     * Samples the saturation of the library and requests the generation to stop once the time budget or the budget of candidates is exceeded.
+     * The budget of candidates counts the sequences checked by the rules, i.e., also the candidates that never reach the distance check. The coordinator, which does not check any rule, counts its distance checks.
+     * If the count is predicted to be unreachable within the budget, or the acceptance rate is low, the prediction is printed once per SATURATION_PRINT_MS.
+     */
+    private static void monitorSaturation() {
+        saturation.sample();
+        long now = System.currentTimeMillis();
+        long elapsedMs = now - startTime;
+        long queries = distanceStats.getQueries();
+        long attempts = stagedGenerator != null ? stagedGenerator.getCandidates() : queries;
+        if (maxTimeS > 0L && elapsedMs >= maxTimeS * 1000L) {
+            System.out.println("-> The time budget of " + maxTimeS + " s is exceeded");
+            requestStop();
+            return;
+        }
+        if (maxAttempts > 0L && attempts >= maxAttempts) {
+            System.out.println("-> The budget of " + maxAttempts + " candidates is exceeded");
+            requestStop();
+            return;
+        }
+        if (!saturation.isFitted() || now - lastSaturationPrint < SATURATION_PRINT_MS)
+            return;
+
+        double remaining = Double.POSITIVE_INFINITY;
+        // the saturation is fitted to distance checks, i.e., the remaining candidates are scaled by the fraction of candidates that passed the rules
+        if (maxAttempts > 0L)
+            remaining = (double) (maxAttempts - attempts) * queries / Math.max(1L, attempts);
+        if (maxTimeS > 0L)
+            remaining = Math.min(remaining, (maxTimeS * 1000L - elapsedMs) / 1000.0d * saturation.getAttemptsPerSecond());
+        boolean unreachable = saturation.predictAttempts(count) > remaining;
+        if (unreachable || saturation.getRecentAcceptanceRate() < SATURATION_WARN_RATE) {
+            lastSaturationPrint = now;
+            printSaturation();
+            if (unreachable)
+                System.out.println("-> " + count + " probes are predicted to be unreachable within the budget, which suffices for about " + saturation.predictCapacity(remaining) + " probes");
+        }
+    }
+
+    private static void printSaturation() {
+        System.out.println("-> Saturation: acceptance rate " + saturation.getRecentAcceptanceRate()
+                + ", " + saturation.getRecentCandidatesPerProbe() + " candidates/probe, q=" + saturation.getQ()
+                + ", predicted " + saturation.predictAttempts(count) + " candidates (" + saturation.predictSeconds(count) + " s) to reach " + count + " probes");
+    }
+
+    /**
+     * Consumes an accepted probe.
+     * @param c the number claimed for the probe. The probes may complete out of order, e.g., with worker_batch > 1, i.e., the report counts the completed probes instead.
+     */
+    private static void consume(BaseSequence seq, int c) {
+        if (save)
+            writeToFASTA(seq);
+
+        report(produced.incrementAndGet());
+    }
+
+    /**
+     * Consumes a probe of this worker that was accepted by the coordinator, i.e., reports the progress of the coordinator.
+     * @param c the number of the probe in the order of acceptance of the coordinator.
+     */
+    private static void consumeFromCoordinator(BaseSequence seq, int c) {
+        // the count of the coordinator applies, whatever the count of this worker is
+        int target = worker.getTarget();
+        if (target != count) {
+            count = target;
+            if (counterStepOfCount)
+                counterStep = Math.max(1, count / DEFAULT_COUNTER_STEP_FACTION);
+        }
+        // only the coordinator writes save_path, i.e., a worker does not save its probes
+        produced.incrementAndGet();
+        report(c);
+    }
+
+    /**
+     * Checks that each pair of probes in the FASTA file at validatePath is at least minDist apart, and writes the violating pairs to VALIDATE_REPORT_PATH.
+     */
+    private static void validate() {
+        printJoinParams("-> Validating probes <-", VALIDATE_PATH_PARAM, validatePath);
+        List<ReadableFASTAFile.Entry> entries = loadProbes(validatePath);
+
+        BufferedCsvWriter report = new BufferedCsvWriter(VALIDATE_REPORT_PATH, false);
+        report.appendNewLine("Index 1", "Caption 1", "Index 2", "Caption 2", "Distance");
+        SimilarityJoin.Result result = join(entries, (i, j, dist) -> {
+            synchronized (report) {
+                report.appendNewLine(String.valueOf(i), entries.get(i).getCaption(), String.valueOf(j), entries.get(j).getCaption(), String.valueOf(dist));
+            }
+        });
+        report.close();
+
+        System.out.println("-> Method:           " + result.getMethod());
+        System.out.println("-> Pairs compared:   " + result.getPairs());
+        System.out.println("-> Violating pairs:  " + result.getViolations() + " (distance < " + minDist + ")");
+        if (result.getMinI() >= 0)
+            System.out.println("-> Minimum distance: " + result.getMinDistance() + " (" + entries.get(result.getMinI()).getCaption() + ", " + entries.get(result.getMinJ()).getCaption() + ")" + (isExactJoin() ? "" : " among the compared pairs"));
+        else
+            System.out.println("-> Minimum distance: no pairs compared");
+        System.out.println("-> Validated in " + result.getElapsedMs() / 1000.0d + " s. Violating pairs were written to " + VALIDATE_REPORT_PATH);
+    }
+
+    /**
+     * Removes as few probes as possible from the FASTA file at compactPath, so that each pair of the remaining probes is at least minDist apart, and writes the remaining probes to compactOut.
+     * The probes that violate minDist form a sparse graph, of which a maximal independent set is kept.
+     */
+    private static void compact() {
+        printJoinParams("-> Compacting probes <-", COMPACT_PATH_PARAM, compactPath);
+        System.out.println("--> " + COMPACT_OUT_PARAM + ":   " + compactOut);
+        List<ReadableFASTAFile.Entry> entries = loadProbes(compactPath);
+
+        SimilarityGraph.Builder builder = new SimilarityGraph.Builder(entries.size());
+        SimilarityJoin.Result result = join(entries, builder);
+        System.out.println("-> Violating pairs found in " + result.getElapsedMs() / 1000.0d + " s: " + result.getViolations() + " (" + result.getMethod() + ")");
+
+        long t = System.currentTimeMillis();
+        SimilarityGraph graph = builder.build(threads);
+        boolean[] keep = graph.independentSet();
+        WriteableFASTAFile out = new WriteableFASTAFile(compactOut, false);
+        int kept = 0;
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                out.append(entries.get(i).getSeq(), entries.get(i).getCaption());
+                kept++;
+            }
+        }
+        out.close();
+
+        System.out.println("-> Conflicting probes: " + IntStream.range(0, graph.size()).filter(v -> graph.degree(v) > 0).count());
+        System.out.println("-> Removed probes:     " + (entries.size() - kept));
+        System.out.println("-> Kept probes:        " + kept);
+        System.out.println("-> Compacted in " + (System.currentTimeMillis() - t) / 1000.0d + " s. The kept probes were written to " + compactOut);
+        if (!isExactJoin())
+            System.out.println("-> Pairs missed by the LSH were not removed. Run " + MODE_PARAM + "=" + MODE_VALIDATE + " with " + VALIDATE_METHOD_PARAM + "=" + VALIDATE_METHOD_EXACT + " to prove the result.");
+    }
+
+    /**
+     * Merges the FASTA files in mergePaths in their order into mergeOut, so that the merged probes meet the distance requirements, and writes the origin of each probe to MERGE_REPORT_PATH.
+     * The merged probes are numbered from 1 in their order of acceptance, since the captions of different files usually collide.
+     */
+    private static void merge() {
+        if (mergePaths.isEmpty())
+            throw new RuntimeException(MERGE_PATHS_PARAM + " must list at least one FASTA file");
+
+        System.out.println("++++++++++++++++++++++++++++++++");
+        System.out.println("-> Merging probes <-");
+        System.out.println("++++++++++++++++++++++++++++++++");
+        for (int f = 0; f < mergePaths.size(); f++)
+            System.out.println("--> " + MERGE_PATHS_PARAM + "[" + f + "]: " + mergePaths.get(f));
+        System.out.println("--> " + MERGE_OUT_PARAM + ":     " + mergeOut);
+        System.out.println("--> " + MERGE_BATCH_PARAM + ":   " + mergeBatch);
+        System.out.println("--> " + DIST_CHECK_PARAM + ":    " + distCheck + (distCheck.equalsIgnoreCase(DIST_CHECK_LSH) ? " [" + LSH_K_PARAM + "=" + k + ", " + LSH_R_PARAM + "=" + r + ", " + LSH_B_PARAM + "=" + b + "]" : " [" + LSH_K_PARAM + "=" + k + "]"));
+        System.out.println("--> " + MIN_DIST_PARAM + ":      " + minDist);
+        System.out.println("--> " + RC_CHECK_PARAM + ":      " + rcCheck + (rcCheck ? " [" + MIN_RC_DIST_PARAM + "=" + minRcDist + "]" : ""));
+        System.out.println("--> " + NUM_THREADS_PARAM + ":       " + threads);
+        System.out.println("---------------------------");
+
+        DistanceChecker checker = distCheck.equalsIgnoreCase(DIST_CHECK_LSH)
+                ? new ProbesGeneratorLSH(null, new LSH(k, r, b), minDist, 1, rcCheck ? minRcDist : 0.0f)
+                : new ProbesGeneratorNaive(null, k, minDist, rcCheck ? minRcDist : 0.0f);
+        WriteableFASTAFile out = new WriteableFASTAFile(mergeOut, false);
+        BufferedCsvWriter report = new BufferedCsvWriter(MERGE_REPORT_PATH, false);
+        report.appendNewLine("File", "Index", "Caption", "Status", "Merged Caption");
+        AtomicInteger merged = new AtomicInteger();
+        long t = System.currentTimeMillis();
+        List<ProbesMerger.FileStats> stats = new ProbesMerger(checker, threads, mergeBatch).merge(
+                mergePaths,
+                p -> {
+                    int caption = merged.incrementAndGet();
+                    out.append(p.getEntry().getSeq(), caption);
+                    report.appendNewLine(mergePaths.get(p.getFile()), String.valueOf(p.getIndex()), p.getEntry().getCaption(), "accepted", String.valueOf(caption));
+                },
+                p -> report.appendNewLine(mergePaths.get(p.getFile()), String.valueOf(p.getIndex()), p.getEntry().getCaption(), "rejected", "")
+        );
+        out.close();
+        report.close();
+
+        int accepted = 0;
+        for (ProbesMerger.FileStats s : stats) {
+            System.out.println("-> " + s.getPath() + ": read " + s.getRead() + ", accepted " + s.getAccepted() + ", rejected " + s.getRejected());
+            accepted += s.getAccepted();
+        }
+        System.out.println("-> Merged " + accepted + " probes in " + (System.currentTimeMillis() - t) / 1000.0d + " s into " + mergeOut + ". The origin of each probe was written to " + MERGE_REPORT_PATH);
+    }
+
+    private static boolean isExactJoin() {
+        if (!validateMethod.equals(VALIDATE_METHOD_EXACT) && !validateMethod.equals(VALIDATE_METHOD_LSH) && !validateMethod.equals(VALIDATE_METHOD_AUTO))
+            throw new RuntimeException("unknown " + VALIDATE_METHOD_PARAM + ": " + validateMethod);
+        return validateMethod.equals(VALIDATE_METHOD_EXACT) || (validateMethod.equals(VALIDATE_METHOD_AUTO) && k <= SimilarityJoin.BITSET_MAX_K);
+    }
+
+    private static void printJoinParams(String title, String pathParam, String path) {
+        System.out.println("++++++++++++++++++++++++++++++++");
+        System.out.println(title);
+        System.out.println("++++++++++++++++++++++++++++++++");
+        System.out.println("--> " + pathParam + ":   " + path);
+        System.out.println("--> " + VALIDATE_METHOD_PARAM + ": " + validateMethod + (isExactJoin() ? " [exact]" : " [lsh: " + LSH_R_PARAM + "=" + r + ", " + LSH_B_PARAM + "=" + b + "]"));
+        System.out.println("--> " + LSH_K_PARAM + ":         " + k);
+        System.out.println("--> " + MIN_DIST_PARAM + ":      " + minDist);
+        System.out.println("--> " + NUM_THREADS_PARAM + ":       " + threads);
+        System.out.println("---------------------------");
+    }
+
+    private static List<ReadableFASTAFile.Entry> loadProbes(String path) {
+        System.out.println("-> Loading probes...");
+        List<ReadableFASTAFile.Entry> entries = new ReadableFASTAFile(path).readRemaining();
+        System.out.println("-> Loaded " + entries.size() + " probes");
+        return entries;
+    }
+
+    private static SimilarityJoin.Result join(List<ReadableFASTAFile.Entry> entries, SimilarityJoin.PairConsumer violations) {
+        SimilarityJoin join = new SimilarityJoin(entries.stream().map(ReadableFASTAFile.Entry::getSeq).toList(), k, threads);
+        return isExactJoin() ? join.exact(minDist, violations) : join.lsh(new LSH(k, r, b), minDist, violations);
     }
 
     private static SeqGenerator createProbesGenerator() {
-        DNARulesCollection rules = new BasicDNARules(useDg);
+        rules = new BasicDNARules(useDg, SecondaryStructureRule.DEFAULT_TEMP, useDg ? createDGCalculator() : null, dgPrefilter, dgPrefilterDg);
+        if (tmMin != DEFAULT_TM_MIN || tmMax != DEFAULT_TM_MAX)
+            rules.addOrReplaceRule("Tm Error", new MeltingTemperatureRule(tmMin, tmMax));
+        if (refFasta != null || refFilterPath != null) {
+            System.out.println("-> Loading the k-mer filter of the reference...");
+            refFilter = KmerBloomFilter.loadOrBuild(refFasta, refFilterPath, refK, Runtime.getRuntime().availableProcessors());
+            System.out.println("-> k-mer filter: " + refFilter.getPath() + " (" + refFilter.sizeInBytes() + " bytes)");
+            rules.addOrReplaceRule("Off-target Error", new OffTargetRule(refFilter, refMaxHits));
+        }
         LSH lsh = new LSH(k, r, b);
-        SeqGenerator gen;
+        StagedSeqGenerator gen;
         if (genType.equals(GEN_TYPE_PROB))
             gen = new SeqGeneratorWithRulesProb(len, targetGc, maxErr, rules);
         else
             gen = new SeqGeneratorWithRulesSafe(len, targetGc, maxGcDev, maxErr, rules);
+        stagedGenerator = gen;
 
-        if (distCheck.equals(DIST_CHECK_LSH))
-            return new ProbesGeneratorLSH(gen, lsh, minDist);
-        else
-            return new ProbesGeneratorNaive(gen, k, minDist);
+        if (distCheck.equalsIgnoreCase(DIST_CHECK_LSH)) {
+            NearMissRecycler recycler = recycleAttempts > 0 ? new NearMissRecycler(gen, k, recycleAttempts, recycleMaxMutations) : null;
+            ProbesGeneratorLSH probesGen = new ProbesGeneratorLSH(gen, lsh, minDist, useDg ? dgInFlight : 1, rcCheck ? minRcDist : 0.0f, recycler);
+            distanceStats = probesGen.getStats();
+            distanceChecker = probesGen;
+            return probesGen;
+        }
+        ProbesGeneratorNaive probesGen = new ProbesGeneratorNaive(gen, k, minDist, rcCheck ? minRcDist : 0.0f);
+        distanceStats = probesGen.getStats();
+        distanceChecker = probesGen;
+        return probesGen;
+    }
+
+    private static void createCoordinator() {
+        ShardedLSHIndex index = new ShardedLSHIndex(new LSH(k, r, b), coordShards, threads, minDist, rcCheck ? minRcDist : 0.0f);
+        distanceStats = index.getStats();
+        distanceChecker = index;
+        coordinator = new ProbesCoordinator(index, coordPort, ProbesProducerPackage::consume);
+    }
+
+    private static DGCalculator createDGCalculator() {
+        DGCalculator calculator = DGClient.getInstance(dgSocketDir);
+        if (dgCacheSize <= 0)
+            return calculator;
+
+        dgCache = new DGCache(calculator, dgCacheSize, dgCachePath);
+        return dgCache;
     }
 
     private static ExecutorService createPool() {
-        if (distCheck.equals(DIST_CHECK_LSH))
+        if (distCheck.equalsIgnoreCase(DIST_CHECK_LSH))
             return Executors.newWorkStealingPool(threads);
 
         return Executors.newFixedThreadPool(threads);
     }
 
-    private synchronized static void writeToFASTA(BaseSequence seq) {
-        fileFASTA.append(seq, seqCaption++);
+    private static void writeToFASTA(BaseSequence seq) {
+        fileFASTA.append(seq);
+    }
+
+    private static AsyncFASTAWriter.SyncPolicy syncPolicy() {
+        return switch (saveFsync) {
+            case SAVE_FSYNC_NONE  -> AsyncFASTAWriter.SyncPolicy.NONE;
+            case SAVE_FSYNC_FLUSH -> AsyncFASTAWriter.SyncPolicy.ON_FLUSH;
+            case SAVE_FSYNC_CLOSE -> AsyncFASTAWriter.SyncPolicy.ON_CLOSE;
+            default -> throw new RuntimeException("unknown " + SAVE_FSYNC_PARAM + ": " + saveFsync);
+        };
     }
 
+    /**
+     * Writes a report row once currentCount reaches count or passes a multiple of counterStep since the last row, i.e., also if the numbers are not consecutive, e.g., the numbers of the coordinator in a worker.
+     */
     private synchronized static void report(int currentCount) {
-        if (currentCount == count || currentCount % counterStep == 0) {
-            int prevCycleCount = lastCycleCount;
-            lastCycleCount = currentCount;
-            float currentProgress = 100.0f * (float) currentCount / count;
-            long currentTime = System.currentTimeMillis();
-            long currentCycleTimeMs = currentTime - lastTime;
-            lastTime = currentTime;
-            float currentCycleTimeSec = currentCycleTimeMs / 1000.0f;
-            float totalTimeSec = (currentTime - startTime) / 1000.0f;
-            int probesFound = currentCount - prevCycleCount;
-            float probesPerSec = Math.abs((float) probesFound / currentCycleTimeSec);
-            float msPerProbe = Math.abs((float) currentCycleTimeMs / probesFound);
-            csv.appendNewLine(
-                    String.valueOf(currentProgress),
-                    String.valueOf(currentCycleTimeSec),
-                    String.valueOf(totalTimeSec),
+        if (currentCount >= count && lastCycleCount < count || currentCount / counterStep > lastCycleCount / counterStep)
+            writeReport(currentCount);
+    }
+
+    /**
+     * Writes a report row for currentCount, unless a row for it or a later count was already written.
+     */
+    private synchronized static void reportFinal(int currentCount) {
+        if (currentCount > lastCycleCount)
+            writeReport(currentCount);
+    }
+
+    private static void writeReport(int currentCount) {
+        int prevCycleCount = lastCycleCount;
+        lastCycleCount = currentCount;
+        float currentProgress = 100.0f * (float) currentCount / count;
+        long currentTime = System.currentTimeMillis();
+        long currentCycleTimeMs = currentTime - lastTime;
+        lastTime = currentTime;
+        float currentCycleTimeSec = currentCycleTimeMs / 1000.0f;
+        float totalTimeSec = (currentTime - startTime) / 1000.0f;
+        int probesFound = currentCount - prevCycleCount;
+        float probesPerSec = Math.abs((float) probesFound / currentCycleTimeSec);
+        float msPerProbe = Math.abs((float) currentCycleTimeMs / probesFound);
+        // the distance checks and the JVM's memory and GC usage of this cycle
+        long queries = distanceStats.getQueries();
+        long accepted = distanceStats.getAccepted();
+        long candidates = distanceStats.getCandidates();
+        long cycleQueries = queries - lastQueries;
+        double cycleAcceptanceRate = cycleQueries > 0L ? (double) (accepted - lastAccepted) / cycleQueries : 0.0d;
+        double cycleCandidatesPerQuery = cycleQueries > 0L ? (double) (candidates - lastCandidates) / cycleQueries : 0.0d;
+        lastQueries = queries;
+        lastAccepted = accepted;
+        lastCandidates = candidates;
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long gcCount = 0L;
+        long gcTimeMs = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0L, gc.getCollectionCount());
+            gcTimeMs += Math.max(0L, gc.getCollectionTime());
+        }
+        csv.appendNewLine(
+                String.valueOf(currentProgress),
+                String.valueOf(currentCycleTimeSec),
+                String.valueOf(totalTimeSec),
+                String.valueOf(currentCount),
+                String.valueOf(probesPerSec),
+                String.valueOf(msPerProbe),
+                String.valueOf(len),
+                distCheck,
+                String.valueOf(threads),
+                String.valueOf(cycleAcceptanceRate),
+                String.valueOf(cycleCandidatesPerQuery),
+                String.valueOf(heap.getUsed() / MB),
+                String.valueOf(heap.getCommitted() / MB),
+                String.valueOf(gcCount),
+                String.valueOf(gcTimeMs),
+                String.valueOf(saturation.getQ()),
+                String.valueOf(saturation.predictAttempts(count))
+        );
+        reportStats(currentCount);
+        if (printCounter)
+            System.out.println("#" + currentCount + " / " + count + " (" + currentProgress + "%)" + " cycle time: " + currentCycleTimeSec + " seconds - total: " + totalTimeSec + " seconds");
+    }
+
+    private static void reportStats(int currentCount) {
+        for (RuleStats rs : rules != null ? rules.getStats() : List.<RuleStats>of()) {
+            LatencyHistogram latency = rs.getLatency();
+            statsCsv.appendNewLine(
                     String.valueOf(currentCount),
-                    String.valueOf(probesPerSec),
-                    String.valueOf(msPerProbe),
-                    String.valueOf(len),
-                    distCheck
-            );
-            if (printCounter)
-                System.out.println("#" + currentCount + " / " + count + " (" + currentProgress + "%)" + " cycle time: " + currentCycleTimeSec + " seconds - total: " + totalTimeSec + " seconds");
+                    STAGE_RULE,
+                    rs.getName(),
+                    rs.getCostClass().name(),
+                    String.valueOf(rs.getEvaluations()),
+                    String.valueOf(rs.getRejections()),
+                    String.valueOf(rs.getRejectionRate()),
+                    String.valueOf(rs.getAverageError()),
+                    String.valueOf(latency.mean() / 1000.0d),
+                    String.valueOf(latency.percentile(0.5d) / 1000.0d),
+                    String.valueOf(latency.percentile(0.99d) / 1000.0d),
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "");
         }
+        LatencyHistogram latency = distanceStats.getLatency();
+        statsCsv.appendNewLine(
+                String.valueOf(currentCount),
+                STAGE_DIST_CHECK,
+                distCheck,
+                "",
+                String.valueOf(distanceStats.getQueries()),
+                String.valueOf(distanceStats.getRejected()),
+                String.valueOf(1.0d - distanceStats.getAcceptanceRate()),
+                "",
+                String.valueOf(latency.mean() / 1000.0d),
+                String.valueOf(latency.percentile(0.5d) / 1000.0d),
+                String.valueOf(latency.percentile(0.99d) / 1000.0d),
+                String.valueOf(distanceStats.getCandidatesPerQuery()),
+                String.valueOf(distanceStats.getVerificationsPerQuery()),
+                "",
+                "",
+                "",
+                "");
+        if (distanceStats.getNearMisses() > 0L) {
+            statsCsv.appendNewLine(
+                    String.valueOf(currentCount),
+                    STAGE_RECYCLE,
+                    "near misses",
+                    "",
+                    String.valueOf(distanceStats.getNearMisses()),
+                    String.valueOf(distanceStats.getNearMisses() - distanceStats.getRecycled()),
+                    String.valueOf(1.0d - distanceStats.getRecycleSuccessRate()),
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "");
+        }
+        if (dgCache != null) {
+            statsCsv.appendNewLine(
+                    String.valueOf(currentCount),
+                    STAGE_DG_CACHE,
+                    dgCache.getStorePath() != null ? dgCache.getStorePath() : "memory",
+                    "",
+                    String.valueOf(dgCache.getHits() + dgCache.getMisses()),
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    "",
+                    String.valueOf(dgCache.getPendingWrites()),
+                    String.valueOf(dgCache.getHits()),
+                    String.valueOf(dgCache.getMisses()),
+                    String.valueOf(dgCache.getHitRate()));
+        }
+        if (pipeline != null) {
+            Map<String, Integer> depths = pipeline.getQueueDepths();
+            for (ProbesPipeline.StageStats ss : pipeline.getStats()) {
+                long processed = ss.getProcessed();
+                statsCsv.appendNewLine(
+                        String.valueOf(currentCount),
+                        STAGE_PIPELINE,
+                        ss.getName(),
+                        "",
+                        String.valueOf(processed),
+                        String.valueOf(ss.getRejected()),
+                        String.valueOf(processed > 0L ? (double) ss.getRejected() / processed : 0.0d),
+                        "",
+                        "",
+                        "",
+                        "",
+                        "",
+                        "",
+                        String.valueOf(depths.get(ss.getName())),
+                        "",
+                        "",
+                        "");
+            }
+        }
+        statsCsv.flush();
     }
 
     private static void printParams() {
@@ -263,19 +1060,54 @@ public class ProbesProducerPackage {
         System.out.println("--> " + GC_PARAM + ":            " + targetGc);
         System.out.println("--> " + MAX_GC_DEV_PARAM + ":          " + maxGcDev);
         System.out.println("--> " + MAX_ERR_PARAM + ":       " + maxErr);
-        System.out.println("--> " + NUM_THREADS_PARAM + ":       " + threads + (!distCheck.equals(DIST_CHECK_LSH)? " [fixed pool]" : " [work-stealing pool]"));
+        System.out.println("--> " + TM_MIN_PARAM + ":        " + tmMin);
+        System.out.println("--> " + TM_MAX_PARAM + ":        " + tmMax);
+        System.out.println("--> " + REF_FASTA_PARAM + ":     " + refFasta);
+        System.out.println("--> " + REF_K_PARAM + ":         " + refK);
+        System.out.println("--> " + REF_MAX_HITS_PARAM + ":  " + refMaxHits);
+        System.out.println("--> " + REF_FILTER_PATH_PARAM + ": " + refFilterPath);
+        System.out.println("--> " + NUM_THREADS_PARAM + ":       " + threads + (!distCheck.equalsIgnoreCase(DIST_CHECK_LSH)? " [fixed pool]" : " [work-stealing pool]"));
         System.out.println("--> " + GEN_TYPE_PARAM + ":      " + genType);
+        System.out.println("--> " + EXEC_MODE_PARAM + ":     " + execMode + (execMode.equals(EXEC_MODE_WORKERS) ? " [" + WORKER_BATCH_PARAM + "=" + workerBatch + ", " + ACCEPT_BATCH_PARAM + "=" + acceptBatch + "]" : ""));
+        if (execMode.equals(EXEC_MODE_PIPELINE)) {
+            System.out.println("--> " + PIPELINE_GEN_THREADS_PARAM + ":   " + pipelineGenThreads);
+            System.out.println("--> " + PIPELINE_LOCAL_THREADS_PARAM + ": " + pipelineLocalThreads);
+            System.out.println("--> " + PIPELINE_DG_IN_FLIGHT_PARAM + ":  " + pipelineDgInFlight);
+            System.out.println("--> " + PIPELINE_QUEUE_PARAM + ":         " + pipelineQueue);
+        }
+        if (execMode.equals(EXEC_MODE_COORDINATOR)) {
+            System.out.println("--> " + COORD_PORT_PARAM + ":    " + coordPort);
+            System.out.println("--> " + COORD_SHARDS_PARAM + ":  " + coordShards);
+        }
+        if (execMode.equals(EXEC_MODE_WORKER)) {
+            System.out.println("--> " + COORD_HOST_PARAM + ":    " + coordHost);
+            System.out.println("--> " + COORD_PORT_PARAM + ":    " + coordPort);
+            System.out.println("--> " + COORD_BATCH_PARAM + ":   " + coordBatch);
+        }
         System.out.println("--> " + DIST_CHECK_PARAM + ":    " + distCheck);
+        System.out.println("--> " + SEED_PARAM + ":          " + (seed != null ? seed : "random"));
         System.out.println("--> " + USE_DG_PARAM + ": " + useDg);
+        System.out.println("--> " + DG_PREFILTER_PARAM + ":  " + dgPrefilter + (dgPrefilter ? " [" + DG_PREFILTER_DG_PARAM + "=" + dgPrefilterDg + "]" : ""));
+        System.out.println("--> " + DG_IN_FLIGHT_PARAM + ":  " + dgInFlight);
+        System.out.println("--> " + DG_CACHE_SIZE_PARAM + ": " + dgCacheSize);
+        System.out.println("--> " + DG_CACHE_PATH_PARAM + ": " + dgCachePath);
+        System.out.println("--> " + DG_SOCKET_DIR_PARAM + ": " + dgSocketDir);
         System.out.println("---------------------------");
         System.out.println("--> " + LSH_K_PARAM + ":         " + k);
         System.out.println("--> " + LSH_R_PARAM + ":         " + r);
         System.out.println("--> " + LSH_B_PARAM + ":         " + b);
         System.out.println("--> " + MIN_DIST_PARAM + ":      " + minDist);
+        System.out.println("--> " + RC_CHECK_PARAM + ":      " + rcCheck);
+        System.out.println("--> " + MIN_RC_DIST_PARAM + ":   " + minRcDist);
+        System.out.println("--> " + MAX_TIME_PARAM + ":    " + (maxTimeS > 0L ? maxTimeS : "unlimited"));
+        System.out.println("--> " + MAX_ATTEMPTS_PARAM + ":  " + (maxAttempts > 0L ? maxAttempts : "unlimited"));
+        System.out.println("--> " + RECYCLE_ATTEMPTS_PARAM + ": " + recycleAttempts + (recycleAttempts > 0 ? " [" + RECYCLE_MAX_MUTATIONS_PARAM + "=" + recycleMaxMutations + "]" : ""));
         System.out.println("---------------------------");
         System.out.println("--> " + SAVE_PARAM + ":          " + save);
         System.out.println("--> " + SAVE_APPEND_PARAM + ":   " + saveAppend + ((save && !saveAppend && Files.exists(Paths.get(savePath)))? " [we found a file that will be overridden]" : ""));
         System.out.println("--> " + SAVE_PATH_PARAM + ":     " + savePath);
+        System.out.println("--> " + SAVE_FLUSH_MS_PARAM + ": " + saveFlushMs);
+        System.out.println("--> " + SAVE_FSYNC_PARAM + ":    " + saveFsync);
         System.out.println("---------------------------");
         System.out.println("--> " + PRINT_COUNTER_PARAM + ": " + printCounter);
         System.out.println("--> " + PRINT_COUNTER_STEP_PARAM + ":  " + counterStep);
@@ -2,6 +2,7 @@ package rules;
 
 import core.Base;
 import core.BaseSequence;
+import utils.DGCalculator;
 import java.util.function.Function;
 
 public class BasicDNARules extends DNARulesCollection {
@@ -36,6 +37,39 @@ public class BasicDNARules extends DNARulesCollection {
      * @param temp the temperature for the dg server.
      */
     public BasicDNARules(boolean withDG, float temp) {
+        this(withDG, temp, null);
+    }
+
+    /**
+     * Creates an instance with the basic DNA rules
+     * @param withDG true to check for secondary structures.
+     * @param temp the temperature for the dg computation.
+     * @param dgCalculator the DGCalculator used for the dg computation, or null to use the dg server.
+     */
+    public BasicDNARules(boolean withDG, float temp, DGCalculator dgCalculator) {
+        this(withDG, temp, dgCalculator, false);
+    }
+
+    /**
+     * Creates an instance with the basic DNA rules
+     * @param withDG true to check for secondary structures.
+     * @param temp the temperature for the dg computation.
+     * @param dgCalculator the DGCalculator used for the dg computation, or null to use the dg server.
+     * @param dgPrefilter true to reject sequences with clearly stable hairpins by the HairpinScreenRule before the dg computation.
+     */
+    public BasicDNARules(boolean withDG, float temp, DGCalculator dgCalculator, boolean dgPrefilter) {
+        this(withDG, temp, dgCalculator, dgPrefilter, HairpinScreenRule.DEFAULT_REJECT_DG);
+    }
+
+    /**
+     * Creates an instance with the basic DNA rules
+     * @param withDG true to check for secondary structures.
+     * @param temp the temperature for the dg computation.
+     * @param dgCalculator the DGCalculator used for the dg computation, or null to use the dg server.
+     * @param dgPrefilter true to reject sequences with clearly stable hairpins by the HairpinScreenRule before the dg computation.
+     * @param prefilterRejectDg the estimated dg energy at or below which the HairpinScreenRule rejects a sequence, e.g., as calibrated by HairpinScreenCheck.
+     */
+    public BasicDNARules(boolean withDG, float temp, DGCalculator dgCalculator, boolean dgPrefilter, float prefilterRejectDg) {
         super();
         addOrReplaceRule("GC Error", this::gcError);
         addOrReplaceRule("HP Error", this::hpError);
@@ -44,8 +78,10 @@ public class BasicDNARules extends DNARulesCollection {
         addOrReplaceRule("Microsatellites Run 3 Error", this::microSatellitesRun3Error);
         addOrReplaceRule("Repeatable Region Error(unstrict)", seq -> this.repeatableRegionError(seq, REPEATABLE_SEQ_NOT_STRICT_SIZE, false));
         addOrReplaceRule("Repeatable Region Error (strict)", seq -> this.repeatableRegionError(seq, REPEATABLE_SEQ_STRICT_SIZE, true));
+        if (withDG && dgPrefilter)
+            addOrReplaceRule("dg_prefilter", new HairpinScreenRule(temp, prefilterRejectDg));
         if (withDG)
-            addOrReplaceRule("dg_rule", new SecondaryStructureRule(temp));
+            addOrReplaceRule("dg_rule", dgCalculator != null ? new SecondaryStructureRule(temp, dgCalculator) : new SecondaryStructureRule(temp));
     }
 
     public float gcError(BaseSequence seq) {
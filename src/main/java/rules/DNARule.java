@@ -1,15 +1,42 @@
 package rules;
 
 import core.BaseSequence;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The interface for DNA rules. The function evalErrorProbability has to be implemented in the subclasses.
  */
 public interface DNARule {
 
+    /**
+     * The cost class of a DNARule. Rules of a cheaper class are always evaluated before rules of a more expensive class.
+     */
+    enum CostClass {
+        CHEAP,
+        MODERATE,
+        EXPENSIVE,
+        REMOTE
+    }
+
     /**
      * @param seq the BaseSequence.
      * @return the error calculated for the given DNA sequence.
      */
     float evalErrorProbability(BaseSequence seq);
+
+    /**
+     * Evaluates the error asynchronously. Rules that wait for I/O, e.g., the dg server, should override this method. The default implementation evaluates the error on the calling thread.
+     * @param seq the BaseSequence.
+     * @return a future of the error calculated for the given DNA sequence.
+     */
+    default CompletableFuture<Float> evalErrorProbabilityAsync(BaseSequence seq) {
+        return CompletableFuture.completedFuture(evalErrorProbability(seq));
+    }
+
+    /**
+     * @return the cost class of this rule. Rules that require I/O, e.g., network calls, should return CostClass.REMOTE.
+     */
+    default CostClass costClass() {
+        return CostClass.CHEAP;
+    }
 }
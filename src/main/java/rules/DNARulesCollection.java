@@ -2,24 +2,156 @@ package rules;
 
 import core.BaseSequence;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 public class DNARulesCollection implements DNARule {
 
     private static final String NO_NAME_RULE_PREFIX = "NO_NAME_RULE_";
+    public static final int DEFAULT_REORDER_INTERVAL = 1 << 12;
+    private static final double MIN_SELECTIVITY = 1e-6d;
 
     private int noNameRuleCounter;
     protected Map<String, DNARule> rules;
+    private final Map<String, RuleEntry> entries;
+    private volatile RuleEntry[] ordered;
+
+    private final AtomicBoolean reordering;
+    private final int reorderInterval;
+    // racy on purpose: lost increments only delay the next reordering
+    private int evalsSinceReorder;
 
     /**
      * Creates a collection of DNARule that can be added, replaced, and removed.
      */
     public DNARulesCollection() {
-        this.rules = new HashMap<>();
+        this(DEFAULT_REORDER_INTERVAL);
+    }
+
+    /**
+     * Creates a collection of DNARule that can be added, replaced, and removed. The rules are reordered periodically so that cheap rules that reject many sequences are evaluated first.
+     * @param reorderInterval the number of calls to evalErrorByLimit after which the rules are reordered. Set to 0 or less to keep the rules sorted by their cost class only.
+     */
+    public DNARulesCollection(int reorderInterval) {
+        this.rules = new LinkedHashMap<>();
+        this.entries = new LinkedHashMap<>();
+        this.ordered = new RuleEntry[0];
         this.noNameRuleCounter = 0;
+        this.reordering = new AtomicBoolean(false);
+        this.reorderInterval = reorderInterval > 0 ? reorderInterval : Integer.MAX_VALUE;
+        this.evalsSinceReorder = 0;
     }
 
+    /**
+     * Sums the errors of the rules in their current order and stops as soon as maxError is exceeded.
+     * @param seq the BaseSequence.
+     * @param maxError the maximum error.
+     * @return the summed error, which is greater than maxError if the sequence was rejected.
+     */
     public float evalErrorByLimit(BaseSequence seq, float maxError) {
-        return evalErrorByLimitByRules(seq, maxError, rules.values());
+        float sumError = 0.0f;
+        for (RuleEntry e : ordered) {
+            sumError += e.eval(seq);
+            if (sumError > maxError) {
+                e.stats.recordRejection();
+                break;
+            }
+        }
+        if (++evalsSinceReorder >= reorderInterval)
+            reorder();
+
+        return sumError;
+    }
+
+    /**
+     * Like evalErrorByLimit, but rules of CostClass.REMOTE are evaluated asynchronously. All other rules are evaluated on the calling thread before this method returns.
+     * @param seq the BaseSequence.
+     * @param maxError the maximum error.
+     * @return a future of the summed error, which is greater than maxError if the sequence was rejected. The future is already completed if the sequence was rejected by a local rule.
+     */
+    public CompletableFuture<Float> evalErrorByLimitAsync(BaseSequence seq, float maxError) {
+        return evalErrorByLimitAsync(seq, maxError, null);
+    }
+
+    /**
+     * Like evalErrorByLimit, but rules of CostClass.REMOTE are evaluated asynchronously. All other rules are evaluated on the calling thread before this method returns.
+     * @param seq the BaseSequence.
+     * @param maxError the maximum error.
+     * @param gate an optional check, e.g., a distance pre-check, that is evaluated after the local rules passed and before any remote rule is started. If it fails, the returned error is Float.POSITIVE_INFINITY.
+     * @return a future of the summed error, which is greater than maxError if the sequence was rejected. The future is already completed if the sequence was rejected by a local rule or by the gate.
+     */
+    public CompletableFuture<Float> evalErrorByLimitAsync(BaseSequence seq, float maxError, Predicate<BaseSequence> gate) {
+        RuleEntry[] es = ordered;
+        float sumError = 0.0f;
+        int i = 0;
+        for (; i < es.length && es[i].costClass != CostClass.REMOTE; i++) {
+            sumError += es[i].eval(seq);
+            if (sumError > maxError) {
+                es[i].stats.recordRejection();
+                return completedEval(sumError);
+            }
+        }
+        if (gate != null && !gate.test(seq))
+            return completedEval(Float.POSITIVE_INFINITY);
+
+        CompletableFuture<Float> future = evalRemoteAsync(es, i, seq, sumError, maxError);
+        if (++evalsSinceReorder >= reorderInterval)
+            reorder();
+
+        return future;
+    }
+
+    /**
+     * Like evalErrorByLimit, but only evaluates the rules that are not of CostClass.REMOTE. Together with evalRemoteErrorByLimitAsync, the local and the remote rules can be evaluated by different threads, e.g., by the stages of a pipeline.
+     * @param seq the BaseSequence.
+     * @param maxError the maximum error.
+     * @return the summed error of the local rules, which is greater than maxError if the sequence was rejected.
+     */
+    public float evalLocalErrorByLimit(BaseSequence seq, float maxError) {
+        float sumError = 0.0f;
+        for (RuleEntry e : ordered) {
+            if (e.costClass == CostClass.REMOTE)
+                break;
+            sumError += e.eval(seq);
+            if (sumError > maxError) {
+                e.stats.recordRejection();
+                break;
+            }
+        }
+        if (++evalsSinceReorder >= reorderInterval)
+            reorder();
+
+        return sumError;
+    }
+
+    /**
+     * Evaluates the rules of CostClass.REMOTE asynchronously for a sequence that passed evalLocalErrorByLimit.
+     * @param seq the BaseSequence.
+     * @param localError the summed error of the local rules.
+     * @param maxError the maximum error.
+     * @return a future of the summed error of all rules, which is greater than maxError if the sequence was rejected.
+     */
+    public CompletableFuture<Float> evalRemoteErrorByLimitAsync(BaseSequence seq, float localError, float maxError) {
+        RuleEntry[] es = ordered;
+        int i = 0;
+        while (i < es.length && es[i].costClass != CostClass.REMOTE)
+            i++;
+        return evalRemoteAsync(es, i, seq, localError, maxError);
+    }
+
+    private static CompletableFuture<Float> evalRemoteAsync(RuleEntry[] es, int from, BaseSequence seq, float sumError, float maxError) {
+        CompletableFuture<Float> future = CompletableFuture.completedFuture(sumError);
+        for (int i = from; i < es.length; i++) {
+            RuleEntry e = es[i];
+            future = future.thenCompose(sum -> sum > maxError ? CompletableFuture.completedFuture(sum) : e.evalAsync(seq).thenApply(error -> {
+                float newSum = sum + error;
+                if (newSum > maxError)
+                    e.stats.recordRejection();
+                return newSum;
+            }));
+        }
+        return future;
     }
 
     public static float evalErrorByLimitByRules(BaseSequence seq, float maxError, Collection<DNARule> rs) {
@@ -37,20 +169,79 @@ public class DNARulesCollection implements DNARule {
     }
 
     public void addOrReplaceRule(String ruleName, DNARule rule) {
+        addOrReplaceRule(ruleName, rule, rule.costClass());
+    }
+
+    /**
+     * Adds or replaces a rule with an explicit cost class, e.g., for rules given as lambdas.
+     * @param ruleName the rule's name.
+     * @param rule the rule.
+     * @param costClass the cost class of the rule.
+     */
+    public synchronized void addOrReplaceRule(String ruleName, DNARule rule, CostClass costClass) {
         this.rules.put(ruleName, rule);
+        this.entries.put(ruleName, new RuleEntry(ruleName, rule, costClass));
+        this.ordered = sortedEntries();
     }
 
-    public DNARule removeRule(String ruleName) {
-        return this.rules.remove(ruleName);
+    public synchronized DNARule removeRule(String ruleName) {
+        DNARule removed = this.rules.remove(ruleName);
+        this.entries.remove(ruleName);
+        this.ordered = sortedEntries();
+        return removed;
     }
 
     public Map<String, DNARule> getRules() {
         return Collections.unmodifiableMap(rules);
     }
 
+    /**
+     * @return the names of the rules in the order they are currently evaluated.
+     */
+    public List<String> getRuleOrder() {
+        return Arrays.stream(ordered).map(e -> e.name).toList();
+    }
+
+    /**
+     * @return the statistics of each rule in the order the rules are currently evaluated.
+     */
+    public List<RuleStats> getStats() {
+        return Arrays.stream(ordered).map(e -> e.stats).toList();
+    }
+
+    /**
+     * Reorders the rules by their cost class first, and then by their average cost per selectivity, i.e., cheap rules that reject often come first.
+     */
+    public void reorder() {
+        if (!reordering.compareAndSet(false, true))
+            return;
+        try {
+            evalsSinceReorder = 0;
+            synchronized (this) {
+                this.ordered = sortedEntries();
+            }
+        }
+        finally {
+            reordering.set(false);
+        }
+    }
+
+    /**
+     * @return the highest cost class of the rules in this collection.
+     */
+    @Override
+    public CostClass costClass() {
+        RuleEntry[] es = ordered;
+        return es.length > 0 ? es[es.length - 1].costClass : CostClass.CHEAP;
+    }
+
     @Override
     public float evalErrorProbability(BaseSequence seq) {
-        return evalErrorProbabilityByRules(seq, rules.values());
+        float totalError = 0.0f;
+        for (RuleEntry e : ordered)
+            totalError += e.eval(seq);
+
+        return totalError;
     }
 
 
@@ -61,4 +252,49 @@ public class DNARulesCollection implements DNARule {
 
         return totalError;
     }
+
+    private CompletableFuture<Float> completedEval(float sumError) {
+        if (++evalsSinceReorder >= reorderInterval)
+            reorder();
+        return CompletableFuture.completedFuture(sumError);
+    }
+
+    private RuleEntry[] sortedEntries() {
+        RuleEntry[] es = entries.values().toArray(RuleEntry[]::new);
+        Map<RuleEntry, Double> scoreOf = new HashMap<>(es.length);
+        for (RuleEntry e : es)
+            scoreOf.put(e, e.stats.score(MIN_SELECTIVITY));
+        // stable sort: rules without statistics keep their insertion order
+        Arrays.sort(es, Comparator.comparing((RuleEntry e) -> e.costClass).thenComparingDouble(scoreOf::get));
+        return es;
+    }
+
+    private static class RuleEntry {
+        private final String name;
+        private final DNARule rule;
+        private final CostClass costClass;
+        private final RuleStats stats;
+
+        RuleEntry(String name, DNARule rule, CostClass costClass) {
+            this.name = name;
+            this.rule = rule;
+            this.costClass = costClass;
+            this.stats = new RuleStats(name, costClass);
+        }
+
+        float eval(BaseSequence seq) {
+            long t = System.nanoTime();
+            float error = rule.evalErrorProbability(seq);
+            stats.recordEval(error, System.nanoTime() - t);
+            return error;
+        }
+
+        CompletableFuture<Float> evalAsync(BaseSequence seq) {
+            long t = System.nanoTime();
+            return rule.evalErrorProbabilityAsync(seq).thenApply(error -> {
+                stats.recordEval(error, System.nanoTime() - t);
+                return error;
+            });
+        }
+    }
 }
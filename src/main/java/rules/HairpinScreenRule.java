@@ -0,0 +1,171 @@
+package rules;
+
+import core.BaseSequence;
+
+/**
+ * A fast, local screen for hairpins that rejects sequences whose secondary structure is clearly too stable before the dg energy is computed, e.g., by the dg server.
+ * The screen finds self-complementary stems via a k-mer index of the sequence and estimates the dg energy of each stem from the nearest-neighbour stacks and a hairpin loop penalty.
+ * Like the dg server, the stacks are weighted by 0.5. Sequences that are not clearly bad are left to SecondaryStructureRule.
+ * Since the stacks in BaseSequence are more stable than those used by seqfold, the estimates are lower than the dg energies of the dg server, which is accounted for by DEFAULT_REJECT_DG.
+ * DEFAULT_REJECT_DG was only calibrated against NNFoldingEngine, where about 10% of the rejected sequences would have passed SecondaryStructureRule, i.e., the screen is disabled by default. The threshold for the dg server is calibrated against seqfold by HairpinScreenCheck, which finds the highest threshold without false rejections on the reference energies of dg/reference.py, minus a margin.
+ */
+public class HairpinScreenRule implements DNARule {
+    public static final float DEFAULT_REJECT_DG = -8.0f;
+    public static final int SEED_LEN = 4;
+    public static final int MIN_LOOP_LEN = 3;
+
+    private static final double STACK_WEIGHT = 0.5d;
+    private static final double R = 0.0019872d;
+    private static final double ZERO_CELSIUS_IN_KELVIN = 273.15d;
+    // hairpin loop initiation in kcal mol-1 for loops of length 3 to 9 at 37 °C (SantaLucia & Hicks, 2004)
+    private static final double[] HAIRPIN_LOOP_DG = {0.0d, 0.0d, 0.0d, 3.5d, 3.5d, 3.3d, 4.0d, 4.2d, 4.3d, 4.5d};
+
+    private final float temp;
+    private final float rejectDg;
+    private final double tempKelvin;
+    // per thread: the heads of the k-mer index, the links of the k-mer index, and the k-mers of the sequence
+    private final ThreadLocal<int[][]> index;
+
+    /**
+     * Creates an instance that rejects sequences with an estimated dg energy at most DEFAULT_REJECT_DG.
+     * @param temp the temperature in °C.
+     */
+    public HairpinScreenRule(float temp) {
+        this(temp, DEFAULT_REJECT_DG);
+    }
+
+    /**
+     * @param temp the temperature in °C.
+     * @param rejectDg sequences with a hairpin with an estimated dg energy at most rejectDg are rejected.
+     */
+    public HairpinScreenRule(float temp, float rejectDg) {
+        this.temp = temp;
+        this.rejectDg = rejectDg;
+        this.tempKelvin = temp + ZERO_CELSIUS_IN_KELVIN;
+        this.index = ThreadLocal.withInitial(() -> new int[][] {new int[1 << (SEED_LEN << 1)], new int[0], new int[0]});
+    }
+
+    /**
+     * @param seq the BaseSequence.
+     * @return 1.0 if seq contains a hairpin with an estimated dg energy at most rejectDg, and 0.0 otherwise.
+     */
+    @Override
+    public float evalErrorProbability(BaseSequence seq) {
+        return minHairpinDg(seq) <= rejectDg ? 1.0f : 0.0f;
+    }
+
+    @Override
+    public CostClass costClass() {
+        return CostClass.CHEAP;
+    }
+
+    /**
+     * @return the temperature in °C.
+     */
+    public float getTemp() {
+        return temp;
+    }
+
+    /**
+     * @return the estimated dg energy at or below which a sequence is rejected.
+     */
+    public float getRejectDg() {
+        return rejectDg;
+    }
+
+    /**
+     * Estimates the dg energy of the most stable hairpin of the given sequence.
+     * Each k-mer is looked up by the reverse complement in an index of the sequence's k-mers. Each hit is a seed that is extended to the maximal stem.
+     * @param seq the BaseSequence.
+     * @return the lowest estimated dg energy of all hairpins in seq, or 0 if seq has no hairpin with a stem of at least SEED_LEN bases.
+     */
+    public double minHairpinDg(BaseSequence seq) {
+        int[] c = seq.codes();
+        int n = c.length;
+        int kmers = n - SEED_LEN + 1;
+        if (kmers <= 0)
+            return 0.0d;
+
+        // head[kmer] is the last position + 1 of the kmer in seq, and next[pos] is the previous position + 1 of the same kmer
+        int[][] ws = index.get();
+        int[] head = ws[0];
+        if (ws[1].length < kmers) {
+            ws[1] = new int[Math.max(kmers, ws[1].length << 1)];
+            ws[2] = new int[ws[1].length];
+        }
+        int[] next = ws[1];
+        int[] fwd = ws[2];
+        int mask = (1 << (SEED_LEN << 1)) - 1;
+        int kmer = 0;
+        for (int i = 0; i < n; i++) {
+            kmer = ((kmer << 2) | c[i]) & mask;
+            if (i >= SEED_LEN - 1) {
+                int pos = i - SEED_LEN + 1;
+                fwd[pos] = kmer;
+                next[pos] = head[kmer];
+                head[kmer] = pos + 1;
+            }
+        }
+
+        double minDg = 0.0d;
+        for (int i = 0; i < kmers; i++) {
+            int rc = reverseComplement(fwd[i]);
+            for (int p = head[rc]; p > 0; p = next[p - 1]) {
+                int j = p - 1;
+                if (j < i + SEED_LEN + MIN_LOOP_LEN)
+                    continue;
+                // skip seeds that lie within a longer stem, which is found from its outermost seed
+                if (i > 0 && j + SEED_LEN < n && c[i - 1] == 3 - c[j + SEED_LEN])
+                    continue;
+
+                double dg = stemDg(c, i, j + SEED_LEN - 1);
+                if (dg < minDg)
+                    minDg = dg;
+            }
+        }
+
+        for (int i = 0; i < kmers; i++)
+            head[fwd[i]] = 0;
+
+        return minDg;
+    }
+
+    /**
+     * Extends the stem that pairs s with e inwards and computes its estimated dg energy.
+     */
+    private double stemDg(int[] c, int s, int e) {
+        int len = 1;
+        double stacks = 0.0d;
+        while (e - s - 1 - 2 >= MIN_LOOP_LEN && c[s + 1] == 3 - c[e - 1]) {
+            stacks += nnDg(c[s], c[s + 1]);
+            s++;
+            e--;
+            len++;
+        }
+        if (len < SEED_LEN)
+            return 0.0d;
+
+        return STACK_WEIGHT * stacks + loopDg(e - s - 1);
+    }
+
+    private double nnDg(int code5, int code3) {
+        return BaseSequence.nnDeltaH(code5, code3) - tempKelvin * BaseSequence.nnDeltaS(code5, code3);
+    }
+
+    private double loopDg(int loopLen) {
+        if (loopLen < HAIRPIN_LOOP_DG.length)
+            return HAIRPIN_LOOP_DG[loopLen];
+
+        int maxLen = HAIRPIN_LOOP_DG.length - 1;
+        return HAIRPIN_LOOP_DG[maxLen] + 2.44d * R * tempKelvin * Math.log((double) loopLen / maxLen);
+    }
+
+    private static int reverseComplement(int kmer) {
+        int rc = 0;
+        for (int i = 0; i < SEED_LEN; i++) {
+            rc = (rc << 2) | (3 - (kmer & 3));
+            kmer >>>= 2;
+        }
+        return rc;
+    }
+}
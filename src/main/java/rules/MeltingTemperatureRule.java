@@ -0,0 +1,57 @@
+package rules;
+
+import core.BaseSequence;
+import core.NNSums;
+
+/**
+ * Checks that the melting temperature of a DNA sequence lies within a window, e.g., to obtain uniform probes for multiplexed assays.
+ * The melting temperature is computed from the nearest-neighbour table in BaseSequence. If the BaseSequence carries NNSums, which are updated incrementally by the generator, these are used instead.
+ */
+public class MeltingTemperatureRule implements DNARule {
+    private final float tmMin;
+    private final float tmMax;
+
+    /**
+     * @param tmMin the minimum melting temperature in °C.
+     * @param tmMax the maximum melting temperature in °C.
+     */
+    public MeltingTemperatureRule(float tmMin, float tmMax) {
+        if (tmMin > tmMax)
+            throw new RuntimeException("tmMin must be <= tmMax");
+        this.tmMin = tmMin;
+        this.tmMax = tmMax;
+    }
+
+    @Override
+    public float evalErrorProbability(BaseSequence seq) {
+        NNSums sums = seq.getProperty(NNSums.PROPERTY_KEY);
+        double tm = sums != null ? sums.meltingTemperature() : seq.meltingTemperature();
+        double deviation = tm < tmMin ? tmMin - tm : tm - tmMax;
+        if (deviation <= 0.0d)
+            return 0.0f;
+
+        if (deviation <= 1.0d)
+            return 0.1f;
+
+        if (deviation <= 2.0d)
+            return 0.4f;
+
+        if (deviation <= 3.0d)
+            return 0.8f;
+
+        return 1.0f;
+    }
+
+    @Override
+    public CostClass costClass() {
+        return CostClass.CHEAP;
+    }
+
+    public float getTmMin() {
+        return tmMin;
+    }
+
+    public float getTmMax() {
+        return tmMax;
+    }
+}
@@ -0,0 +1,52 @@
+package rules;
+
+import core.BaseSequence;
+import utils.KmerBloomFilter;
+
+/**
+ * Rejects DNA sequences that share too many k-mers with a reference, e.g., the host genome, so that off-target matches are screened at generation time.
+ * The k-mers of the reference are looked up in a KmerBloomFilter. Since both strands of the reference are covered, a sequence is also rejected if its reverse complement matches the reference.
+ */
+public class OffTargetRule implements DNARule {
+    public static final int DEFAULT_K = 20;
+    public static final int DEFAULT_MAX_HITS = 4;
+
+    private final KmerBloomFilter filter;
+    private final int maxHits;
+
+    /**
+     * @param filter the filter containing the k-mers of the reference.
+     * @param maxHits the maximum number of k-mers a DNA sequence may share with the reference. Since the filter has false positives, a few hits should be allowed.
+     */
+    public OffTargetRule(KmerBloomFilter filter, int maxHits) {
+        if (maxHits < 0)
+            throw new RuntimeException("maxHits must be >= 0");
+        this.filter = filter;
+        this.maxHits = maxHits;
+    }
+
+    /**
+     * @param seq the BaseSequence.
+     * @return 1.0 if seq shares more than maxHits k-mers with the reference, and 0.0 otherwise.
+     */
+    @Override
+    public float evalErrorProbability(BaseSequence seq) {
+        return filter.countContained(seq, maxHits + 1) > maxHits ? 1.0f : 0.0f;
+    }
+
+    /**
+     * @return CostClass.MODERATE, since each k-mer is a random access into a possibly large filter.
+     */
+    @Override
+    public CostClass costClass() {
+        return CostClass.MODERATE;
+    }
+
+    public KmerBloomFilter getFilter() {
+        return filter;
+    }
+
+    public int getMaxHits() {
+        return maxHits;
+    }
+}
@@ -0,0 +1,105 @@
+package rules;
+
+import utils.stats.LatencyHistogram;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe runtime statistics of a single DNARule inside a DNARulesCollection.
+ */
+public class RuleStats {
+    private final String name;
+    private final DNARule.CostClass costClass;
+    private final LongAdder evals;
+    private final LongAdder rejections;
+    private final DoubleAdder errorSum;
+    private final LatencyHistogram latency;
+
+    RuleStats(String name, DNARule.CostClass costClass) {
+        this.name = name;
+        this.costClass = costClass;
+        this.evals = new LongAdder();
+        this.rejections = new LongAdder();
+        this.errorSum = new DoubleAdder();
+        this.latency = new LatencyHistogram();
+    }
+
+    void recordEval(float error, long nanos) {
+        evals.increment();
+        errorSum.add(error);
+        latency.record(nanos);
+    }
+
+    void recordRejection() {
+        rejections.increment();
+    }
+
+    /**
+     * @return the rule's name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the rule's cost class.
+     */
+    public DNARule.CostClass getCostClass() {
+        return costClass;
+    }
+
+    /**
+     * @return the number of evaluations of this rule.
+     */
+    public long getEvaluations() {
+        return evals.sum();
+    }
+
+    /**
+     * @return the number of times this rule pushed the summed error above the limit.
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return the total error contributed by this rule.
+     */
+    public double getTotalError() {
+        return errorSum.sum();
+    }
+
+    /**
+     * @return the rejections per evaluation.
+     */
+    public double getRejectionRate() {
+        long n = getEvaluations();
+        return n > 0L ? (double) getRejections() / n : 0.0d;
+    }
+
+    /**
+     * @return the average error per evaluation.
+     */
+    public double getAverageError() {
+        long n = getEvaluations();
+        return n > 0L ? getTotalError() / n : 0.0d;
+    }
+
+    /**
+     * @return the latency histogram of this rule's evaluations.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the expected cost of this rule per unit of selectivity. Lower is better. Rules that were never evaluated score 0 and thus are tried first.
+     */
+    double score(double minSelectivity) {
+        long n = getEvaluations();
+        if (n == 0L)
+            return 0.0d;
+        double selectivity = getAverageError() + getRejectionRate();
+        return latency.mean() / Math.max(selectivity, minSelectivity);
+    }
+}
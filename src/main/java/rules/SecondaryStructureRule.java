@@ -1,25 +1,53 @@
 package rules;
 
 import core.BaseSequence;
+import utils.DGCalculator;
 import utils.DGClient;
+import java.util.concurrent.CompletableFuture;
 
 public class SecondaryStructureRule implements DNARule {
     public static final float DEFAULT_TEMP = 25.0f;
     private final float temp;
-    private final DGClient client;
+    private final DGCalculator client;
 
     /**
      * Creates an instance that checks the error via the dg server.
      * @param temp the temperature.
      */
     public SecondaryStructureRule(float temp) {
+        this(temp, DGClient.getInstance());
+    }
+
+    /**
+     * Creates an instance that checks the error via the given DGCalculator, e.g., the dg server or the local folding engine.
+     * @param temp the temperature.
+     * @param client the DGCalculator used to compute the dg energy.
+     */
+    public SecondaryStructureRule(float temp, DGCalculator client) {
         super();
         this.temp = temp;
-        this.client = DGClient.getInstance();
+        this.client = client;
     }
 
     @Override
     public float evalErrorProbability(BaseSequence seq) {
-        return 1.0f / (1.0f + (float) Math.exp(client.dg(seq, temp) + 4.0f));
+        return errorOf(client.dg(seq, temp));
+    }
+
+    @Override
+    public CompletableFuture<Float> evalErrorProbabilityAsync(BaseSequence seq) {
+        return client.dgAsync(seq, temp).thenApply(SecondaryStructureRule::errorOf);
+    }
+
+    private static float errorOf(float dg) {
+        return 1.0f / (1.0f + (float) Math.exp(dg + 4.0f));
+    }
+
+    /**
+     * @return CostClass.REMOTE if the dg energy is computed remotely, e.g., by the dg server, and CostClass.EXPENSIVE otherwise.
+     */
+    @Override
+    public CostClass costClass() {
+        return client.isRemote() ? CostClass.REMOTE : CostClass.EXPENSIVE;
     }
 }
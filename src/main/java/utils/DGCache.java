@@ -0,0 +1,330 @@
+package utils;
+
+import core.BaseSequence;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of dg energies in front of another DGCalculator. The cache is split into segments, each of which evicts its least recently used entry when full.
+ * Optionally, computed dg energies are appended to a file, which is loaded again when the cache is created. This allows repeated runs and validations to reuse dg energies computed before.
+ * The file is written by a background thread, so that callers, e.g., the I/O thread of the DGClient completing a future, never wait for the disk. Only keys that are not cached are written, i.e., a key is written again only if it was evicted and computed again, which the last-wins loading tolerates.
+ * The queue of the writer is bounded: if the disk falls behind, further dg energies are not written but only cached, so that neither the memory nor the callers depend on the disk.
+ */
+public class DGCache implements DGCalculator, AutoCloseable {
+    private static final int SEGMENTS = 64;
+    private static final int FILE_BUFF_SIZE = 64 * 1024;
+    private static final int WRITE_QUEUE_CAPACITY = 64 * 1024;
+    private static final Record END = new Record(null, 0.0f);
+
+    private final DGCalculator delegate;
+    private final Segment[] segments;
+    private final DataOutputStream store;
+    private final String storePath;
+    private final BlockingQueue<Record> writes;
+    private final Thread writer;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder droppedWrites;
+
+    /**
+     * Creates an in-memory dg cache.
+     * @param delegate the DGCalculator that computes the dg energies that are not cached.
+     * @param capacity the maximum number of cached dg energies.
+     */
+    public DGCache(DGCalculator delegate, int capacity) {
+        this(delegate, capacity, null);
+    }
+
+    /**
+     * Creates a dg cache that is backed by a file.
+     * @param delegate the DGCalculator that computes the dg energies that are not cached.
+     * @param capacity the maximum number of cached dg energies.
+     * @param storePath the path to the file that stores the computed dg energies, or null for an in-memory cache only. If the file exists, its entries are loaded into the cache.
+     */
+    public DGCache(DGCalculator delegate, int capacity, String storePath) {
+        if (capacity <= 0)
+            throw new RuntimeException("capacity must be > 0");
+        this.delegate = delegate;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.droppedWrites = new LongAdder();
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(segmentCapacity, evictions);
+
+        this.storePath = storePath;
+        if (storePath != null) {
+            if (Files.exists(Paths.get(storePath)))
+                load(storePath);
+            this.store = FuncUtils.safeCall(() -> new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storePath, true), FILE_BUFF_SIZE)));
+            this.writes = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+            this.writer = new Thread(this::writeLoop, "dg-cache-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        else {
+            this.store = null;
+            this.writes = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Returns the cached dg energy or computes it with the underlying DGCalculator.
+     * @param seq the BaseSequence.
+     * @param temp the temperature.
+     * @return the dg energy.
+     */
+    @Override
+    public float dg(BaseSequence seq, float temp) {
+        Key key = new Key(seq, temp);
+        Segment segment = segmentOf(key);
+        Float cached = segment.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        float dg = delegate.dg(seq, temp);
+        // a key that was put concurrently, e.g., by another miss of the same key, is already written
+        if (segment.put(key, dg) && store != null)
+            persist(key, dg);
+
+        return dg;
+    }
+
+    /**
+     * Returns the cached dg energy or computes it asynchronously with the underlying DGCalculator.
+     * @param seq the BaseSequence.
+     * @param temp the temperature.
+     * @return a future of the dg energy, which is already completed on a cache hit.
+     */
+    @Override
+    public CompletableFuture<Float> dgAsync(BaseSequence seq, float temp) {
+        Key key = new Key(seq, temp);
+        Segment segment = segmentOf(key);
+        Float cached = segment.get(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.increment();
+        return delegate.dgAsync(seq, temp).thenApply(dg -> {
+            if (segment.put(key, dg) && store != null)
+                persist(key, dg);
+            return dg;
+        });
+    }
+
+    /**
+     * @return true if the underlying DGCalculator is remote.
+     */
+    @Override
+    public boolean isRemote() {
+        return delegate.isRemote();
+    }
+
+    /**
+     * @return the number of lookups that were answered from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of lookups that required the underlying DGCalculator.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of evicted entries.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the fraction of lookups that were answered from the cache.
+     */
+    public double getHitRate() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total > 0L ? (double) h / total : 0.0d;
+    }
+
+    /**
+     * @return the number of cached dg energies.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment s : segments)
+            size += s.size();
+        return size;
+    }
+
+    /**
+     * @return the number of dg energies that were not written to the backing file, since its writer fell behind.
+     */
+    public long getDroppedWrites() {
+        return droppedWrites.sum();
+    }
+
+    /**
+     * @return the number of dg energies that are waiting to be written to the backing file.
+     */
+    public int getPendingWrites() {
+        return writes != null ? writes.size() : 0;
+    }
+
+    /**
+     * @return the path of the file backing this cache, or null.
+     */
+    public String getStorePath() {
+        return storePath;
+    }
+
+    /**
+     * Writes the pending dg energies, and flushes and closes the backing file.
+     */
+    @Override
+    public void close() {
+        if (store != null) {
+            FuncUtils.safeRun(() -> writes.put(END));
+            FuncUtils.safeRun(writer::join);
+            FuncUtils.safeRun(store::close);
+        }
+    }
+
+    private Segment segmentOf(Key key) {
+        return segments[(key.hash ^ (key.hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private void persist(Key key, float dg) {
+        // the callers must not wait for the disk, i.e., the dg energy is only cached if the writer falls behind
+        if (!writes.offer(new Record(key, dg)))
+            droppedWrites.increment();
+    }
+
+    private void writeLoop() {
+        Record r;
+        while ((r = FuncUtils.safeCall(writes::take)) != END) {
+            Record record = r;
+            FuncUtils.safeRun(() -> {
+                store.writeInt(record.key.len);
+                store.writeInt(record.key.tempBits);
+                store.writeFloat(record.dg);
+                for (long l : record.key.packed)
+                    store.writeLong(l);
+            });
+        }
+    }
+
+    private void load(String path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), FILE_BUFF_SIZE))) {
+            while (true) {
+                int len = in.readInt();
+                int tempBits = in.readInt();
+                float dg = in.readFloat();
+                long[] packed = new long[(len + 31) >>> 5];
+                for (int i = 0; i < packed.length; i++)
+                    packed[i] = in.readLong();
+                Key key = new Key(packed, len, tempBits);
+                segmentOf(key).put(key, dg);
+            }
+        }
+        catch (EOFException ignored) {
+            // end of file or a truncated last record from an interrupted run
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class Segment {
+        private final Map<Key, Float> map;
+
+        private Segment(int capacity, LongAdder evictions) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Float> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Float get(Key key) {
+            return map.get(key);
+        }
+
+        /**
+         * @return true if the key was not cached before.
+         */
+        private synchronized boolean put(Key key, float dg) {
+            return map.put(key, dg) == null;
+        }
+
+        private synchronized int size() {
+            return map.size();
+        }
+    }
+
+    private static final class Key {
+        private final long[] packed;
+        private final int len;
+        private final int tempBits;
+        private final int hash;
+
+        private Key(BaseSequence seq, float temp) {
+            this(seq.pack(), seq.length(), Float.floatToIntBits(temp));
+        }
+
+        private Key(long[] packed, int len, int tempBits) {
+            this.packed = packed;
+            this.len = len;
+            this.tempBits = tempBits;
+            this.hash = 31 * (31 * Arrays.hashCode(packed) + len) + tempBits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key k))
+                return false;
+            return hash == k.hash && len == k.len && tempBits == k.tempBits && Arrays.equals(packed, k.packed);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Record {
+        private final Key key;
+        private final float dg;
+
+        private Record(Key key, float dg) {
+            this.key = key;
+            this.dg = dg;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package utils;
+
+import core.BaseSequence;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The interface for computing the free energy (dg) of the secondary structure of a DNA sequence.
+ */
+public interface DGCalculator {
+
+    /**
+     * Calculates the dg energy of the given BaseSequence at the given temperature.
+     * @param seq the BaseSequence.
+     * @param temp the temperature in °C.
+     * @return the dg energy in kcal/mol.
+     */
+    float dg(BaseSequence seq, float temp);
+
+    /**
+     * Calculates the dg energy asynchronously. The default implementation computes the dg energy on the calling thread.
+     * @param seq the BaseSequence.
+     * @param temp the temperature in °C.
+     * @return a future of the dg energy in kcal/mol.
+     */
+    default CompletableFuture<Float> dgAsync(BaseSequence seq, float temp) {
+        return CompletableFuture.completedFuture(dg(seq, temp));
+    }
+
+    /**
+     * @return true if this instance computes the dg energy remotely, e.g., via the dg server.
+     */
+    default boolean isRemote() {
+        return false;
+    }
+}
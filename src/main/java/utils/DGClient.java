@@ -1,46 +1,120 @@
 package utils;
 
+import core.Base;
 import core.BaseSequence;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public final class DGClient implements AutoCloseable {
+/**
+ * The client of the dg server. Requests are sent with a length-prefixed binary protocol (little-endian):
+ * <pre>
+ * request: uint32 payload length | uint32 request id | uint16 count | count * (float32 temp | uint16 seq length | seq length * ASCII base)
+ * reply:   uint32 payload length | uint32 request id | uint16 count | count * float32 dg
+ * </pre>
+ * A single I/O thread multiplexes the connections to all dg workers with a Selector. Callers only enqueue their requests and receive a future that is completed once the reply arrives, so that many more callers than connections are supported.
+ * Concurrent requests to the same connection are batched into a single message, and up to MAX_IN_FLIGHT messages are pipelined per connection. Replies are correlated by their request id.
+ * If a connection fails, its unanswered requests are resent after the connection is reestablished, up to MAX_ATTEMPTS times. While a connection is down, e.g., while the dg server is starting, its requests stay queued and are only failed once it could not be reestablished within CONNECT_TIMEOUT_MS.
+ * The workers are reached via TCP on the ports START_PORT + i, or via the Unix domain sockets dir/dg_i.sock if the instance was created by getInstance(dir) with a directory.
+ */
+public final class DGClient implements DGCalculator, AutoCloseable {
 
     private static DGClient INSTANCE;
     public static String HOST = "127.0.0.1";
     public static int START_PORT = 6000;
+    public static final String UNIX_SOCKET_PREFIX = "dg_";
+    public static final String UNIX_SOCKET_SUFFIX = ".sock";
     public static int CHANNELS_COUNT = Runtime.getRuntime().availableProcessors();
+    public static int MAX_BATCH_SIZE = 64;
+    public static int MAX_IN_FLIGHT = 8;
+    public static int MAX_ATTEMPTS = 3;
+    public static long RECONNECT_DELAY_MS = 100L;
+    public static long MAX_RECONNECT_DELAY_MS = 5000L;
+    public static long CONNECT_TIMEOUT_MS = 30_000L;
 
-    private final ChannelHandler[] handlers;
+    private static final int HEADER_LEN = 4;
+    private static final int REQUEST_HEADER_LEN = 6;
+    private static final int ITEM_HEADER_LEN = 6;
+    private static final int MAX_SEQ_LEN = 0xFFFF;
+    private static final int INITIAL_BUFF_LEN = 8 * 1024;
+    private static final byte[] BASE_BYTES = {'A', 'T', 'C', 'G'};
+
+    private final String unixSocketDir;
+    private final Connection[] connections;
+    private final Selector selector;
+    private final Thread ioThread;
+    private final AtomicBoolean wakeupPending;
+    private volatile boolean closed;
 
     /**
-     * @return the DGClient instance used to communicate with the dg server.
+     * @return the DGClient instance used to communicate with the dg server. If there is no instance yet, it connects via TCP.
      */
     public synchronized static DGClient getInstance() {
         if (INSTANCE == null)
-            INSTANCE = new DGClient(START_PORT, CHANNELS_COUNT);
+            INSTANCE = new DGClient(START_PORT, CHANNELS_COUNT, null);
 
         return INSTANCE;
     }
 
-    private DGClient(int startPort, int count) {
-        this.handlers = new ChannelHandler[count];
+    /**
+     * @param unixSocketDir the directory containing the Unix domain sockets of the dg workers, or null to connect via TCP.
+     * @return the DGClient instance used to communicate with the dg server.
+     */
+    public synchronized static DGClient getInstance(String unixSocketDir) {
+        if (INSTANCE == null)
+            INSTANCE = new DGClient(START_PORT, CHANNELS_COUNT, unixSocketDir);
+        else if (!Objects.equals(INSTANCE.unixSocketDir, unixSocketDir))
+            throw new RuntimeException("the DGClient instance already connects " + (INSTANCE.unixSocketDir != null ? "via " + INSTANCE.unixSocketDir : "via TCP"));
+
+        return INSTANCE;
+    }
+
+    private DGClient(int startPort, int count, String unixSocketDir) {
+        this.unixSocketDir = unixSocketDir;
+        this.wakeupPending = new AtomicBoolean();
+        this.selector = FuncUtils.safeCall(Selector::open);
+        this.connections = new Connection[count];
         for (int i = 0; i < count; i++)
-            handlers[i] = new ChannelHandler(startPort + i);
+            connections[i] = new Connection(unixSocketDir != null ? unixSocketAddress(unixSocketDir, i) : new InetSocketAddress(HOST, startPort + i));
+
+        this.ioThread = new Thread(this::ioLoop, "dg-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
     }
 
     /**
-     * Closed the DGClient instance, i.e., closes all channels.
+     * @param dir the directory containing the Unix domain sockets of the dg workers.
+     * @param i the index of the dg worker.
+     * @return the address of the Unix domain socket of the i-th dg worker.
+     */
+    public static UnixDomainSocketAddress unixSocketAddress(String dir, int i) {
+        return UnixDomainSocketAddress.of(Paths.get(dir, UNIX_SOCKET_PREFIX + i + UNIX_SOCKET_SUFFIX));
+    }
+
+    /**
+     * Closed the DGClient instance, i.e., closes all connections. Requests that were not answered yet are completed exceptionally.
      */
     @Override
     public void close() {
-        for (ChannelHandler ch : handlers)
-            ch.close();
+        closed = true;
+        selector.wakeup();
     }
 
     /**
@@ -49,121 +123,386 @@ public final class DGClient implements AutoCloseable {
      * @param temp the temperature.
      * @return the dg energy computed at the dg server.
      */
+    @Override
     public float dg(BaseSequence seq, float temp) {
-        return dg(0, seq, temp);
+        return await(submit(seq, temp));
+    }
+
+    /**
+     * Sends a BaseSequence and a temperature to the dg server without waiting for the reply.
+     * @param seq the BaseSequence.
+     * @param temp the temperature.
+     * @return a future of the dg energy that is completed once the dg server replied.
+     */
+    @Override
+    public CompletableFuture<Float> dgAsync(BaseSequence seq, float temp) {
+        return submit(seq, temp);
     }
 
-    private float dg(int fromSocketNum, BaseSequence seq, float temp) {
-        int safeId = fromSocketNum % this.handlers.length;
-        ChannelHandler ch;
-        while (!(ch=this.handlers[safeId]).lock.tryLock()) {
-            safeId = (safeId + 1) % this.handlers.length;
+    /**
+     * Calculates the dg energies of multiple BaseSequence objects. The sequences are sent to the dg server in batches.
+     * @param seqs the BaseSequence objects.
+     * @param temp the temperature.
+     * @return the dg energies computed at the dg server in the order of seqs.
+     */
+    public float[] dg(List<BaseSequence> seqs, float temp) {
+        List<CompletableFuture<Float>> futures = new ArrayList<>(seqs.size());
+        for (BaseSequence seq : seqs)
+            futures.add(submit(seq, temp));
+
+        float[] dgs = new float[futures.size()];
+        for (int i = 0; i < dgs.length; i++)
+            dgs[i] = await(futures.get(i));
+
+        return dgs;
+    }
+
+    /**
+     * @return true, since every call is a round trip to the dg server.
+     */
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    private CompletableFuture<Float> submit(BaseSequence seq, float temp) {
+        if (seq.length() > MAX_SEQ_LEN)
+            throw new RuntimeException("sequence too long for the dg server: " + seq.length());
+        Request request = new Request(seq, temp);
+        if (closed) {
+            request.future.completeExceptionally(new RuntimeException("dg client closed"));
+            return request.future;
+        }
+        Connection con = pick();
+        con.pending.incrementAndGet();
+        con.queue.add(request);
+        if (closed && con.queue.remove(request)) {
+            con.pending.decrementAndGet();
+            request.future.completeExceptionally(new RuntimeException("dg client closed"));
+            return request.future;
+        }
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+
+        return request.future;
+    }
+
+    /**
+     * @return the connected connection with the fewest pending requests, or any connection if none is connected.
+     */
+    private Connection pick() {
+        Connection best = null;
+        int minPending = Integer.MAX_VALUE;
+        for (Connection con : connections) {
+            int p = con.pending.get();
+            if (con.connected && p < minPending) {
+                best = con;
+                minPending = p;
+                if (p == 0)
+                    break;
+            }
         }
+        return best != null ? best : connections[ThreadLocalRandom.current().nextInt(connections.length)];
+    }
+
+    private void ioLoop() {
         try {
-            return ch.sendSeqReceiveDgLockFree(seq, temp);
+            while (!closed) {
+                long now = System.currentTimeMillis();
+                long timeout = 0L;
+                for (Connection con : connections) {
+                    if (!con.connected && con.key == null) {
+                        if (now >= con.reconnectAt)
+                            con.reconnect();
+                        else
+                            timeout = timeout == 0L ? con.reconnectAt - now : Math.min(timeout, con.reconnectAt - now);
+                    }
+                }
+                for (Connection con : connections) {
+                    if (con.connected)
+                        con.flush();
+                }
+
+                selector.select(timeout);
+                wakeupPending.set(false);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection con = (Connection) key.attachment();
+                    try {
+                        if (key.isConnectable())
+                            con.finishConnect();
+                        if (key.isValid() && key.isReadable())
+                            con.read();
+                        if (key.isValid() && key.isWritable())
+                            con.flush();
+                    }
+                    catch (IOException | RuntimeException e) {
+                        con.fail(e);
+                    }
+                }
+            }
+        }
+        catch (IOException | ClosedSelectorException e) {
+            closed = true;
         }
         finally {
-            ch.lock.unlock();
+            RuntimeException ex = new RuntimeException("dg client closed");
+            for (Connection con : connections)
+                con.shutdown(ex);
+            FuncUtils.safeRun(selector::close);
         }
     }
 
-    private static class ChannelHandler implements AutoCloseable {
+    private static float await(CompletableFuture<Float> future) {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
 
-        private static final int MAX_BUFF_LEN = 4;
+    private static final class Request {
+        private final BaseSequence seq;
+        private final float temp;
+        private final CompletableFuture<Float> future;
+        private int attempts;
 
+        private Request(BaseSequence seq, float temp) {
+            this.seq = seq;
+            this.temp = temp;
+            this.future = new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * The state of a single connection to a dg worker. Apart from queue, pending and connected, all fields are only accessed by the I/O thread.
+     */
+    private final class Connection {
+        private final SocketAddress address;
+        private final Queue<Request> queue;
+        private final AtomicInteger pending;
+        private final Map<Integer, List<Request>> inFlight;
+        private final Deque<Request> retries;
         private SocketChannel channel;
-        private final int port;
-        private final Lock lock;
-        private final ByteBuffer readBuffer;
+        private SelectionKey key;
+        private ByteBuffer writeBuffer;
+        private ByteBuffer readBuffer;
+        private int nextRequestId;
+        private long reconnectAt;
+        private long reconnectDelay;
+        private long disconnectedSince;
+        private volatile boolean connected;
 
-        public ChannelHandler(int port) {
-            this.port = port;
-            this.lock = new ReentrantLock(true);
-            this.readBuffer = ByteBuffer.allocate(MAX_BUFF_LEN);
-            connect();
+        private Connection(SocketAddress address) {
+            this.address = address;
+            this.queue = new ConcurrentLinkedQueue<>();
+            this.pending = new AtomicInteger();
+            this.inFlight = new HashMap<>();
+            this.retries = new ArrayDeque<>();
+            this.writeBuffer = ByteBuffer.allocateDirect(INITIAL_BUFF_LEN).order(ByteOrder.LITTLE_ENDIAN).flip();
+            this.readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFF_LEN).order(ByteOrder.LITTLE_ENDIAN);
+            this.reconnectDelay = RECONNECT_DELAY_MS;
+            this.disconnectedSince = -1L;
+            // the first connection is established eagerly. If the dg server is not up yet, e.g., since it is still starting, the I/O thread retries until CONNECT_TIMEOUT_MS
+            try {
+                channel = SocketChannel.open(address);
+                configure();
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+                connected = true;
+            }
+            catch (IOException e) {
+                if (channel != null)
+                    FuncUtils.safeRun(channel::close);
+                disconnectedSince = System.currentTimeMillis();
+                System.out.println("-> dg server not reachable at " + address + " yet, retrying for " + CONNECT_TIMEOUT_MS + " ms");
+            }
         }
 
-        private boolean isConnected() {
-            return this.channel != null && this.channel.isConnected();
+        private void configure() throws IOException {
+            channel.configureBlocking(false);
+            if (address instanceof InetSocketAddress)
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
         }
 
-        private void connect() {
-            if (isConnected())
-                return;
+        private void reconnect() {
             try {
-                lock.lock();
-                channel = SocketChannel.open();
-                channel.connect(new InetSocketAddress(HOST, port));
-                if (channel.isConnectionPending())
-                    channel.finishConnect();
-
-                channel.configureBlocking(true);
+                channel = address instanceof UnixDomainSocketAddress ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(address)) {
+                    configure();
+                    key = channel.register(selector, SelectionKey.OP_READ, this);
+                    onConnected();
+                }
+                else {
+                    key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
             }
-            catch (Exception e) {
-                throw new RuntimeException(e);
-            }
-            finally {
-                lock.unlock();
+            catch (IOException e) {
+                fail(e);
             }
         }
 
-        private float readDeltaG() {
-            readBuffer.clear();
-            int bytesAvailable = -10;
-            try{
-                bytesAvailable = channel.read(readBuffer);
-            } catch (IOException e) {
-                closeAndThrow(e);
-            }
-            if (bytesAvailable <= 0) {
-                closeAndThrow("connection closed from server");
+        private void finishConnect() throws IOException {
+            if (channel.finishConnect()) {
+                configure();
+                key.interestOps(SelectionKey.OP_READ);
+                onConnected();
             }
-            if (bytesAvailable > MAX_BUFF_LEN)
-                closeAndThrow("too long message from server");
-
-            readBuffer.flip();
-            return parseFloatLE(readBuffer);
         }
 
-        public void send(String msg) {
-            try {
-                channel.write(ByteBuffer.wrap(msg.getBytes()));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+        private void onConnected() {
+            reconnectDelay = RECONNECT_DELAY_MS;
+            disconnectedSince = -1L;
+            connected = true;
         }
 
-        @Override
-        public void close() {
+        /**
+         * Writes the remaining bytes of the current frame and starts new frames while there are requests and the in-flight limit is not reached.
+         */
+        private void flush() throws IOException {
             try {
-                channel.close();
+                while (true) {
+                    if (writeBuffer.hasRemaining()) {
+                        channel.write(writeBuffer);
+                        if (writeBuffer.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                    if (inFlight.size() >= MAX_IN_FLIGHT || !nextFrame())
+                        break;
+                }
+                key.interestOps(SelectionKey.OP_READ);
             }
-            catch (Exception ignored) {
+            catch (IOException | RuntimeException e) {
+                fail(e);
             }
         }
 
-        private float sendSeqReceiveDgLockFree(BaseSequence seq, float temp) {
-            send(seq.toString() + "," + temp);
-            return readDeltaG();
+        private boolean nextFrame() {
+            if (retries.isEmpty() && queue.isEmpty())
+                return false;
+            List<Request> batch = new ArrayList<>(Math.min(MAX_BATCH_SIZE, pending.get()));
+            Request r;
+            while (batch.size() < MAX_BATCH_SIZE && ((r = retries.poll()) != null || (r = queue.poll()) != null))
+                batch.add(r);
+            if (batch.isEmpty())
+                return false;
+
+            int id = nextRequestId++;
+            inFlight.put(id, batch);
+            int payloadLen = REQUEST_HEADER_LEN;
+            for (Request req : batch)
+                payloadLen += ITEM_HEADER_LEN + req.seq.length();
+            if (writeBuffer.capacity() < HEADER_LEN + payloadLen)
+                writeBuffer = ByteBuffer.allocateDirect(Math.max(HEADER_LEN + payloadLen, writeBuffer.capacity() << 1)).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer buff = writeBuffer.clear();
+            buff.putInt(payloadLen);
+            buff.putInt(id);
+            buff.putShort((short) batch.size());
+            for (Request req : batch) {
+                req.attempts++;
+                buff.putFloat(req.temp);
+                buff.putShort((short) req.seq.length());
+                for (Base b : req.seq)
+                    buff.put(BASE_BYTES[b.ordinal()]);
+            }
+            buff.flip();
+            return true;
         }
 
-        private void closeAndThrow(String msg) {
-            close();
-            throw new RuntimeException(msg);
+        private void read() throws IOException {
+            if (channel.read(readBuffer) < 0)
+                throw new IOException("connection closed from server: " + address);
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= HEADER_LEN) {
+                int payloadLen = readBuffer.getInt(readBuffer.position());
+                if (readBuffer.remaining() < HEADER_LEN + payloadLen) {
+                    if (readBuffer.capacity() < HEADER_LEN + payloadLen) {
+                        ByteBuffer larger = ByteBuffer.allocateDirect(HEADER_LEN + payloadLen).order(ByteOrder.LITTLE_ENDIAN);
+                        larger.put(readBuffer).flip();
+                        readBuffer = larger;
+                    }
+                    break;
+                }
+                readBuffer.position(readBuffer.position() + HEADER_LEN);
+                int id = readBuffer.getInt();
+                int count = readBuffer.getShort() & 0xFFFF;
+                List<Request> batch = inFlight.remove(id);
+                if (batch == null || batch.size() != count)
+                    throw new RuntimeException("unexpected reply from server: id=" + id + ", count=" + count);
+                for (Request r : batch) {
+                    pending.decrementAndGet();
+                    r.future.complete(readBuffer.getFloat());
+                }
+            }
+            readBuffer.compact();
+            flush();
         }
 
-        private void closeAndThrow(Exception e) {
-            close();
-            throw new RuntimeException(e);
+        /**
+         * Closes the channel and schedules a reconnect. Requests that were sent but not answered are resent after reconnecting unless they reached MAX_ATTEMPTS.
+         * The queued requests are kept across the reconnects with backoff. Only if the connection could not be reestablished within CONNECT_TIMEOUT_MS, they are completed exceptionally, so that no caller waits forever.
+         */
+        private void fail(Exception e) {
+            boolean wasConnected = connected;
+            long now = System.currentTimeMillis();
+            if (wasConnected || disconnectedSince < 0L)
+                disconnectedSince = now;
+            connected = false;
+            if (key != null)
+                key.cancel();
+            key = null;
+            FuncUtils.safeRun(channel::close);
+            writeBuffer.clear().flip();
+            readBuffer.clear();
+
+            RuntimeException ex = e instanceof RuntimeException re ? re : new RuntimeException(e);
+            List<Integer> ids = new ArrayList<>(inFlight.keySet());
+            Collections.sort(ids);
+            for (int id : ids) {
+                for (Request r : inFlight.get(id)) {
+                    if (r.attempts >= MAX_ATTEMPTS)
+                        complete(r, ex);
+                    else
+                        retries.add(r);
+                }
+            }
+            inFlight.clear();
+            if (!wasConnected && now - disconnectedSince >= CONNECT_TIMEOUT_MS) {
+                RuntimeException timeout = new RuntimeException("no connection to the dg server at " + address + " within " + CONNECT_TIMEOUT_MS + " ms", ex);
+                Request r;
+                while ((r = retries.poll()) != null || (r = queue.poll()) != null)
+                    complete(r, timeout);
+            }
+
+            reconnectAt = now + reconnectDelay;
+            reconnectDelay = Math.min(reconnectDelay << 1, MAX_RECONNECT_DELAY_MS);
         }
-    }
 
-    private static float parseFloatLE(ByteBuffer buff) {
-        try {
-            return buff.order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        private void shutdown(RuntimeException ex) {
+            connected = false;
+            if (channel != null)
+                FuncUtils.safeRun(channel::close);
+            for (List<Request> batch : inFlight.values())
+                batch.forEach(r -> complete(r, ex));
+            inFlight.clear();
+            Request r;
+            while ((r = retries.poll()) != null || (r = queue.poll()) != null)
+                complete(r, ex);
         }
-        catch (Exception ignored) {
-            return Float.MAX_VALUE;
+
+        private void complete(Request r, RuntimeException ex) {
+            pending.decrementAndGet();
+            r.future.completeExceptionally(ex);
         }
     }
 }
@@ -3,7 +3,14 @@ package utils;
 import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -66,9 +73,51 @@ public final class FuncUtils {
      * @return a random element from the given array.
      */
     public static <T> T random(T... array) {
-        return array[(int) (Math.random() * array.length)];
+        return array[RandomSource.current().nextInt(array.length)];
     }
 
+    /**
+     * Runs the given task for each index in [0, tasks) on a fixed pool of threads, which claim the indices in ascending order. Returns when all tasks are done.
+     * @param threads the number of threads.
+     * @param tasks the number of tasks.
+     * @param task the task, which receives the index.
+     */
+    public static void parallelFor(int threads, int tasks, IntConsumer task) {
+        if (tasks == 0)
+            return;
+        int poolSize = Math.max(1, Math.min(threads, tasks));
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        try {
+            parallelFor(pool, poolSize, tasks, task);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the given task for each index in [0, tasks) on the given pool, whose threads claim the indices in ascending order. Returns when all tasks are done.
+     * @param pool the pool, e.g., a pool that is reused for many calls.
+     * @param parallelism the number of tasks submitted to the pool.
+     * @param tasks the number of tasks.
+     * @param task the task, which receives the index.
+     */
+    public static void parallelFor(ExecutorService pool, int parallelism, int tasks, IntConsumer task) {
+        if (tasks == 0)
+            return;
+        int poolSize = Math.max(1, Math.min(parallelism, tasks));
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(poolSize);
+        for (int t = 0; t < poolSize; t++) {
+            futures.add(pool.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < tasks)
+                    task.accept(i);
+            }));
+        }
+        for (Future<?> f : futures)
+            safeCall(f::get);
+    }
 
     /**
      * @param fileName the file path.
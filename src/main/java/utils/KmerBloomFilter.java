@@ -0,0 +1,317 @@
+package utils;
+
+import core.BaseSequence;
+import utils.fasta.ReadableFASTAFile;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A blocked Bloom filter of the canonical k-mers of a set of DNA sequences, e.g., a reference genome. A k-mer and its reverse complement are treated as the same k-mer.
+ * The filter is stored off-heap in a memory-mapped file, which can be reused across runs. Each k-mer sets 8 bits within a single block of 64 bytes, i.e., a lookup touches a single cache line.
+ * The filter is built in parallel: chunks of the FASTA file are processed concurrently and bits are set with atomic OR operations.
+ */
+public class KmerBloomFilter implements AutoCloseable {
+    public static final int MAX_K = 31;
+    public static final int DEFAULT_BITS_PER_KMER = 10;
+
+    private static final long MAGIC = 0x5047_4B4D_4552_4246L;
+    private static final int VERSION = 2;
+    private static final int HEADER_LEN = 64;
+    private static final int BLOCK_LEN = 64;
+    private static final int WORDS_PER_BLOCK = BLOCK_LEN / Long.BYTES;
+    private static final long SEGMENT_LEN = 1L << 30;
+    private static final long BLOCKS_PER_SEGMENT = SEGMENT_LEN / BLOCK_LEN;
+    private static final int CHUNK_LEN = 1 << 20;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int k;
+    private final long mask;
+    private final long blocks;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final Path path;
+
+    // the header: magic (0), version (8), k (12), blocks (16), complete flag (24), hash of the reference's path (28), size (32) and modification time (40) of the reference
+    private KmerBloomFilter(Path path, int k, long blocks, boolean create) {
+        if (k < 1 || k > MAX_K)
+            throw new RuntimeException("k must be in [1, " + MAX_K + "]");
+        if (blocks > 0xFFFF_FFFFL)
+            throw new RuntimeException("filter too large: " + blocks + " blocks");
+        this.path = path;
+        this.k = k;
+        this.mask = (1L << (k << 1)) - 1L;
+        this.blocks = blocks;
+        try {
+            this.channel = create
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_LEN);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int segmentsCount = (int) ((blocks + BLOCKS_PER_SEGMENT - 1) / BLOCKS_PER_SEGMENT);
+            this.segments = new MappedByteBuffer[segmentsCount];
+            for (int i = 0; i < segmentsCount; i++) {
+                long segmentBlocks = Math.min(BLOCKS_PER_SEGMENT, blocks - i * BLOCKS_PER_SEGMENT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LEN + i * SEGMENT_LEN, segmentBlocks * BLOCK_LEN);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Loads the filter stored at filterPath if it was completely built for the given k and from the given FASTA file, or builds it from the given FASTA file otherwise.
+     * The FASTA file is identified by its path, size, and modification time, i.e., a filter is rebuilt if the reference is replaced or modified.
+     * @param fastaPath the path to the FASTA file, e.g., a reference genome, or null to load the filter at filterPath regardless of its reference. Records may span multiple lines. Characters other than A, C, G, and T (case-insensitive) split the k-mers.
+     * @param filterPath the path to the file storing the filter, or null to use a temporary file.
+     * @param k the k-mer length.
+     * @param threads the number of threads used to build the filter.
+     * @return the filter.
+     */
+    public static KmerBloomFilter loadOrBuild(String fastaPath, String filterPath, int k, int threads) {
+        if (filterPath != null && Files.exists(Paths.get(filterPath))) {
+            KmerBloomFilter filter = load(filterPath);
+            if (filter != null && filter.k == k && (fastaPath == null || filter.isBuiltFrom(fastaPath)))
+                return filter;
+            if (filter != null)
+                filter.close();
+        }
+        if (fastaPath == null)
+            throw new RuntimeException("no valid filter found at " + filterPath + " and no FASTA file given to build it");
+
+        Path path = filterPath != null ? Paths.get(filterPath) : FuncUtils.safeCall(() -> Files.createTempFile("pg_kmers", ".bf"));
+        if (filterPath == null)
+            path.toFile().deleteOnExit();
+        long expectedKmers = Math.max(1L, FuncUtils.safeCall(() -> Files.size(Paths.get(fastaPath))));
+        long blocks = Math.max(1L, (expectedKmers * DEFAULT_BITS_PER_KMER / 8L + BLOCK_LEN - 1L) / BLOCK_LEN);
+        KmerBloomFilter filter = new KmerBloomFilter(path, k, blocks, true);
+        filter.build(fastaPath, threads);
+        return filter;
+    }
+
+    /**
+     * @param fastaPath the path to a FASTA file.
+     * @return true, if this filter was built from the FASTA file at fastaPath and that file was not modified since.
+     */
+    public boolean isBuiltFrom(String fastaPath) {
+        long[] fingerprint = fingerprint(fastaPath);
+        return header.getInt(28) == (int) fingerprint[0] && header.getLong(32) == fingerprint[1] && header.getLong(40) == fingerprint[2];
+    }
+
+    /**
+     * @param filterPath the path to the file storing the filter.
+     * @return the filter stored at filterPath, or null if that file does not contain a completely built filter.
+     */
+    public static KmerBloomFilter load(String filterPath) {
+        Path path = Paths.get(filterPath);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_LEN)
+                return null;
+            MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_LEN);
+            h.order(ByteOrder.LITTLE_ENDIAN);
+            if (h.getLong(0) != MAGIC || h.getInt(8) != VERSION || h.getInt(24) != 1)
+                return null;
+            int k = h.getInt(12);
+            long blocks = h.getLong(16);
+            if (ch.size() < HEADER_LEN + blocks * BLOCK_LEN)
+                return null;
+            return new KmerBloomFilter(path, k, blocks, false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void build(String fastaPath, int threads) {
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(12, k);
+        header.putLong(16, blocks);
+        header.putInt(24, 0);
+        long[] fingerprint = fingerprint(fastaPath);
+        header.putInt(28, (int) fingerprint[0]);
+        header.putLong(32, fingerprint[1]);
+        header.putLong(40, fingerprint[2]);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        // bounds the number of chunks held in memory
+        Semaphore permits = new Semaphore(Math.max(1, threads) << 1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        ReadableFASTAFile fasta = new ReadableFASTAFile(fastaPath);
+        try {
+            fasta.readChunks(CHUNK_LEN, k - 1, (caption, chunk) -> {
+                FuncUtils.safeRun(permits::acquire);
+                if (error.get() != null)
+                    throw new RuntimeException(error.get());
+                pool.execute(() -> {
+                    try {
+                        addAll(chunk);
+                    }
+                    catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                });
+            });
+        }
+        finally {
+            pool.shutdown();
+            FuncUtils.safeRun(() -> pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+        }
+        if (error.get() != null)
+            throw new RuntimeException(error.get());
+
+        for (MappedByteBuffer segment : segments)
+            segment.force();
+        // the filter is only marked as complete after all of its blocks were written
+        header.putInt(24, 1);
+        header.force();
+    }
+
+    /**
+     * Adds all k-mers of a raw DNA string to this filter. Characters other than A, C, G, and T (case-insensitive) split the k-mers.
+     * @param seq the raw DNA string.
+     */
+    public void addAll(CharSequence seq) {
+        long fwd = 0L;
+        long rev = 0L;
+        int valid = 0;
+        int shift = (k - 1) << 1;
+        int len = seq.length();
+        for (int i = 0; i < len; i++) {
+            int code = code(seq.charAt(i));
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            fwd = ((fwd << 2) | code) & mask;
+            rev = (rev >>> 2) | ((long) (3 - code) << shift);
+            if (++valid >= k)
+                add(Math.min(fwd, rev));
+        }
+    }
+
+    /**
+     * Counts the k-mers of the given BaseSequence that are contained in this filter, including false positives.
+     * @param seq the BaseSequence.
+     * @param limit the count after which this method returns early.
+     * @return the number of k-mers of seq that are contained in this filter, but at most limit.
+     */
+    public int countContained(BaseSequence seq, int limit) {
+        int[] codes = seq.codes();
+        long fwd = 0L;
+        long rev = 0L;
+        int shift = (k - 1) << 1;
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            fwd = ((fwd << 2) | codes[i]) & mask;
+            rev = (rev >>> 2) | ((long) (3 - codes[i]) << shift);
+            if (i >= k - 1 && mightContain(Math.min(fwd, rev)) && ++count >= limit)
+                return count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the k-mer length.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the size of this filter in bytes.
+     */
+    public long sizeInBytes() {
+        return blocks * BLOCK_LEN;
+    }
+
+    /**
+     * @return the path of the file storing this filter.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public void close() {
+        FuncUtils.safeRun(channel::close);
+    }
+
+    private void add(long canonicalKmer) {
+        long h1 = mix(canonicalKmer + SEED);
+        long block = blockOf(h1);
+        MappedByteBuffer segment = segments[(int) (block / BLOCKS_PER_SEGMENT)];
+        int offset = (int) (block % BLOCKS_PER_SEGMENT) * BLOCK_LEN;
+        long h2 = mix(h1);
+        for (int w = 0; w < WORDS_PER_BLOCK; w++) {
+            long bit = 1L << ((h2 >>> (w * 6)) & 63);
+            int index = offset + w * Long.BYTES;
+            if (((long) LONGS.get(segment, index) & bit) == 0L)
+                LONGS.getAndBitwiseOr(segment, index, bit);
+        }
+    }
+
+    private boolean mightContain(long canonicalKmer) {
+        long h1 = mix(canonicalKmer + SEED);
+        long block = blockOf(h1);
+        MappedByteBuffer segment = segments[(int) (block / BLOCKS_PER_SEGMENT)];
+        int offset = (int) (block % BLOCKS_PER_SEGMENT) * BLOCK_LEN;
+        long h2 = mix(h1);
+        for (int w = 0; w < WORDS_PER_BLOCK; w++) {
+            long bit = 1L << ((h2 >>> (w * 6)) & 63);
+            if (((long) LONGS.get(segment, offset + w * Long.BYTES) & bit) == 0L)
+                return false;
+        }
+        return true;
+    }
+
+    private long blockOf(long hash) {
+        return ((hash >>> 32) * blocks) >>> 32;
+    }
+
+    /**
+     * @return the hash of the absolute path, the size, and the modification time in milliseconds of the file at path.
+     */
+    private static long[] fingerprint(String path) {
+        Path p = Paths.get(path).toAbsolutePath().normalize();
+        return FuncUtils.safeCall(() -> new long[] {p.toString().hashCode(), Files.size(p), Files.getLastModifiedTime(p).toMillis()});
+    }
+
+    private static int code(char c) {
+        return switch (c) {
+            case 'A', 'a' -> 0;
+            case 'C', 'c' -> 1;
+            case 'G', 'g' -> 2;
+            case 'T', 't' -> 3;
+            default -> -1;
+        };
+    }
+
+    // the finalizer of MurmurHash3 (64 bit)
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9a53e1ca34fL;
+        x ^= x >>> 33;
+        return x;
+    }
+}
@@ -33,7 +33,8 @@ public class LSH {
         this.bandSize = r / b;
 
         long kMers = (long) Math.pow(4, k);
-        this.permutations = Stream.iterate(new PseudoPermutation(kMers, kMers), p -> new PseudoPermutation(kMers, p.getP())).limit(r).toArray(PseudoPermutation[]::new);
+        SplittableRandom rand = RandomSource.split();
+        this.permutations = Stream.iterate(new PseudoPermutation(kMers, kMers, rand.split()), p -> new PseudoPermutation(kMers, p.getP(), rand.split())).limit(r).toArray(PseudoPermutation[]::new);
         this.bands = Stream.generate((Supplier<Map<String, Set<BaseSequence>>>) HashMap::new).limit(b).toList();
         this.bandLocks = Stream.generate(ReentrantReadWriteLock::new).limit(b).toArray(ReadWriteLock[]::new);
     }
@@ -43,14 +44,28 @@ public class LSH {
      * @param seq the BaseSequence to insert.
      */
     public void insert(BaseSequence seq) {
-        var sigs = signatures(seq);
+        insertAll(List.of(seq), List.<String[]>of(signatures(seq)));
+    }
+
+    /**
+     * Inserts the given BaseSequence objects into this LSH instance with a single pass over the bands, i.e., the lock of each band is acquired once for all sequences.
+     * @param seqs the BaseSequence objects to insert.
+     * @param sigs the signatures of each BaseSequence as returned by signatures(seq).
+     */
+    public void insertAll(List<BaseSequence> seqs, List<String[]> sigs) {
+        int n = seqs.size();
         Lock lock;
         for (int band = 0; band < b; band++) {
             var map = bands.get(band);
             lock = bandLocks[band].writeLock();
             lock.lock();
-            map.computeIfAbsent(sigs[band], k1 -> new HashSet<>()).add(seq);
-            lock.unlock();
+            try {
+                for (int i = 0; i < n; i++)
+                    map.computeIfAbsent(sigs.get(i)[band], k1 -> new HashSet<>()).add(seqs.get(i));
+            }
+            finally {
+                lock.unlock();
+            }
         }
     }
 
@@ -100,7 +115,15 @@ public class LSH {
      * @return the set of similar BaseSequence this LSH instance matches for the input BaseSequence. It will return maxCount matches at most.
      */
     public Set<BaseSequence> similarSeqs(BaseSequence seq, int maxCount) {
-        var sigs = signatures(seq);
+        return similarSeqs(signatures(seq), maxCount);
+    }
+
+    /**
+     * @param sigs the signatures of the input BaseSequence as returned by signatures(seq).
+     * @param maxCount the maximum number of matches. If maxCount matches are found, this method returns and does not search for more matches.
+     * @return the set of similar BaseSequence this LSH instance matches for the given signatures. It will return maxCount matches at most.
+     */
+    public Set<BaseSequence> similarSeqs(String[] sigs, int maxCount) {
         Set<BaseSequence> result = new HashSet<>();
         Set<BaseSequence> matches;
         Lock lock;
@@ -120,6 +143,37 @@ public class LSH {
         }
         return result;
     }
+
+    /**
+     * Looks up multiple signatures with a single pass over the bands, i.e., the lock of each band is acquired once for all signatures.
+     * @param sigs the signatures of each input BaseSequence as returned by signatures(seq).
+     * @return the set of similar BaseSequence this LSH instance matches for each of the given signatures, in the same order.
+     */
+    public List<Set<BaseSequence>> similarSeqsAll(List<String[]> sigs) {
+        int n = sigs.size();
+        List<Set<BaseSequence>> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            result.add(new HashSet<>());
+        Set<BaseSequence> matches;
+        Lock lock;
+        for (int band = 0; band < b; band++) {
+            var map = bands.get(band);
+            lock = bandLocks[band].readLock();
+            lock.lock();
+            try {
+                for (int i = 0; i < n; i++) {
+                    matches = map.get(sigs.get(i)[band]);
+                    if (matches != null)
+                        result.get(i).addAll(matches);
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        return result;
+    }
+
     /**
      * @param seq the input BaseSequence.
      * @return the signatures of each band for the input BaseSequence.
@@ -140,6 +194,31 @@ public class LSH {
         return sigs;
     }
 
+    /**
+     * @param seq the input BaseSequence.
+     * @return a 64-bit hash of the minHash values of each band for the input BaseSequence. Two sequences with equal signatures in a band have equal hashes in that band.
+     */
+    public long[] bandHashes(BaseSequence seq) {
+        var minHashes = minHashes(seq);
+        long[] hashes = new long[b];
+        int offset = 0;
+        for (int band = 0; band < b; band++) {
+            long h = band;
+            for (int m = 0; m < bandSize; m++)
+                h = mix(h * 31L + minHashes[m + offset]);
+
+            hashes[band] = h;
+            offset += bandSize;
+        }
+        return hashes;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
     private static long initialRowId(BaseSequence kmer) {
         int len = kmer.length();
         long id = 0L;
@@ -1,5 +1,7 @@
 package utils;
 
+import java.util.SplittableRandom;
+
 public class PseudoPermutation {
 
     private final long m; // num rows/elements (q grams)
@@ -21,12 +23,22 @@ public class PseudoPermutation {
      * @param p_1 must be greater than or equal to m. This LSH will use the next prime number greater than p_1.
      */
     public PseudoPermutation(long m, long p_1) {
+        this(m, p_1, RandomSource.current());
+    }
+
+    /**
+     * Creates a PseudoPermutation instance whose coefficients are drawn from the given random stream.
+     * @param m largest index for this instance to permute. For example, if you want to permute a 100 elements vector, m would be 100.
+     * @param p_1 must be greater than or equal to m. This LSH will use the next prime number greater than p_1.
+     * @param rand the random stream.
+     */
+    public PseudoPermutation(long m, long p_1, SplittableRandom rand) {
         if (p_1 < m)
             throw new RuntimeException("p must be >= m");
         this.m = m;
         this.p = nextPrime(p_1);
-        this.a = (long) (1 + Math.random() * p);
-        this.b = (long) (1 + Math.random() * p);
+        this.a = 1L + rand.nextLong(p - 1L);
+        this.b = 1L + rand.nextLong(p - 1L);
     }
 
     public long getP() {
@@ -0,0 +1,59 @@
+package utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * The source of randomness of the PG. Each thread draws from its own SplittableRandom, i.e., without contention between threads.
+ * Without a seed, the streams are seeded randomly. With a seed, the streams created by split() are deterministic in the order they are created.
+ * Threads that are bound to such a stream before they start, e.g., the workers of the PG, therefore draw reproducible values.
+ */
+public final class RandomSource {
+    private static SplittableRandom root = new SplittableRandom();
+    private static final ThreadLocal<SplittableRandom> CURRENT = ThreadLocal.withInitial(RandomSource::split);
+
+    private RandomSource() {
+    }
+
+    /**
+     * Seeds the root stream. Only streams that are split afterwards are affected.
+     * @param seed the seed.
+     */
+    public static synchronized void setSeed(long seed) {
+        root = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return a new stream split from the root stream.
+     */
+    public static synchronized SplittableRandom split() {
+        return root.split();
+    }
+
+    /**
+     * @return the stream of the calling thread. A thread that was not bound to a stream receives a new stream split from the root stream on its first call.
+     */
+    public static SplittableRandom current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the calling thread to the given stream.
+     * @param random the stream.
+     */
+    public static void bind(SplittableRandom random) {
+        CURRENT.set(random);
+    }
+
+    /**
+     * Splits a new stream from the root stream now, and binds the thread that runs the returned Runnable to it.
+     * @param r the Runnable.
+     * @return a Runnable that binds the calling thread to the stream and runs r.
+     */
+    public static Runnable bound(Runnable r) {
+        SplittableRandom random = split();
+        return () -> {
+            bind(random);
+            r.run();
+        };
+    }
+}
@@ -0,0 +1,224 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An undirected graph of sequences, in which two sequences are adjacent if they are too close to each other. The adjacency is stored in compressed sparse row (CSR) format, i.e., in two int arrays.
+ * A large independent set of this graph, i.e., a large set of sequences that are pairwise far enough from each other, can be computed in parallel by independentSet().
+ */
+public class SimilarityGraph {
+    private static final int CHUNK_SIZE = 1 << 12;
+
+    private static final byte UNDECIDED = 0;
+    private static final byte IN = 1;
+    private static final byte OUT = 2;
+
+    private final int n;
+    private final int threads;
+    private final int[] offsets;
+    private final int[] adjacency;
+
+    private SimilarityGraph(int n, int threads, int[] offsets, int[] adjacency) {
+        this.n = n;
+        this.threads = threads;
+        this.offsets = offsets;
+        this.adjacency = adjacency;
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the number of edges.
+     */
+    public long edges() {
+        return adjacency.length / 2;
+    }
+
+    /**
+     * @param v the node.
+     * @return the number of neighbours of the given node.
+     */
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * Computes a maximal independent set by a parallel greedy algorithm in rounds: in each round, every undecided node whose priority is higher than that of all its undecided neighbours joins the set, and its neighbours are removed.
+     * Nodes of a lower degree have a higher priority, ties are broken by a hash of the node. The result equals that of the sequential greedy algorithm in order of priority, i.e., it does not depend on the number of threads.
+     * @return an array that is true for each node in the independent set.
+     */
+    public boolean[] independentSet() {
+        byte[] state = new byte[n];
+        int[] active = new int[n];
+        int activeCount = 0;
+        for (int v = 0; v < n; v++) {
+            if (degree(v) == 0)
+                state[v] = IN;
+            else
+                active[activeCount++] = v;
+        }
+
+        // one pool runs all rounds, i.e., a graph that needs many rounds does not start two pools per round
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pg-mis");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            while (activeCount > 0) {
+                int[] round = active;
+                int roundCount = activeCount;
+                int chunks = (roundCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                // a node that joins in this round is only read by neighbours of a lower priority, which do not join either way
+                FuncUtils.parallelFor(pool, threads, chunks, c -> {
+                    for (int x = c * CHUNK_SIZE, end = Math.min(roundCount, x + CHUNK_SIZE); x < end; x++) {
+                        int v = round[x];
+                        if (isLocalMaximum(v, state))
+                            state[v] = IN;
+                    }
+                });
+                FuncUtils.parallelFor(pool, threads, chunks, c -> {
+                    for (int x = c * CHUNK_SIZE, end = Math.min(roundCount, x + CHUNK_SIZE); x < end; x++) {
+                        int v = round[x];
+                        if (state[v] == IN) {
+                            for (int e = offsets[v]; e < offsets[v + 1]; e++)
+                                state[adjacency[e]] = OUT;
+                        }
+                    }
+                });
+                activeCount = 0;
+                for (int x = 0; x < roundCount; x++) {
+                    if (state[round[x]] == UNDECIDED)
+                        active[activeCount++] = round[x];
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        boolean[] result = new boolean[n];
+        for (int v = 0; v < n; v++)
+            result[v] = state[v] == IN;
+        return result;
+    }
+
+    private boolean isLocalMaximum(int v, byte[] state) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            int u = adjacency[e];
+            if (state[u] != OUT && precedes(u, v))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean precedes(int u, int v) {
+        int du = degree(u);
+        int dv = degree(v);
+        if (du != dv)
+            return du < dv;
+        long hu = hash(u);
+        long hv = hash(v);
+        if (hu != hv)
+            return hu < hv;
+        return u < v;
+    }
+
+    private static long hash(int v) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (h ^ (h >>> 32)) & Long.MAX_VALUE;
+    }
+
+    /**
+     * Collects the edges of a SimilarityGraph concurrently, e.g., from the violations of a SimilarityJoin. Each thread appends to its own buffer, i.e., without contention.
+     */
+    public static class Builder implements SimilarityJoin.PairConsumer {
+        private final int n;
+        private final Queue<EdgeBuffer> buffers;
+        private final ThreadLocal<EdgeBuffer> buffer;
+
+        /**
+         * Creates a builder of a graph with nodes 0 to n - 1.
+         * @param n the number of nodes.
+         */
+        public Builder(int n) {
+            this.n = n;
+            this.buffers = new ConcurrentLinkedQueue<>();
+            this.buffer = ThreadLocal.withInitial(() -> {
+                EdgeBuffer b = new EdgeBuffer();
+                buffers.add(b);
+                return b;
+            });
+        }
+
+        /**
+         * Adds the edge between i and j. Each edge must only be added once.
+         */
+        @Override
+        public void accept(int i, int j, float distance) {
+            buffer.get().add(i, j);
+        }
+
+        /**
+         * Builds the graph in parallel from the edges added so far.
+         * @param threads the number of threads used to build the graph and to compute its independent set.
+         * @return the graph.
+         */
+        public SimilarityGraph build(int threads) {
+            EdgeBuffer[] edgeBuffers = buffers.toArray(EdgeBuffer[]::new);
+            AtomicIntegerArray degrees = new AtomicIntegerArray(n);
+            FuncUtils.parallelFor(threads, edgeBuffers.length, x -> {
+                EdgeBuffer b = edgeBuffers[x];
+                for (int e = 0; e < b.size; e++) {
+                    degrees.incrementAndGet((int) (b.edges[e] >>> 32));
+                    degrees.incrementAndGet((int) b.edges[e]);
+                }
+            });
+
+            int[] offsets = new int[n + 1];
+            long total = 0L;
+            for (int v = 0; v < n; v++) {
+                offsets[v] = (int) total;
+                total += degrees.get(v);
+                if (total > Integer.MAX_VALUE - 8)
+                    throw new RuntimeException("too many edges: " + total / 2);
+            }
+            offsets[n] = (int) total;
+
+            int[] adjacency = new int[(int) total];
+            AtomicIntegerArray cursors = new AtomicIntegerArray(offsets);
+            FuncUtils.parallelFor(threads, edgeBuffers.length, x -> {
+                EdgeBuffer b = edgeBuffers[x];
+                for (int e = 0; e < b.size; e++) {
+                    int i = (int) (b.edges[e] >>> 32);
+                    int j = (int) b.edges[e];
+                    adjacency[cursors.getAndIncrement(i)] = j;
+                    adjacency[cursors.getAndIncrement(j)] = i;
+                }
+            });
+            return new SimilarityGraph(n, threads, offsets, adjacency);
+        }
+    }
+
+    private static class EdgeBuffer {
+        private long[] edges = new long[16];
+        private int size;
+
+        private void add(int i, int j) {
+            if (size == edges.length)
+                edges = Arrays.copyOf(edges, size * 2);
+            edges[size++] = ((long) i << 32) | (j & 0xFFFFFFFFL);
+        }
+    }
+}
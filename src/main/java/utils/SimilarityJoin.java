@@ -0,0 +1,360 @@
+package utils;
+
+import core.BaseSequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A parallel self-join of a list of DNA sequences by the Jaccard distance of their k-mers, i.e., finds all pairs of sequences that are closer than a given minimum distance.
+ * The k-mers of each sequence are encoded once: as a bitset over all 4^k k-mers for k up to BITSET_MAX_K, or as a sorted array of the distinct 2-bit encoded k-mers otherwise.
+ * The pairs are either compared exhaustively in blocks, which is exact, or generated as candidates by the bands of an LSH and verified exactly, which can miss close pairs.
+ */
+public class SimilarityJoin {
+    public static final int BITSET_MAX_K = 6;
+    public static final int MAX_K = 31;
+
+    private static final int BLOCK_SIZE = 256;
+
+    private final List<BaseSequence> seqs;
+    private final int n;
+    private final int k;
+    private final int threads;
+    private final boolean bitsets;
+    private final long[][] kmers;
+    private final int[] sizes;
+
+    /**
+     * Creates a self-join of the given sequences and encodes their k-mers in parallel.
+     * @param seqs the DNA sequences.
+     * @param k the k-mers length for the Jaccard distance.
+     * @param threads the number of threads.
+     */
+    public SimilarityJoin(List<BaseSequence> seqs, int k, int threads) {
+        if (k < 1 || k > MAX_K)
+            throw new RuntimeException("k must be in [1, " + MAX_K + "]");
+        if (threads < 1)
+            throw new RuntimeException("threads must be >= 1");
+        this.seqs = seqs;
+        this.n = seqs.size();
+        this.k = k;
+        this.threads = threads;
+        this.bitsets = k <= BITSET_MAX_K;
+        this.kmers = new long[n][];
+        this.sizes = new int[n];
+        FuncUtils.parallelFor(threads, blocks(n), block -> {
+            for (int i = block * BLOCK_SIZE, end = Math.min(n, i + BLOCK_SIZE); i < end; i++)
+                encode(i);
+        });
+    }
+
+    /**
+     * Compares all pairs of sequences exhaustively. The pairs are compared in blocks of BLOCK_SIZE x BLOCK_SIZE sequences, so that the k-mers of both blocks stay in the cache.
+     * @param minDist the minimum distance required between two sequences.
+     * @param violations receives each pair of sequences with a distance below minDist. It is called concurrently.
+     * @return the result of the join.
+     */
+    public Result exact(float minDist, PairConsumer violations) {
+        long t = System.currentTimeMillis();
+        Result result = new Result(bitsets ? "exact [bitset]" : "exact [sorted k-mers]");
+        int blocks = blocks(n);
+        FuncUtils.parallelFor(threads, blocks, bi -> {
+            Result local = new Result(result.method);
+            int iStart = bi * BLOCK_SIZE;
+            int iEnd = Math.min(n, iStart + BLOCK_SIZE);
+            for (int bj = bi; bj < blocks; bj++) {
+                int jStart = bj * BLOCK_SIZE;
+                int jEnd = Math.min(n, jStart + BLOCK_SIZE);
+                for (int i = iStart; i < iEnd; i++) {
+                    for (int j = Math.max(i + 1, jStart); j < jEnd; j++)
+                        verify(i, j, minDist, violations, local);
+                }
+            }
+            result.merge(local);
+        });
+        result.elapsedMs = System.currentTimeMillis() - t;
+        return result;
+    }
+
+    /**
+     * Generates the candidate pairs by the bands of the given LSH and verifies them exactly. A pair is only verified in the first band in which both sequences have equal hashes.
+     * @param lsh the LSH whose bands generate the candidates. Sequences are not inserted into it.
+     * @param minDist the minimum distance required between two sequences.
+     * @param violations receives each verified pair of sequences with a distance below minDist. It is called concurrently.
+     * @return the result of the join.
+     */
+    public Result lsh(LSH lsh, float minDist, PairConsumer violations) {
+        long t = System.currentTimeMillis();
+        Result result = new Result("lsh [" + lsh.getB() + " bands]");
+        int b = lsh.getB();
+        // band-major, i.e., each band is an array of n hashes, so that n * b may exceed the range of an int
+        long[][] hashes = new long[b][n];
+        FuncUtils.parallelFor(threads, blocks(n), block -> {
+            for (int i = block * BLOCK_SIZE, end = Math.min(n, i + BLOCK_SIZE); i < end; i++) {
+                long[] h = lsh.bandHashes(seqs.get(i));
+                for (int band = 0; band < b; band++)
+                    hashes[band][i] = h[band];
+            }
+        });
+
+        // the keys are the truncated hashes followed by the indices, so that sorting them groups the sequences by band hash
+        int indexBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1)));
+        long indexMask = (1L << indexBits) - 1L;
+        long[] keys = new long[n];
+        for (int band = 0; band < b; band++) {
+            for (int i = 0; i < n; i++)
+                keys[i] = (hashes[band][i] << indexBits) | i;
+            Arrays.parallelSort(keys);
+
+            List<int[]> groups = new ArrayList<>();
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i == n || (keys[i] >>> indexBits) != (keys[start] >>> indexBits)) {
+                    if (i - start > 1)
+                        groups.add(new int[] {start, i});
+                    start = i;
+                }
+            }
+
+            int currentBand = band;
+            FuncUtils.parallelFor(threads, groups.size(), g -> {
+                Result local = new Result(result.method);
+                int[] group = groups.get(g);
+                for (int x = group[0]; x < group[1]; x++) {
+                    for (int y = x + 1; y < group[1]; y++) {
+                        int i = (int) (keys[x] & indexMask);
+                        int j = (int) (keys[y] & indexMask);
+                        if (firstCommonBand(hashes, i, j) == currentBand)
+                            verify(Math.min(i, j), Math.max(i, j), minDist, violations, local);
+                    }
+                }
+                result.merge(local);
+            });
+        }
+        result.elapsedMs = System.currentTimeMillis() - t;
+        return result;
+    }
+
+    /**
+     * @param i the index of the first sequence.
+     * @param j the index of the second sequence.
+     * @return the Jaccard distance between the k-mers of the given sequences, which equals BaseSequence.jaccardDistance().
+     */
+    public float distance(int i, int j) {
+        int intersection = bitsets ? intersectBits(kmers[i], kmers[j]) : intersectSorted(kmers[i], kmers[j]);
+        return 1.0f - (float) intersection / (sizes[i] + sizes[j] - intersection);
+    }
+
+    /**
+     * @return the number of sequences.
+     */
+    public int size() {
+        return n;
+    }
+
+    private void verify(int i, int j, float minDist, PairConsumer violations, Result local) {
+        float dist = distance(i, j);
+        local.pairs++;
+        if (dist < local.minDistance) {
+            local.minDistance = dist;
+            local.minI = i;
+            local.minJ = j;
+        }
+        if (dist < minDist) {
+            local.violations++;
+            violations.accept(i, j, dist);
+        }
+    }
+
+    private static int firstCommonBand(long[][] hashes, int i, int j) {
+        for (int band = 0; band < hashes.length; band++) {
+            if (hashes[band][i] == hashes[band][j])
+                return band;
+        }
+        return -1;
+    }
+
+    private void encode(int i) {
+        long[] codes = kmerCodesByPosition(seqs.get(i), k);
+        if (bitsets) {
+            long[] bits = new long[Math.max(1, (1 << (2 * k)) >>> 6)];
+            for (long c : codes)
+                bits[(int) (c >>> 6)] |= 1L << c;
+            int size = 0;
+            for (long w : bits)
+                size += Long.bitCount(w);
+            kmers[i] = bits;
+            sizes[i] = size;
+        }
+        else {
+            kmers[i] = distinctSorted(codes);
+            sizes[i] = kmers[i].length;
+        }
+    }
+
+    /**
+     * @param seq the DNA sequence.
+     * @param k the k-mers length, up to MAX_K.
+     * @return the distinct 2-bit encoded k-mers of the given sequence in ascending order.
+     */
+    public static long[] kmerCodes(BaseSequence seq, int k) {
+        return distinctSorted(kmerCodesByPosition(seq, k));
+    }
+
+    /**
+     * @param a the distinct k-mers of a sequence in ascending order, e.g., by kmerCodes().
+     * @param b the distinct k-mers of another sequence in ascending order.
+     * @return the Jaccard distance between the given k-mers, which equals BaseSequence.jaccardDistance().
+     */
+    public static float distance(long[] a, long[] b) {
+        int intersection = intersectSorted(a, b);
+        return 1.0f - (float) intersection / (a.length + b.length - intersection);
+    }
+
+    /**
+     * @param seq the DNA sequence.
+     * @param k the k-mers length, up to MAX_K.
+     * @return the 2-bit encoded k-mers of the given sequence, i.e., the k-mer starting at position p is at index p.
+     */
+    public static long[] kmerCodesByPosition(BaseSequence seq, int k) {
+        int len = seq.length();
+        if (len < k)
+            throw new RuntimeException("cannot create q grams of len " + k + " for seq of len " + len);
+
+        long mask = (1L << (2 * k)) - 1L;
+        long code = 0L;
+        long[] codes = new long[len - k + 1];
+        for (int p = 0; p < len; p++) {
+            code = ((code << 2) | BaseSequence.code(seq.get(p))) & mask;
+            if (p >= k - 1)
+                codes[p - k + 1] = code;
+        }
+        return codes;
+    }
+
+    private static long[] distinctSorted(long[] codes) {
+        Arrays.sort(codes);
+        int size = 0;
+        for (int p = 0; p < codes.length; p++) {
+            if (p == 0 || codes[p] != codes[size - 1])
+                codes[size++] = codes[p];
+        }
+        return size == codes.length ? codes : Arrays.copyOf(codes, size);
+    }
+
+    private static int intersectBits(long[] a, long[] b) {
+        int count = 0;
+        for (int w = 0; w < a.length; w++)
+            count += Long.bitCount(a[w] & b[w]);
+        return count;
+    }
+
+    private static int intersectSorted(long[] a, long[] b) {
+        int count = 0;
+        int x = 0;
+        int y = 0;
+        while (x < a.length && y < b.length) {
+            if (a[x] < b[y])
+                x++;
+            else if (a[x] > b[y])
+                y++;
+            else {
+                count++;
+                x++;
+                y++;
+            }
+        }
+        return count;
+    }
+
+    private static int blocks(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Receives a pair of sequences and their distance.
+     */
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(int i, int j, float distance);
+    }
+
+    /**
+     * The result of a join.
+     */
+    public static class Result {
+        private final String method;
+        private long pairs;
+        private long violations;
+        private float minDistance;
+        private int minI;
+        private int minJ;
+        private long elapsedMs;
+
+        Result(String method) {
+            this.method = method;
+            this.minDistance = Float.POSITIVE_INFINITY;
+            this.minI = -1;
+            this.minJ = -1;
+        }
+
+        private synchronized void merge(Result other) {
+            pairs += other.pairs;
+            violations += other.violations;
+            if (other.minDistance < minDistance) {
+                minDistance = other.minDistance;
+                minI = other.minI;
+                minJ = other.minJ;
+            }
+        }
+
+        /**
+         * @return the method of the join.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the number of pairs whose distance was computed.
+         */
+        public long getPairs() {
+            return pairs;
+        }
+
+        /**
+         * @return the number of pairs with a distance below the minimum distance.
+         */
+        public long getViolations() {
+            return violations;
+        }
+
+        /**
+         * @return the smallest distance of the compared pairs, or infinity if no pair was compared.
+         */
+        public float getMinDistance() {
+            return minDistance;
+        }
+
+        /**
+         * @return the index of the first sequence of the closest pair, or -1 if no pair was compared.
+         */
+        public int getMinI() {
+            return minI;
+        }
+
+        /**
+         * @return the index of the second sequence of the closest pair, or -1 if no pair was compared.
+         */
+        public int getMinJ() {
+            return minJ;
+        }
+
+        /**
+         * @return the duration of the join in milliseconds.
+         */
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+    }
+}
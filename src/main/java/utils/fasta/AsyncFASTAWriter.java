@@ -0,0 +1,356 @@
+package utils.fasta;
+
+import core.Base;
+import core.BaseSequence;
+import utils.FuncUtils;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fasta file writer that appends sequences from any number of threads without blocking them on disk I/O.
+ * The sequences are put into a bounded lock-free queue and written by a dedicated writer thread, which encodes the bases directly into a reusable direct buffer that is written to a FileChannel.
+ * The buffer is written to the file whenever it is full and at least every flushIntervalMs milliseconds. The file has the same format as written by WriteableFASTAFile.
+ * If the queue is full, the appending threads wait for the writer thread, i.e., the queue's capacity bounds the memory used by unwritten sequences.
+ */
+public class AsyncFASTAWriter extends FASTAFile implements Flushable {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 14;
+    public static final int DEFAULT_BUFF_SIZE = 1 << 20;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000L;
+
+    private static final int CHECK_TIME_EVERY = 256;
+    private static final long FULL_QUEUE_WAIT_NS = TimeUnit.MICROSECONDS.toNanos(50L);
+    private static final byte[] BASE_ASCII = new byte[Base.values().length];
+    private static final byte[] CAPTION_PREFIX_BYTES = CAPTION_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR_BYTES = LINE_SEPARATOR.getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (Base b : Base.values())
+            BASE_ASCII[b.ordinal()] = (byte) b.name().charAt(0);
+    }
+
+    /**
+     * Determines when the written data is forced to the storage device by fsync.
+     */
+    public enum SyncPolicy {
+        /**
+         * Never forces the data to the storage device, i.e., leaves it to the operating system.
+         */
+        NONE,
+        /**
+         * Forces the data to the storage device once when the file is closed.
+         */
+        ON_CLOSE,
+        /**
+         * Forces the data to the storage device after each flush, i.e., at least every flushIntervalMs milliseconds.
+         */
+        ON_FLUSH
+    }
+
+    private record Entry(BaseSequence seq, String caption) {
+    }
+
+    private final Ring queue;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long flushIntervalNs;
+    private final SyncPolicy syncPolicy;
+    private final Thread writer;
+
+    private volatile boolean closed;
+    private volatile boolean parked;
+    private volatile boolean flushRequested;
+    private volatile Throwable error;
+    private volatile int count;
+    private int nextCaption;
+    private boolean empty;
+    private long lastFlush;
+
+    /**
+     * Creates an asynchronous writer for writing/appending to a fasta file.
+     * @param path the path to the fasta file.
+     * @param append a flag denoting whether to append or to write to the file. If this flag is set true, the content of the fasta file will be read first.
+     * @param queueCapacity the maximum number of sequences waiting to be written. It is rounded up to the next power of two.
+     * @param buffSize the size of the buffer that is used to write to the file.
+     * @param flushIntervalMs the maximum time in milliseconds a sequence is buffered before it is written to the file.
+     * @param syncPolicy determines when the data is forced to the storage device.
+     */
+    public AsyncFASTAWriter(String path, boolean append, int queueCapacity, int buffSize, long flushIntervalMs, SyncPolicy syncPolicy) {
+        super(path);
+        Path p = Paths.get(path);
+        int existing = append && Files.exists(p) ? FuncUtils.safeCall(() -> {
+            int linesCount = FuncUtils.countLinesInFile(path, buffSize);
+            if (linesCount % 2 != 0)
+                throw new RuntimeException("fasta file has an odd number of lines: " + linesCount);
+            return linesCount / 2;
+        }) : 0;
+
+        this.channel = FuncUtils.safeCall(() -> append
+                ? FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        this.empty = FuncUtils.safeCall(channel::size) == 0L;
+        this.count = existing;
+        this.nextCaption = existing + 1;
+        this.queue = new Ring(queueCapacity);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1, buffSize));
+        this.flushIntervalNs = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, flushIntervalMs));
+        this.syncPolicy = syncPolicy;
+        this.lastFlush = System.nanoTime();
+        this.writer = new Thread(this::writeLoop, "fasta-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Creates an asynchronous writer for writing/appending to a fasta file with the default queue capacity, buffer size, and flush interval.
+     * @param path the path to the fasta file.
+     * @param append a flag denoting whether to append or to write to the file.
+     * @param syncPolicy determines when the data is forced to the storage device.
+     */
+    public AsyncFASTAWriter(String path, boolean append, SyncPolicy syncPolicy) {
+        this(path, append, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFF_SIZE, DEFAULT_FLUSH_INTERVAL_MS, syncPolicy);
+    }
+
+    /**
+     * Creates an asynchronous writer for writing/appending to a fasta file that forces the data to the storage device when it is closed.
+     * @param path the path to the fasta file.
+     * @param append a flag denoting whether to append or to write to the file.
+     */
+    public AsyncFASTAWriter(String path, boolean append) {
+        this(path, append, SyncPolicy.ON_CLOSE);
+    }
+
+    /**
+     * Appends the given sequence to the fasta file. The sequences are numbered in the order they are written.
+     * @param seq the DNA sequence to append.
+     */
+    public void append(BaseSequence seq) {
+        append(seq, null);
+    }
+
+    /**
+     * Appends the given sequence to the fasta file.
+     * @param seq the DNA sequence to append.
+     * @param caption the sequence's caption as a string, or null to number the sequence in the order it is written.
+     */
+    public void append(BaseSequence seq, String caption) {
+        if (closed)
+            throw new RuntimeException("writer is closed: " + path);
+        checkError();
+        Entry entry = new Entry(seq, caption);
+        while (!queue.offer(entry)) {
+            checkError();
+            LockSupport.parkNanos(this, FULL_QUEUE_WAIT_NS);
+        }
+        if (parked)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return The number of DNA sequences written to the fasta file (including existing and buffered items, but not the queued ones).
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Requests the writer thread to write all queued and buffered sequences to the file. This method does not wait for the data to be written.
+     */
+    @Override
+    public void flush() {
+        checkError();
+        flushRequested = true;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Writes all queued sequences to the file, forces the data to the storage device if required by the SyncPolicy, and closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        FuncUtils.safeRun(writer::join);
+        FuncUtils.safeRun(channel::close);
+        checkError();
+    }
+
+    private void checkError() {
+        if (error != null)
+            throw new RuntimeException("failed writing to " + path, error);
+    }
+
+    private void writeLoop() {
+        try {
+            int sinceTimeCheck = 0;
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry != null) {
+                    encode(entry);
+                    if (++sinceTimeCheck >= CHECK_TIME_EVERY) {
+                        sinceTimeCheck = 0;
+                        if (System.nanoTime() - lastFlush >= flushIntervalNs)
+                            flushBuffer();
+                    }
+                    continue;
+                }
+
+                if (closed && queue.isEmpty())
+                    break;
+
+                long wait = flushIntervalNs - (System.nanoTime() - lastFlush);
+                if (flushRequested || wait <= 0L) {
+                    flushRequested = false;
+                    flushBuffer();
+                    continue;
+                }
+
+                parked = true;
+                if (queue.isEmpty() && !closed && !flushRequested)
+                    LockSupport.parkNanos(this, wait);
+                parked = false;
+            }
+            flushBuffer();
+            if (syncPolicy != SyncPolicy.NONE)
+                channel.force(false);
+        }
+        catch (Throwable t) {
+            // the appending threads check for the error, i.e., they do not wait for a full queue forever
+            error = t;
+        }
+    }
+
+    private void encode(Entry entry) throws IOException {
+        if (empty)
+            empty = false;
+        else
+            put(LINE_SEPARATOR_BYTES);
+        put(CAPTION_PREFIX_BYTES);
+        int caption = nextCaption++;
+        if (entry.caption == null)
+            putInt(caption);
+        else
+            put(entry.caption.getBytes(StandardCharsets.UTF_8));
+        put(LINE_SEPARATOR_BYTES);
+
+        BaseSequence seq = entry.seq;
+        int len = seq.length();
+        for (int i = 0; i < len; i++) {
+            if (!buffer.hasRemaining())
+                writeBuffer();
+            buffer.put(BASE_ASCII[seq.get(i).ordinal()]);
+        }
+        count++;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining())
+                writeBuffer();
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    private void putInt(int value) throws IOException {
+        if (buffer.remaining() < 10)
+            writeBuffer();
+        int digits = 1;
+        for (int v = value / 10; v != 0; v /= 10)
+            digits++;
+        int pos = buffer.position() + digits;
+        for (int i = 1; i <= digits; i++) {
+            buffer.put(pos - i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(pos);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() > 0) {
+            writeBuffer();
+            if (syncPolicy == SyncPolicy.ON_FLUSH)
+                channel.force(false);
+        }
+        lastFlush = System.nanoTime();
+    }
+
+    /**
+     * A bounded lock-free queue for many producers and a single consumer. Each slot stores a sequence number that tells whether it is free for the producer or filled for the consumer.
+     */
+    private static class Ring {
+        private final AtomicReferenceArray<Entry> items;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail;
+        private final int mask;
+        private long head;
+
+        Ring(int capacity) {
+            int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.items = new AtomicReferenceArray<>(cap);
+            this.sequences = new AtomicLongArray(cap);
+            for (int i = 0; i < cap; i++)
+                sequences.set(i, i);
+            this.tail = new AtomicLong();
+            this.mask = cap - 1;
+        }
+
+        boolean offer(Entry e) {
+            long pos = tail.get();
+            while (true) {
+                int index = (int) (pos & mask);
+                long diff = sequences.get(index) - pos;
+                if (diff == 0L) {
+                    if (tail.compareAndSet(pos, pos + 1L)) {
+                        items.set(index, e);
+                        // a volatile write, so that the check of the parked flag afterwards cannot be reordered before it
+                        sequences.set(index, pos + 1L);
+                        return true;
+                    }
+                    pos = tail.get();
+                }
+                else if (diff < 0L)
+                    return false;
+                else
+                    pos = tail.get();
+            }
+        }
+
+        Entry poll() {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1L)
+                return null;
+            Entry e = items.get(index);
+            items.set(index, null);
+            sequences.lazySet(index, head + mask + 1L);
+            head++;
+            return e;
+        }
+
+        boolean isEmpty() {
+            return sequences.get((int) (head & mask)) != head + 1L;
+        }
+    }
+}
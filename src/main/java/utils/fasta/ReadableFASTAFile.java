@@ -8,6 +8,7 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -57,6 +58,45 @@ public class ReadableFASTAFile extends FASTAFile implements Iterable<ReadableFAS
         return Entry.of(captionLine, seqLine);
     }
 
+    /**
+     * Reads the remaining records of the file, whose sequences may span multiple lines, e.g., a reference genome. The sequences are passed as raw strings in chunks, so that records of any length can be processed.
+     * Consecutive chunks of the same record overlap by the given number of characters. Sequence characters are not validated, i.e., chunks can contain any character but line breaks.
+     * @param chunkLen the minimum length of a chunk, except for the last chunk of a record.
+     * @param overlap the number of characters at the end of a chunk that are repeated at the start of the next chunk of the same record.
+     * @param consumer the consumer of the caption and a chunk of the sequence of each record.
+     */
+    public void readChunks(int chunkLen, int overlap, BiConsumer<String, String> consumer) {
+        if (overlap >= chunkLen)
+            throw new RuntimeException("overlap must be < chunkLen");
+        StringBuilder sb = new StringBuilder(chunkLen + DEFAULT_BUFF_SIZE);
+        String caption = null;
+        int carried = 0;
+        String line;
+        while ((line = FuncUtils.safeCall(this.br::readLine)) != null) {
+            if (line.startsWith(CAPTION_PREFIX)) {
+                if (caption != null && sb.length() > carried)
+                    consumer.accept(caption, sb.toString());
+                caption = line.substring(CAPTION_START_INDEX);
+                sb.setLength(0);
+                carried = 0;
+                continue;
+            }
+            if (caption == null)
+                throw new RuntimeException("no FASTA caption found before: " + line);
+
+            sb.append(line.strip());
+            if (sb.length() >= chunkLen) {
+                consumer.accept(caption, sb.toString());
+                sb.delete(0, sb.length() - overlap);
+                carried = overlap;
+            }
+        }
+        if (caption != null && sb.length() > carried)
+            consumer.accept(caption, sb.toString());
+
+        close();
+    }
+
     /**
      * @return the remaining sequences in the file as a list of Entry.
      */
@@ -0,0 +1,354 @@
+package utils.fold;
+
+import core.BaseSequence;
+import utils.DGCalculator;
+
+/**
+ * A pure-Java minimum free energy (MFE) folding engine for single DNA strands. It implements the Zuker dynamic program with DNA nearest-neighbour parameters (SantaLucia & Hicks, 2004) for stacks, hairpins, bulges, internal loops and a linear multi-branch loop model.
+ * <p>
+ * The returned dg follows the dg server (dg/worker.py): the energy of the MFE structure is summed over its loops with stacking energies weighted by 0.5.
+ * Compared to seqfold, which is used by the dg server, hairpin mismatches are a constant, multi-branch loops are linear, and dangling ends are ignored. The engine is therefore not selectable as a dg backend until its deviation from seqfold was measured by NNFoldingEngineCheck.
+ * <p>
+ * This class is thread-safe. Each thread reuses its own dynamic programming matrices, so that no memory is allocated per call once the matrices have grown to the longest sequence folded.
+ */
+public class NNFoldingEngine implements DGCalculator {
+
+    public static final int MAX_LOOP = 30;
+    private static final int MIN_HAIRPIN_LOOP = 3;
+    private static final float INF = Float.POSITIVE_INFINITY;
+    private static final float STACK_WEIGHT = 0.5f;
+
+    private static final double ZERO_CELSIUS_IN_KELVIN = 273.15d;
+    private static final double T_37 = 37.0d + ZERO_CELSIUS_IN_KELVIN;
+    // gas constant in kcal K-1 mol-1
+    private static final double R = 1.9872e-3d;
+
+    // Watson-Crick stacks 5'-XY-3' / 3'-X'Y'-5' indexed by X * 4 + Y with A=0, C=1, G=2, T=3: {dH (kcal mol-1), dS (cal K-1 mol-1)}
+    private static final double[][] STACK_DH_DS = {
+            /* AA */ {-7.6d, -21.3d}, /* AC */ {-8.4d, -22.4d}, /* AG */ {-7.8d, -21.0d}, /* AT */ {-7.2d, -20.4d},
+            /* CA */ {-8.5d, -22.7d}, /* CC */ {-8.0d, -19.9d}, /* CG */ {-10.6d, -27.2d}, /* CT */ {-7.8d, -21.0d},
+            /* GA */ {-8.2d, -22.2d}, /* GC */ {-9.8d, -24.4d}, /* GG */ {-8.0d, -19.9d}, /* GT */ {-8.4d, -22.4d},
+            /* TA */ {-7.2d, -21.3d}, /* TC */ {-8.2d, -22.2d}, /* TG */ {-8.5d, -22.7d}, /* TT */ {-7.6d, -21.3d}
+    };
+    // terminal AT penalty {dH, dS}
+    private static final double[] TERMINAL_AT_DH_DS = {2.2d, 6.9d};
+
+    // loop initiation dG at 37 °C as {loop size, dG}; loops are considered purely entropic
+    private static final double[][] HAIRPIN_INIT_37 = {{3, 3.5d}, {4, 3.5d}, {5, 3.3d}, {6, 4.0d}, {7, 4.2d}, {8, 4.3d}, {9, 4.5d}, {10, 4.6d}, {12, 5.0d}, {14, 5.1d}, {16, 5.3d}, {18, 5.5d}, {20, 5.7d}, {25, 6.1d}, {30, 6.3d}};
+    private static final double[][] BULGE_INIT_37 = {{1, 4.0d}, {2, 2.9d}, {3, 3.1d}, {4, 3.2d}, {5, 3.3d}, {6, 3.5d}, {7, 3.7d}, {8, 3.9d}, {9, 4.1d}, {10, 4.3d}, {12, 4.5d}, {14, 4.8d}, {16, 5.0d}, {18, 5.2d}, {20, 5.3d}, {25, 5.6d}, {30, 5.9d}};
+    private static final double[][] INTERNAL_INIT_37 = {{2, 0.5d}, {3, 3.2d}, {4, 3.6d}, {5, 4.0d}, {6, 4.4d}, {7, 4.6d}, {8, 4.8d}, {9, 4.9d}, {10, 4.9d}, {12, 5.2d}, {14, 5.4d}, {16, 5.6d}, {18, 5.8d}, {20, 5.9d}, {25, 6.3d}, {30, 6.6d}};
+
+    private static final double HAIRPIN_MISMATCH_37 = -0.8d;
+    private static final double HAIRPIN_MISMATCH_BONUS_37 = -0.8d;
+    private static final double INTERNAL_ASYMMETRY_37 = 0.3d;
+    private static final double INTERNAL_AT_CLOSURE_37 = 0.5d;
+    private static final double MULTI_CLOSING_37 = 3.4d;
+    private static final double MULTI_UNPAIRED_37 = 0.0d;
+    private static final double MULTI_BRANCH_37 = 0.4d;
+
+    private static final int MAX_PRECOMPUTED_HAIRPIN = 128;
+
+    private volatile Params params;
+    private final ThreadLocal<Workspace> workspaces;
+
+    /**
+     * Creates a folding engine. The energy parameters are computed for the first temperature requested and recomputed whenever the temperature changes.
+     */
+    public NNFoldingEngine() {
+        this.workspaces = ThreadLocal.withInitial(Workspace::new);
+    }
+
+    /**
+     * Computes the dg of the minimum free energy structure of the given BaseSequence.
+     * @param seq the BaseSequence.
+     * @param temp the temperature in °C.
+     * @return the dg in kcal/mol, or 0 if no base pair can form.
+     */
+    @Override
+    public float dg(BaseSequence seq, float temp) {
+        Params p = params;
+        if (p == null || p.temp != temp) {
+            p = new Params(temp);
+            params = p;
+        }
+        Workspace ws = workspaces.get();
+        int n = seq.length();
+        ws.ensureCapacity(n);
+        int[] c = ws.codes;
+        for (int i = 0; i < n; i++)
+            c[i] = BaseSequence.code(seq.get(i));
+
+        return fold(c, n, p, ws);
+    }
+
+    private static float fold(int[] c, int n, Params p, Workspace ws) {
+        float[] v = ws.v;
+        float[] vs = ws.vs;
+        float[] wm = ws.wm;
+        float[] wms = ws.wms;
+        for (int i = 0; i < n * n; i++) {
+            v[i] = INF;
+            wm[i] = INF;
+        }
+
+        float bestHelix = INF;
+        float bestHelixStacks = 0.0f;
+        for (int d = MIN_HAIRPIN_LOOP + 1; d < n; d++) {
+            for (int i = 0, j = d; j < n; i++, j++) {
+                int ij = i * n + j;
+                float e = INF;
+                float es = 0.0f;
+                if (c[i] + c[j] == 3) {
+                    // hairpin
+                    e = hairpin(c, i, j, p);
+
+                    // stacks, bulges and internal loops
+                    int pMax = Math.min(i + MAX_LOOP + 1, j - MIN_HAIRPIN_LOOP - 2);
+                    for (int pi = i + 1; pi <= pMax; pi++) {
+                        int l1 = pi - i - 1;
+                        int qMin = Math.max(pi + MIN_HAIRPIN_LOOP + 1, j - 1 - (MAX_LOOP - l1));
+                        int cp = 3 - c[pi];
+                        int row = pi * n;
+                        for (int qi = j - 1; qi >= qMin; qi--) {
+                            if (c[qi] != cp)
+                                continue;
+                            float inner = v[row + qi];
+                            if (inner == INF)
+                                continue;
+                            int l2 = j - qi - 1;
+                            float loop;
+                            float loopStacks;
+                            if (l1 == 0 && l2 == 0) {
+                                loop = p.stack[c[i] * 4 + c[pi]];
+                                loopStacks = loop;
+                            }
+                            else {
+                                loop = l1 == 0 || l2 == 0 ? bulge(c, i, pi, l1 + l2, p) : internal(c, i, pi, l1, l2, p);
+                                loopStacks = 0.0f;
+                            }
+                            float candidate = loop + inner;
+                            if (candidate < e) {
+                                e = candidate;
+                                es = loopStacks + vs[row + qi];
+                            }
+                        }
+                    }
+
+                    // multi-branch loop closed by (i, j)
+                    float closing = p.multiClosing + p.multiBranch + p.terminalAT(c[i]);
+                    for (int u = i + 2; u < j - 2; u++) {
+                        float left = wm[(i + 1) * n + u];
+                        float right = wm[(u + 1) * n + j - 1];
+                        if (left == INF || right == INF)
+                            continue;
+                        float candidate = closing + left + right;
+                        if (candidate < e) {
+                            e = candidate;
+                            es = wms[(i + 1) * n + u] + wms[(u + 1) * n + j - 1];
+                        }
+                    }
+                }
+                v[ij] = e;
+                vs[ij] = es;
+                if (e != INF && e + p.terminalAT(c[i]) < bestHelix) {
+                    bestHelix = e + p.terminalAT(c[i]);
+                    bestHelixStacks = es;
+                }
+
+                // multi-branch loop content
+                float m = INF;
+                float ms = 0.0f;
+                if (e != INF) {
+                    m = e + p.multiBranch + p.terminalAT(c[i]);
+                    ms = es;
+                }
+                float candidate = wm[(i + 1) * n + j];
+                if (candidate != INF && candidate + p.multiUnpaired < m) {
+                    m = candidate + p.multiUnpaired;
+                    ms = wms[(i + 1) * n + j];
+                }
+                candidate = wm[i * n + j - 1];
+                if (candidate != INF && candidate + p.multiUnpaired < m) {
+                    m = candidate + p.multiUnpaired;
+                    ms = wms[i * n + j - 1];
+                }
+                for (int u = i + MIN_HAIRPIN_LOOP + 1; u < j - MIN_HAIRPIN_LOOP - 1; u++) {
+                    float left = wm[i * n + u];
+                    float right = wm[(u + 1) * n + j];
+                    if (left == INF || right == INF)
+                        continue;
+                    if (left + right < m) {
+                        m = left + right;
+                        ms = wms[i * n + u] + wms[(u + 1) * n + j];
+                    }
+                }
+                wm[ij] = m;
+                wms[ij] = ms;
+            }
+        }
+
+        // exterior loop: w[j + 1] is the best energy of the prefix [0..j]
+        float[] w = ws.w;
+        float[] wss = ws.ws;
+        w[0] = 0.0f;
+        wss[0] = 0.0f;
+        for (int j = 0; j < n; j++) {
+            float e = w[j];
+            float es = wss[j];
+            for (int i = 0; i <= j - MIN_HAIRPIN_LOOP - 1; i++) {
+                float helix = v[i * n + j];
+                if (helix == INF)
+                    continue;
+                float candidate = w[i] + helix + p.terminalAT(c[i]);
+                if (candidate < e) {
+                    e = candidate;
+                    es = wss[i] + vs[i * n + j];
+                }
+            }
+            w[j + 1] = e;
+            wss[j + 1] = es;
+        }
+
+        if (w[n] < 0.0f)
+            return w[n] - STACK_WEIGHT * wss[n];
+        // like seqfold, report the best structure even if it is not favourable
+        if (bestHelix != INF)
+            return bestHelix - STACK_WEIGHT * bestHelixStacks;
+        return 0.0f;
+    }
+
+    private static float hairpin(int[] c, int i, int j, Params p) {
+        int len = j - i - 1;
+        float e = p.hairpinInit(len);
+        if (len == MIN_HAIRPIN_LOOP)
+            return e + p.terminalAT(c[i]);
+
+        e += p.hairpinMismatch;
+        int m5 = c[i + 1];
+        int m3 = c[j - 1];
+        // GA first mismatch and TT mismatch bonus
+        if ((m5 == 2 && m3 == 0) || (m5 == 3 && m3 == 3))
+            e += p.hairpinMismatchBonus;
+        return e;
+    }
+
+    private static float bulge(int[] c, int i, int pi, int len, Params p) {
+        float e = p.bulgeInit[len];
+        if (len == 1)
+            return e + p.stack[c[i] * 4 + c[pi]];
+        return e + p.terminalAT(c[i]) + p.terminalAT(c[pi]);
+    }
+
+    private static float internal(int[] c, int i, int pi, int l1, int l2, Params p) {
+        return p.internalInit[l1 + l2] + p.internalAsymmetry * Math.abs(l1 - l2) + p.internalATClosure(c[i]) + p.internalATClosure(c[pi]);
+    }
+
+    private static double interpolate(double[][] table, int size, double temp) {
+        double[] last = table[table.length - 1];
+        if (size >= last[0])
+            return last[1] + 2.44d * R * temp * Math.log(size / last[0]);
+        if (size <= table[0][0])
+            return table[0][1];
+        for (int t = 1; t < table.length; t++) {
+            if (size <= table[t][0]) {
+                double[] lo = table[t - 1];
+                double[] hi = table[t];
+                return lo[1] + (hi[1] - lo[1]) * (size - lo[0]) / (hi[0] - lo[0]);
+            }
+        }
+        return last[1];
+    }
+
+    private static float[] loopTable(double[][] table, int maxSize, double scale) {
+        float[] result = new float[maxSize + 1];
+        result[0] = INF;
+        for (int size = 1; size <= maxSize; size++)
+            result[size] = size < table[0][0] ? INF : (float) (scale * interpolate(table, size, T_37));
+
+        return result;
+    }
+
+    private static final class Params {
+        private final float temp;
+        private final double kelvin;
+        private final double scale;
+        private final float[] stack;
+        private final float terminalAT;
+        private final float[] hairpinInit;
+        private final float[] bulgeInit;
+        private final float[] internalInit;
+        private final float hairpinMismatch;
+        private final float hairpinMismatchBonus;
+        private final float internalAsymmetry;
+        private final float internalATClosure;
+        private final float multiClosing;
+        private final float multiUnpaired;
+        private final float multiBranch;
+
+        private Params(float temp) {
+            this.temp = temp;
+            this.kelvin = temp + ZERO_CELSIUS_IN_KELVIN;
+            this.scale = kelvin / T_37;
+            this.stack = new float[16];
+            for (int i = 0; i < 16; i++)
+                stack[i] = dg(STACK_DH_DS[i]);
+            this.terminalAT = dg(TERMINAL_AT_DH_DS);
+            this.hairpinInit = loopTable(HAIRPIN_INIT_37, MAX_PRECOMPUTED_HAIRPIN, scale);
+            this.bulgeInit = loopTable(BULGE_INIT_37, MAX_LOOP, scale);
+            this.internalInit = loopTable(INTERNAL_INIT_37, MAX_LOOP, scale);
+            this.hairpinMismatch = (float) (scale * HAIRPIN_MISMATCH_37);
+            this.hairpinMismatchBonus = (float) (scale * HAIRPIN_MISMATCH_BONUS_37);
+            this.internalAsymmetry = (float) (scale * INTERNAL_ASYMMETRY_37);
+            this.internalATClosure = (float) (scale * INTERNAL_AT_CLOSURE_37);
+            this.multiClosing = (float) (scale * MULTI_CLOSING_37);
+            this.multiUnpaired = (float) (scale * MULTI_UNPAIRED_37);
+            this.multiBranch = (float) (scale * MULTI_BRANCH_37);
+        }
+
+        private float dg(double[] dhDs) {
+            return (float) (dhDs[0] - kelvin * dhDs[1] / 1000.0d);
+        }
+
+        private float terminalAT(int code) {
+            return code == 0 || code == 3 ? terminalAT : 0.0f;
+        }
+
+        private float internalATClosure(int code) {
+            return code == 0 || code == 3 ? internalATClosure : 0.0f;
+        }
+
+        private float hairpinInit(int len) {
+            if (len <= MAX_PRECOMPUTED_HAIRPIN)
+                return hairpinInit[len];
+            return (float) (scale * interpolate(HAIRPIN_INIT_37, len, T_37));
+        }
+    }
+
+    private static final class Workspace {
+        private int capacity;
+        private int[] codes;
+        private float[] v;
+        private float[] vs;
+        private float[] wm;
+        private float[] wms;
+        private float[] w;
+        private float[] ws;
+
+        private Workspace() {
+            this.capacity = -1;
+        }
+
+        private void ensureCapacity(int n) {
+            if (n <= capacity)
+                return;
+            capacity = n;
+            codes = new int[n];
+            v = new float[n * n];
+            vs = new float[n * n];
+            wm = new float[n * n];
+            wms = new float[n * n];
+            w = new float[n + 1];
+            ws = new float[n + 1];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package utils.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe, low-overhead latency histogram. Buckets are logarithmic with SUB_BUCKETS linear sub-buckets per power of two, which bounds the relative error of the reported percentiles by 1 / SUB_BUCKETS.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE + 1) * SUB_BUCKETS;
+
+    private final LongAdder[] counts;
+    private final LongAdder total;
+    private final LongAdder sum;
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = new LongAdder();
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * Records a single value.
+     * @param nanos the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0L)
+            nanos = 0L;
+        counts[bucketOf(nanos)].increment();
+        total.increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long count() {
+        return total.sum();
+    }
+
+    /**
+     * @return the sum of all recorded values in nanoseconds.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the mean of the recorded values in nanoseconds.
+     */
+    public double mean() {
+        long n = count();
+        return n > 0L ? (double) sum() / n : 0.0d;
+    }
+
+    /**
+     * @param p the percentile in [0, 1], e.g., 0.99.
+     * @return the upper bound in nanoseconds of the bucket that contains the given percentile.
+     */
+    public long percentile(double p) {
+        long n = count();
+        if (n == 0L)
+            return 0L;
+        long rank = (long) Math.ceil(Math.min(1.0d, Math.max(0.0d, p)) * n);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i].sum();
+            if (seen >= rank && seen > 0L)
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Resets all counts.
+     */
+    public void reset() {
+        for (LongAdder c : counts)
+            c.reset();
+        total.reset();
+        sum.reset();
+    }
+
+    private static int bucketOf(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        if (exp >= 63)
+            return Long.MAX_VALUE;
+        return (1L << exp) + ((long) (sub + 1) << (exp - SUB_BUCKET_BITS)) - 1L;
+    }
+}
@@ -0,0 +1,66 @@
+import core.BaseSequence;
+import rules.HairpinScreenRule;
+import utils.FuncUtils;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Calibrates the threshold of the hairpin screen (dg_prefilter) against reference energies of seqfold, which are written by dg/reference.py like the dg server computes them.
+ * A sequence is falsely rejected if the screen rejects it, but the dg rule would pass it, i.e., its seqfold dg is at least the dg threshold. The highest threshold without false rejections is the lowest estimate of all such sequences, minus a small step, since the screen rejects estimates at or below its threshold.
+ * Usage: HairpinScreenCheck [reference path] [margin] [dg threshold], where the recommended dg_prefilter_dg is the highest threshold without false rejections minus the margin in kcal/mol.
+ */
+public class HairpinScreenCheck {
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : "seqfold_reference.tsv";
+        double margin = args.length > 1 ? Double.parseDouble(args[1]) : 1.0d;
+        float threshold = args.length > 2 ? Float.parseFloat(args[2]) : -4.0f;
+        List<String> lines = FuncUtils.safeCall(() -> Files.readAllLines(Paths.get(path)));
+        int n = lines.size() - 1;
+        if (n <= 0)
+            throw new RuntimeException("no reference energies in " + path);
+
+        double[] estimates = new double[n];
+        boolean[] rejectedBySeqfold = new boolean[n];
+        double lowestPassing = Double.POSITIVE_INFINITY;
+        String lowestPassingSeq = null;
+        for (int i = 0; i < n; i++) {
+            String[] fields = lines.get(i + 1).split("\t");
+            float temp = Float.parseFloat(fields[1]);
+            double expected = Double.parseDouble(fields[2]);
+            estimates[i] = new HairpinScreenRule(temp).minHairpinDg(new BaseSequence(fields[0]));
+            rejectedBySeqfold[i] = expected < threshold;
+            if (!rejectedBySeqfold[i] && estimates[i] < lowestPassing) {
+                lowestPassing = estimates[i];
+                lowestPassingSeq = fields[0] + " at " + temp + " C (seqfold " + expected + ")";
+            }
+        }
+
+        double safe = Math.nextDown(lowestPassing);
+        double recommended = safe - margin;
+        System.out.println("reference energies: " + n);
+        System.out.println("lowest estimate of a sequence that passes the dg rule: " + lowestPassing + " kcal/mol: " + lowestPassingSeq);
+        System.out.println("highest threshold without false rejections: " + safe + " kcal/mol");
+        report("default threshold", HairpinScreenRule.DEFAULT_REJECT_DG, estimates, rejectedBySeqfold);
+        report("recommended threshold (margin " + margin + ")", recommended, estimates, rejectedBySeqfold);
+    }
+
+    private static void report(String name, double rejectDg, double[] estimates, boolean[] rejectedBySeqfold) {
+        int n = estimates.length;
+        int rejected = 0;
+        int falseRejections = 0;
+        int seqfoldRejections = 0;
+        for (int i = 0; i < n; i++) {
+            if (rejectedBySeqfold[i])
+                seqfoldRejections++;
+            if (estimates[i] <= rejectDg) {
+                rejected++;
+                if (!rejectedBySeqfold[i])
+                    falseRejections++;
+            }
+        }
+        System.out.println(name + " " + rejectDg + " kcal/mol: " + rejected + " rejected (" + (double) rejected / n + " of the dg computations saved), "
+                + falseRejections + " false rejections, " + (rejected - falseRejections) + " of " + seqfoldRejections + " dg rule rejections caught");
+    }
+}
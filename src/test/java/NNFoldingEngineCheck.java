@@ -0,0 +1,70 @@
+import core.BaseSequence;
+import utils.FuncUtils;
+import utils.fold.NNFoldingEngine;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compares the dg energies of the local folding engine (NNFoldingEngine) to reference energies of seqfold, which are written by dg/reference.py like the dg server computes them.
+ * Usage: NNFoldingEngineCheck [reference path] [dg threshold], where the dg threshold is the energy below which the dg rule alone exceeds the default max_err of 0.5.
+ */
+public class NNFoldingEngineCheck {
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : "seqfold_reference.tsv";
+        float threshold = args.length > 1 ? Float.parseFloat(args[1]) : -4.0f;
+        List<String> lines = FuncUtils.safeCall(() -> Files.readAllLines(Paths.get(path)));
+        NNFoldingEngine engine = new NNFoldingEngine();
+
+        int n = 0;
+        int agreements = 0;
+        int falseRejections = 0;
+        int falseAcceptances = 0;
+        double sumError = 0.0d;
+        double sumAbsError = 0.0d;
+        double sumSquaredError = 0.0d;
+        double maxAbsError = 0.0d;
+        String maxSeq = null;
+        double sx = 0.0d, sy = 0.0d, sxx = 0.0d, syy = 0.0d, sxy = 0.0d;
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t");
+            float temp = Float.parseFloat(fields[1]);
+            double expected = Double.parseDouble(fields[2]);
+            double actual = engine.dg(new BaseSequence(fields[0]), temp);
+            double error = actual - expected;
+            n++;
+            sumError += error;
+            sumAbsError += Math.abs(error);
+            sumSquaredError += error * error;
+            if (Math.abs(error) > maxAbsError) {
+                maxAbsError = Math.abs(error);
+                maxSeq = fields[0] + " at " + temp + " C (seqfold " + expected + ", local " + actual + ")";
+            }
+            sx += expected;
+            sy += actual;
+            sxx += expected * expected;
+            syy += actual * actual;
+            sxy += expected * actual;
+            boolean rejectedExpected = expected < threshold;
+            boolean rejectedActual = actual < threshold;
+            if (rejectedExpected == rejectedActual)
+                agreements++;
+            else if (rejectedActual)
+                falseRejections++;
+            else
+                falseAcceptances++;
+        }
+        if (n == 0)
+            throw new RuntimeException("no reference energies in " + path);
+
+        double pearson = (n * sxy - sx * sy) / Math.sqrt((n * sxx - sx * sx) * (n * syy - sy * sy));
+        System.out.println("reference energies: " + n);
+        System.out.println("mean error (local - seqfold): " + sumError / n + " kcal/mol");
+        System.out.println("mean absolute error: " + sumAbsError / n + " kcal/mol");
+        System.out.println("root mean squared error: " + Math.sqrt(sumSquaredError / n) + " kcal/mol");
+        System.out.println("max absolute error: " + maxAbsError + " kcal/mol: " + maxSeq);
+        System.out.println("pearson correlation: " + pearson);
+        System.out.println("filter agreement at dg < " + threshold + ": " + (double) agreements / n + " (" + falseRejections + " rejected only locally, " + falseAcceptances + " rejected only by seqfold)");
+    }
+}